@@ -0,0 +1,49 @@
+package com.liukai.thinkinjava.concurrent;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 基准测试的运行工具，在不同的线程数下依次运行同一个基准测试
+ */
+final class Benchmarks {
+
+    static final int[] THREADS = {1, 2, 4, 8, 16, 32, 64, 128};
+    static final int[] GROUPS = {1, 2, 4, 8, 16, 32, 64};
+
+    private Benchmarks() {
+    }
+
+    /**
+     * 以不同的线程数运行基准测试
+     *
+     * @param benchmark
+     * @param threads
+     * @throws RunnerException
+     */
+    static void runWithThreads(Class<?> benchmark, int... threads) throws RunnerException {
+        for (int t : threads) {
+            run(new OptionsBuilder().include(benchmark.getName() + "\\.").threads(t));
+        }
+    }
+
+    /**
+     * 以不同的生产者/消费者数量运行分组的基准测试，每组中生产者和消费者各n个线程
+     *
+     * @param benchmark
+     * @param groups
+     * @throws RunnerException
+     */
+    static void runWithGroups(Class<?> benchmark, int... groups) throws RunnerException {
+        for (int n : groups) {
+            run(new OptionsBuilder().include(benchmark.getName() + "\\.").threadGroups(n, n));
+        }
+    }
+
+    static void run(ChainedOptionsBuilder options) throws RunnerException {
+        new Runner(options.build()).run();
+    }
+
+}
@@ -0,0 +1,49 @@
+package com.liukai.thinkinjava.concurrent;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.RunnerException;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 顾客队列CustomerLine的put/take吞吐量基准测试
+ * 生产者和消费者共享一个有界队列，使用限时的offer/poll，以免迭代结束时线程阻塞在队列上
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CustomerLineBenchmark {
+
+    @Param({"50"})
+    public int maxLineSize;
+
+    private CustomerLine customers;
+    private Customer customer;
+
+    @Setup
+    public void setup() {
+        customers = new CustomerLine(maxLineSize);
+        customer = new Customer(100);
+    }
+
+    @Benchmark
+    @Group("line")
+    public boolean put() throws InterruptedException {
+        return customers.offer(customer, 10, TimeUnit.MILLISECONDS);
+    }
+
+    @Benchmark
+    @Group("line")
+    public void take(Blackhole bh) throws InterruptedException {
+        bh.consume(customers.poll(10, TimeUnit.MILLISECONDS));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Benchmarks.runWithGroups(CustomerLineBenchmark.class, Benchmarks.GROUPS);
+    }
+
+}
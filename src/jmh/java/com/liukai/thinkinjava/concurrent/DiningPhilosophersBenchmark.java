@@ -0,0 +1,118 @@
+package com.liukai.thinkinjava.concurrent;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 哲学家就餐引擎DiningPhilosophers各个获取策略的基准测试
+ * 每次调用运行一张桌子RUN_MILLIS毫秒，通过辅助计数器报告每秒进餐次数、没有进餐的哲学家数量和平均公平性指数，
+ * 公平性是每个线程自己的平均值，多线程运行时JMH会把各个线程的值相加，所以只用默认的单个基准测试线程运行，
+ * 哲学家运行在虚拟线程上，上千个哲学家不需要上千个平台线程
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DiningPhilosophersBenchmark {
+
+    private static final long RUN_MILLIS = 200;
+
+    @Param({"ORDERED", "TRY_LOCK", "WAITER", "CHANDY_MISRA"})
+    public String strategy;
+
+    @Param({"5", "1000"})
+    public int philosophers;
+
+    @Param({"10"})
+    public long micros;//思考和进餐的时间
+
+    private ExecutorService es;
+
+    /**
+     * 进餐次数，按时间归一化为每秒进餐次数
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Meals {
+
+        public long meals;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            meals = 0;
+        }
+    }
+
+    /**
+     * 每次迭代中没有进餐的哲学家的累计数量
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Starvation {
+
+        public long starved;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            starved = 0;
+        }
+    }
+
+    /**
+     * 每次迭代中各张桌子的公平性指数的平均值
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Fairness {
+
+        private double sum;
+        private long tables;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            sum = 0;
+            tables = 0;
+        }
+
+        void add(double fairness) {
+            sum += fairness;
+            tables++;
+        }
+
+        public double fairness() {
+            return tables == 0 ? 0 : sum / tables;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        es = DemoExecutors.newExecutor(DemoExecutors.Mode.VIRTUAL);
+    }
+
+    @TearDown
+    public void tearDown() {
+        es.shutdownNow();
+    }
+
+    @Benchmark
+    public void dine(Meals meals, Starvation starvation, Fairness fairness) throws InterruptedException {
+        DiningPhilosophers table = new DiningPhilosophers(philosophers,
+                DiningPhilosophers.Strategy.valueOf(strategy), TimeUnit.MICROSECONDS.toNanos(micros),
+                TimeUnit.MICROSECONDS.toNanos(micros));
+        DiningPhilosophers.Result result = table.run(es, RUN_MILLIS, TimeUnit.MILLISECONDS);
+        meals.meals += result.totalMeals();
+        starvation.starved += result.starved();
+        fairness.add(result.fairness());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Benchmarks.run(new OptionsBuilder().include(DiningPhilosophersBenchmark.class.getName() + "\\."));
+    }
+
+}
@@ -0,0 +1,136 @@
+package com.liukai.thinkinjava.concurrent;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.RunnerException;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Exchanger;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 双缓冲流水线DoubleBufferPipeline与ExchangerDemo原来的实现的吞吐量基准测试
+ * 原来的实现：生产者用add(i, x)向CopyOnWriteArrayList添加元素，满SIZE个后交换，
+ * 消费者遍历时逐个remove，每次添加和删除都复制整个数组。
+ * 每个基准测试线程都是一个生产者，并拥有一个专属的消费者线程，测量每秒传递的元素数量
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DoubleBufferPipelineBenchmark {
+
+    @Param({"20", "1000"})
+    public int capacity;
+
+    private final Object item = new Object();
+
+    /**
+     * 原来的实现
+     */
+    @State(Scope.Thread)
+    public static class CopyOnWritePair {
+
+        Exchanger<List<Object>> exchanger;
+        List<Object> holder;
+        int capacity;
+        Thread consumer;
+
+        @Setup
+        public void start(DoubleBufferPipelineBenchmark benchmark) {
+            capacity = benchmark.capacity;
+            exchanger = new Exchanger<>();
+            holder = new CopyOnWriteArrayList<>();
+            consumer = daemon(new Runnable() {
+                @Override
+                public void run() {
+                    List<Object> list = new CopyOnWriteArrayList<>();
+                    try {
+                        while (!Thread.interrupted()) {
+                            list = exchanger.exchange(list);
+                            for (Object x : list) {
+                                list.remove(x);
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        //基准测试结束
+                    }
+                }
+            });
+        }
+
+        @TearDown
+        public void stop() throws InterruptedException {
+            consumer.interrupt();
+            consumer.join();
+        }
+    }
+
+    /**
+     * 双缓冲流水线
+     */
+    @State(Scope.Thread)
+    public static class BufferPair {
+
+        DoubleBufferPipeline.Channel<Object> channel;
+        Thread consumer;
+
+        @Setup
+        public void start(DoubleBufferPipelineBenchmark benchmark) {
+            channel = new DoubleBufferPipeline<>(1, benchmark.capacity).channel(0);
+            final Consumer<Object> sink = new Consumer<Object>() {
+                @Override
+                public void accept(Object o) {
+                    //只传递，不处理
+                }
+            };
+            consumer = daemon(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (!Thread.interrupted() && channel.drainTo(sink) >= 0) {
+                            //继续交换
+                        }
+                    } catch (InterruptedException e) {
+                        //基准测试结束
+                    }
+                }
+            });
+        }
+
+        @TearDown
+        public void stop() throws InterruptedException {
+            consumer.interrupt();
+            consumer.join();
+        }
+    }
+
+    private static Thread daemon(Runnable task) {
+        Thread thread = new Thread(task);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    @Benchmark
+    public void copyOnWrite(CopyOnWritePair pair) throws InterruptedException {
+        List<Object> holder = pair.holder;
+        holder.add(holder.size(), item);
+        if (holder.size() == pair.capacity) {
+            pair.holder = pair.exchanger.exchange(holder);
+        }
+    }
+
+    @Benchmark
+    public void doubleBuffer(BufferPair pair) throws InterruptedException {
+        pair.channel.put(item);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Benchmarks.runWithThreads(DoubleBufferPipelineBenchmark.class, Benchmarks.THREADS);
+    }
+
+}
@@ -0,0 +1,67 @@
+package com.liukai.thinkinjava.concurrent;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.RunnerException;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Exchanger;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ExchangerDemo中生产者和消费者通过Exchanger交换List的基准测试
+ * 每个基准测试线程都是一个生产者，并拥有一个专属的消费者线程，测量每秒完成的交换次数
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExchangerBenchmark {
+
+    @State(Scope.Thread)
+    public static class Pair {
+
+        Exchanger<List<Fat>> exchanger;
+        List<Fat> holder;
+        Thread consumer;
+
+        @Setup
+        public void start() {
+            exchanger = new Exchanger<>();
+            holder = new CopyOnWriteArrayList<>();
+            consumer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    List<Fat> list = new CopyOnWriteArrayList<>();
+                    try {
+                        while (!Thread.interrupted()) {
+                            list = exchanger.exchange(list);
+                        }
+                    } catch (InterruptedException e) {
+                        //基准测试结束
+                    }
+                }
+            });
+            consumer.setDaemon(true);
+            consumer.start();
+        }
+
+        @TearDown
+        public void stop() throws InterruptedException {
+            consumer.interrupt();
+            consumer.join();
+        }
+    }
+
+    @Benchmark
+    public List<Fat> exchange(Pair pair) throws InterruptedException {
+        pair.holder = pair.exchanger.exchange(pair.holder);
+        return pair.holder;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Benchmarks.runWithThreads(ExchangerBenchmark.class, Benchmarks.THREADS);
+    }
+
+}
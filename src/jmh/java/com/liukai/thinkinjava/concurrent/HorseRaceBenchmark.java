@@ -0,0 +1,73 @@
+package com.liukai.thinkinjava.concurrent;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.Control;
+import org.openjdk.jmh.runner.RunnerException;
+
+import java.util.Random;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * HorseRace中CyclicBarrier回合的基准测试
+ * 每个基准测试线程是一匹马，所有的马到达栅栏后进入下一回合，测量每秒完成的回合数（每匹马）。
+ * 栅栏的参与者数量等于基准测试的线程数，在初始化时从BenchmarkParams中获取。
+ * 迭代结束时先退出的马会让其他马等待超时，超时后栅栏被破坏，在下一次迭代开始前重置。
+ * 测量期间栅栏被破坏说明有马停顿超过了STALL_MILLIS，此后的回合都不再有意义，所以直接让基准测试失败。
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HorseRaceBenchmark {
+
+    private static final long STALL_MILLIS = 1000;//等待其他马的最长时间
+
+    private CyclicBarrier barrier;
+    private int rounds;
+
+    @State(Scope.Thread)
+    public static class Stride {
+        int strides;
+        Random random = new Random(47);
+    }
+
+    @Setup
+    public void setup(BenchmarkParams params) {
+        barrier = new CyclicBarrier(params.getThreads(), new Runnable() {
+            @Override
+            public void run() {
+                rounds++;
+            }
+        });
+    }
+
+    @Setup(Level.Iteration)
+    public void resetBarrier() {
+        barrier.reset();
+    }
+
+    @Benchmark
+    public int round(Stride horse, Control control) throws InterruptedException {
+        horse.strides += horse.random.nextInt(3);
+        try {
+            barrier.await(STALL_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (BrokenBarrierException | TimeoutException e) {
+            if (!control.stopMeasurement) {
+                throw new IllegalStateException("测量期间栅栏被破坏", e);
+            }
+            //迭代结束
+        }
+        return horse.strides;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Benchmarks.runWithThreads(HorseRaceBenchmark.class, Benchmarks.THREADS);
+    }
+
+}
@@ -0,0 +1,69 @@
+package com.liukai.thinkinjava.concurrent;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.RunnerException;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 对象池签出签入的吞吐量基准测试
+ * 比较加锁扫描的Pool、无锁的LockFreePool和分片的StripedPool在不同线程数下的表现
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PoolBenchmark {
+
+    @Param({"Pool", "LockFreePool", "StripedPool"})
+    public String type;
+
+    @Param({"64"})
+    public int size;
+
+    private ObjectPool<Fat> pool;
+
+    @Setup
+    public void setup() {
+        Supplier<Fat> factory = new Supplier<Fat>() {
+            @Override
+            public Fat get() {
+                return new Fat();
+            }
+        };
+        switch (type) {
+            case "Pool":
+                pool = new Pool<>(factory, size);
+                break;
+            case "LockFreePool":
+                pool = new LockFreePool<>(factory, size);
+                break;
+            case "StripedPool":
+                pool = new StripedPool<>(factory, size);
+                break;
+            default:
+                throw new IllegalArgumentException(type);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.close();
+    }
+
+    @Benchmark
+    public void checkOutCheckIn(Blackhole bh) throws InterruptedException {
+        Fat fat = pool.checkOut();
+        bh.consume(fat);
+        pool.checkIn(fat);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Benchmarks.runWithThreads(PoolBenchmark.class, Benchmarks.THREADS);
+    }
+
+}
@@ -0,0 +1,68 @@
+package com.liukai.thinkinjava.concurrent;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.RunnerException;
+
+import java.util.Random;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PriorityBlockingQueueDemo中优先级任务派发的基准测试
+ * 每个线程放入一个随机优先级的任务后取出并执行优先级最高的任务，队列长度不超过线程数。
+ * PrioritizedTask会休眠并向静态列表中记录自己，不适合基准测试，所以使用一个只有优先级的轻量任务
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PriorityBlockingQueueBenchmark {
+
+    private PriorityBlockingQueue<Runnable> queue;
+
+    @State(Scope.Thread)
+    public static class Producer {
+        Random random = new Random(47);
+    }
+
+    @Setup
+    public void setup() {
+        queue = new PriorityBlockingQueue<>();
+    }
+
+    @Benchmark
+    public void dispatch(Producer producer) throws InterruptedException {
+        queue.add(new Task(producer.random.nextInt(11)));
+        queue.take().run();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Benchmarks.runWithThreads(PriorityBlockingQueueBenchmark.class, Benchmarks.THREADS);
+    }
+
+    /**
+     * 只有优先级的任务
+     */
+    static class Task implements Runnable, Comparable<Task> {
+
+        private final int priority;
+        private int executions;
+
+        Task(int priority) {
+            this.priority = priority;
+        }
+
+        @Override
+        public int compareTo(Task task) {
+            return priority > task.priority ? -1 : (priority < task.priority ? 1 : 0);
+        }
+
+        @Override
+        public void run() {
+            executions++;
+        }
+    }
+
+}
@@ -0,0 +1,134 @@
+package com.liukai.thinkinjava.concurrent;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.RunnerException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 多消费者优先级执行器PriorityExecutor与PriorityBlockingQueueDemo原来的设计的吞吐量基准测试
+ * 原来的设计：所有任务放入一个PriorityBlockingQueue，由消费者线程take()后执行。
+ * 每次调用由每个基准测试线程提交BATCH个随机优先级的任务，等待它们全部执行完，
+ * 两种实现都有workers个消费者线程，测量每秒执行的任务数量
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PriorityExecutorBenchmark {
+
+    private static final int BATCH = 100;
+
+    @Param({"1", "4"})
+    public int workers;
+
+    @Param({"0", "1"})
+    public long agingMillis;
+
+    private PriorityExecutor executor;
+    private PriorityBlockingQueue<Task> queue;
+    private final List<Thread> consumers = new ArrayList<>();
+    private final AtomicInteger nextSeed = new AtomicInteger();
+
+    @State(Scope.Thread)
+    public static class Producer {
+
+        SplittableRandom random;
+
+        @Setup
+        public void setup(PriorityExecutorBenchmark benchmark) {
+            random = RandomStreams.stream(PriorityExecutorBenchmark.class, benchmark.nextSeed.getAndIncrement());
+        }
+    }
+
+    @Setup
+    public void setup() {
+        executor = new PriorityExecutor(workers, agingMillis, TimeUnit.MILLISECONDS);
+        queue = new PriorityBlockingQueue<>();
+        for (int i = 0; i < workers; i++) {
+            Thread consumer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (!Thread.interrupted()) {
+                            queue.take().run();
+                        }
+                    } catch (InterruptedException e) {
+                        //基准测试结束
+                    }
+                }
+            });
+            consumer.setDaemon(true);
+            consumer.start();
+            consumers.add(consumer);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        executor.shutdownNow();
+        for (Thread consumer : consumers) {
+            consumer.interrupt();
+            consumer.join();
+        }
+        consumers.clear();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void priorityBlockingQueue(Producer producer) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            queue.add(new Task(producer.random.nextInt(PriorityExecutor.MAX_PRIORITY + 1), done));
+        }
+        done.await();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void priorityExecutor(Producer producer) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            Task task = new Task(producer.random.nextInt(PriorityExecutor.MAX_PRIORITY + 1), done);
+            executor.execute(task.priority, task);
+        }
+        done.await();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Benchmarks.runWithThreads(PriorityExecutorBenchmark.class, 1, 4, 16);
+    }
+
+    /**
+     * 只有优先级的任务，执行时计数
+     */
+    static class Task implements Runnable, Comparable<Task> {
+
+        private final int priority;
+        private final CountDownLatch done;
+
+        Task(int priority, CountDownLatch done) {
+            this.priority = priority;
+            this.done = done;
+        }
+
+        @Override
+        public int compareTo(Task task) {
+            return priority > task.priority ? -1 : (priority < task.priority ? 1 : 0);
+        }
+
+        @Override
+        public void run() {
+            done.countDown();
+        }
+    }
+
+}
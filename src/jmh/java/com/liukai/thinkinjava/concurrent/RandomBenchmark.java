@@ -0,0 +1,62 @@
+package com.liukai.thinkinjava.concurrent;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.RunnerException;
+
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 并发任务生成随机数的吞吐量基准测试
+ * 比较Horse、TaskPortion原来的做法（所有任务共享一个static Random，每次生成都CAS同一个种子）、
+ * ThreadLocalRandom和RandomStreams为每个任务推导的SplittableRandom，
+ * 生成的是Horse每一步的步数nextInt(3)
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RandomBenchmark {
+
+    private final Random shared = new Random(47);
+    private final AtomicInteger nextStream = new AtomicInteger();
+
+    /**
+     * 每个线程一个独立的随机数流，相当于每匹马一个流
+     */
+    @State(Scope.Thread)
+    public static class Stream {
+
+        SplittableRandom random;
+
+        @Setup
+        public void setup(RandomBenchmark benchmark) {
+            random = RandomStreams.stream(RandomBenchmark.class, benchmark.nextStream.getAndIncrement());
+        }
+    }
+
+    @Benchmark
+    public int sharedRandom() {
+        return shared.nextInt(3);
+    }
+
+    @Benchmark
+    public int threadLocalRandom() {
+        return ThreadLocalRandom.current().nextInt(3);
+    }
+
+    @Benchmark
+    public int randomStream(Stream stream) {
+        return stream.random.nextInt(3);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Benchmarks.runWithThreads(RandomBenchmark.class, Benchmarks.THREADS);
+    }
+
+}
@@ -0,0 +1,90 @@
+package com.liukai.thinkinjava.concurrent;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.RunnerException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 环形缓冲区RingBuffer的传递吞吐量基准测试
+ * 每个基准测试线程都是一个生产者，拥有自己的环形缓冲区和readers个消费者线程，
+ * 测量每秒发布的元素数量，与ExchangerBenchmark和DoubleBufferPipelineBenchmark对比
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RingBufferBenchmark {
+
+    @Param({"YIELD", "PARK", "BUSY_SPIN"})
+    public String waitStrategy;
+
+    @Param({"1", "2"})
+    public int readers;
+
+    @Param({"1024"})
+    public int capacity;
+
+    private final Object item = new Object();
+
+    @State(Scope.Thread)
+    public static class Producer {
+
+        RingBuffer<Object> ring;
+        List<Thread> consumers = new ArrayList<>();
+
+        @Setup
+        public void start(RingBufferBenchmark benchmark) {
+            ring = new RingBuffer<>(benchmark.capacity, RingBuffer.WaitStrategy.valueOf(benchmark.waitStrategy));
+            final Consumer<Object> sink = new Consumer<Object>() {
+                @Override
+                public void accept(Object o) {
+                    //只传递，不处理
+                }
+            };
+            for (int i = 0; i < benchmark.readers; i++) {
+                final RingBuffer.Reader<Object> reader = ring.newReader();
+                Thread consumer = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            while (!Thread.interrupted()) {
+                                reader.drainTo(sink);
+                            }
+                        } catch (InterruptedException e) {
+                            //基准测试结束
+                        } finally {
+                            reader.close();
+                        }
+                    }
+                });
+                consumer.setDaemon(true);
+                consumer.start();
+                consumers.add(consumer);
+            }
+        }
+
+        @TearDown
+        public void stop() throws InterruptedException {
+            for (Thread consumer : consumers) {
+                consumer.interrupt();
+                consumer.join();
+            }
+        }
+    }
+
+    @Benchmark
+    public void put(Producer producer) throws InterruptedException {
+        producer.ring.put(item);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Benchmarks.runWithThreads(RingBufferBenchmark.class, 1, 2, 4);
+    }
+
+}
@@ -0,0 +1,56 @@
+package com.liukai.thinkinjava.concurrent;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.RunnerException;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ScalableHorseRace回合的基准测试
+ * 每次调用运行ROUNDS个回合（终点足够远，不会有马获胜），测量每微秒完成的回合数。
+ * 与HorseRaceBenchmark中每个线程一匹马、所有线程竞争一个CyclicBarrier相比，
+ * 这里马的数量与线程数无关，tasks个任务通过分层的Phaser同步
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ScalableHorseRaceBenchmark {
+
+    private static final int ROUNDS = 1000;
+
+    @Param({"1000", "10000"})
+    public int horses;
+
+    @Param({"1", "4", "64"})
+    public int tasks;
+
+    private ScalableHorseRace race;
+    private ExecutorService es;
+
+    @Setup
+    public void setup() {
+        race = new ScalableHorseRace(horses, tasks, Integer.MAX_VALUE, 47);
+        es = Executors.newCachedThreadPool();
+    }
+
+    @TearDown
+    public void tearDown() {
+        es.shutdownNow();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROUNDS)
+    public long rounds() throws Exception {
+        return race.run(es, ROUNDS).rounds;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Benchmarks.runWithThreads(ScalableHorseRaceBenchmark.class, 1);
+    }
+
+}
@@ -0,0 +1,72 @@
+package com.liukai.thinkinjava.concurrent;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.RunnerException;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 分片顾客队列ShardedCustomerLine的put/take吞吐量基准测试
+ * 与CustomerLineBenchmark相同的生产者消费者组，比较不同的队列数量和放置策略，
+ * lines=1时相当于单个CustomerLine
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ShardedCustomerLineBenchmark {
+
+    @Param({"1", "4", "16"})
+    public int lines;
+
+    @Param({"ROUND_ROBIN", "JOIN_SHORTEST_QUEUE", "POWER_OF_TWO_CHOICES"})
+    public String placement;
+
+    @Param({"50"})
+    public int maxLineSize;
+
+    private ShardedCustomerLine customers;
+    private Customer customer;
+    private final AtomicInteger nextHome = new AtomicInteger();
+
+    @Setup
+    public void setup() {
+        customers = new ShardedCustomerLine(lines, maxLineSize, ShardedCustomerLine.Placement.valueOf(placement), 1);
+        customer = new Customer(100);
+    }
+
+    /**
+     * 每个出纳员线程的主队列
+     */
+    @State(Scope.Thread)
+    public static class Teller {
+
+        int home;
+
+        @Setup
+        public void setup(ShardedCustomerLineBenchmark benchmark) {
+            home = benchmark.nextHome.getAndIncrement() % benchmark.lines;
+        }
+    }
+
+    @Benchmark
+    @Group("line")
+    public int put() throws InterruptedException {
+        return customers.offer(customer, 10, TimeUnit.MILLISECONDS);
+    }
+
+    @Benchmark
+    @Group("line")
+    public void take(Teller teller, Blackhole bh) throws InterruptedException {
+        bh.consume(customers.poll(teller.home, 10, TimeUnit.MILLISECONDS));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Benchmarks.runWithGroups(ShardedCustomerLineBenchmark.class, Benchmarks.GROUPS);
+    }
+
+}
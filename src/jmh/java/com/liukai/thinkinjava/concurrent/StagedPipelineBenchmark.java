@@ -0,0 +1,83 @@
+package com.liukai.thinkinjava.concurrent;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 多阶段流水线StagedPipeline的吞吐量基准测试，与WaxOMaticBenchmark中一辆车来回交接的方式对照
+ * 打蜡和抛光交替作为流水线的各个阶段，每次调用提交BATCH辆车并等待它们离开最后一个阶段，测量每秒通过的车辆数。
+ * 流水线只允许一个提交线程，所以只用一个基准测试线程
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+@State(Scope.Benchmark)
+public class StagedPipelineBenchmark {
+
+    private static final int BATCH = 1000;
+
+    @Param({"2", "4"})
+    public int stages;
+
+    @Param({"1", "2"})
+    public int workers;
+
+    @Param({"YIELD", "PARK"})
+    public String waitStrategy;
+
+    private StagedPipeline<Car> pipeline;
+    private final AtomicLong finished = new AtomicLong();
+    private final Car[] cars = new Car[BATCH];
+    private long submitted;
+
+    @Setup
+    public void setup() {
+        List<StagedPipeline.Stage<Car>> line = new ArrayList<>();
+        for (int i = 0; i < stages; i++) {
+            line.add(i % 2 == 0 ? new WaxOn() : new WaxOff());
+        }
+        pipeline = new StagedPipeline<>(line, workers, 256, RingBuffer.WaitStrategy.valueOf(waitStrategy),
+                new Consumer<Car>() {
+                    @Override
+                    public void accept(Car car) {
+                        finished.incrementAndGet();
+                    }
+                });
+        for (int i = 0; i < BATCH; i++) {
+            cars[i] = new Car();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        pipeline.shutdownNow();
+        pipeline.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void pipeline() throws InterruptedException {
+        for (Car car : cars) {
+            pipeline.submit(car);
+        }
+        submitted += BATCH;
+        while (finished.get() < submitted) {
+            Thread.yield();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Benchmarks.run(new OptionsBuilder().include(StagedPipelineBenchmark.class.getName() + "\\."));
+    }
+
+}
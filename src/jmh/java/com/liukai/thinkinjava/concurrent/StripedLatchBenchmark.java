@@ -0,0 +1,44 @@
+package com.liukai.thinkinjava.concurrent;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.RunnerException;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分段计数的StripedLatch与CountDownLatch的countDown()吞吐量基准测试
+ * 所有基准测试线程递减同一个门闩，计数足够大，每次迭代前重新创建，测量期间不会减到0
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StripedLatchBenchmark {
+
+    private CountDownLatch countDownLatch;
+    private StripedLatch stripedLatch;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        countDownLatch = new CountDownLatch(Integer.MAX_VALUE);
+        stripedLatch = new StripedLatch(Integer.MAX_VALUE);
+    }
+
+    @Benchmark
+    public void countDownLatch() {
+        countDownLatch.countDown();
+    }
+
+    @Benchmark
+    public void stripedLatch() {
+        stripedLatch.countDown();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Benchmarks.runWithThreads(StripedLatchBenchmark.class, Benchmarks.THREADS);
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.liukai.thinkinjava.concurrent;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.RunnerException;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * WaxOMatic中Car打蜡/抛光来回交替的基准测试
+ * 每个基准测试线程负责打蜡，并拥有一辆车和一个专属的抛光线程，测量每秒完成的打蜡抛光次数，
+ * 以及一次来回的延迟分布（SampleTime模式），比较锁加条件与自适应的自旋-让出-休眠两种通知方式
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WaxOMaticBenchmark {
+
+    @State(Scope.Thread)
+    public static class Line {
+
+        @Param({"CONDITION", "ADAPTIVE"})
+        public String signalling;
+
+        Car car;
+        Thread buffer;
+
+        @Setup
+        public void start() {
+            car = new Car(Car.Signalling.valueOf(signalling));
+            buffer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (!Thread.interrupted()) {
+                            car.waitForWaxing();
+                            car.buffed();
+                        }
+                    } catch (InterruptedException e) {
+                        //基准测试结束
+                    }
+                }
+            });
+            buffer.setDaemon(true);
+            buffer.start();
+        }
+
+        @TearDown
+        public void stop() throws InterruptedException {
+            buffer.interrupt();
+            buffer.join();
+        }
+    }
+
+    @Benchmark
+    public void waxAndBuff(Line line) throws InterruptedException {
+        line.car.waxed();
+        line.car.waitForBuffing();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Benchmarks.runWithThreads(WaxOMaticBenchmark.class, Benchmarks.THREADS);
+    }
+
+}
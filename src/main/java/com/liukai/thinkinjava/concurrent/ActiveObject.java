@@ -0,0 +1,344 @@
+package com.liukai.thinkinjava.concurrent;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 活动对象
+ * 所有对活动对象的请求都作为消息进入它的邮箱排队，任何时刻只处理其中的一个，请求立即返回CompletableFuture，
+ * 调用者通过回调（thenAccept等）得到结果，而不是轮询isDone()。
+ * 邮箱是有界的多生产者单消费者队列，满了以后按溢出策略阻塞、拒绝或者丢弃最早的消息。
+ * 活动对象不独占线程：邮箱从空变为非空时才把处理任务交给执行器，每次最多连续处理batchSize个消息，
+ * 然后让出线程，所以多个活动对象可以共享一个线程池。
+ */
+class ActiveObject {
+
+    /**
+     * 邮箱满时的处理策略
+     */
+    enum Overflow {
+        /**
+         * 阻塞调用者，直到邮箱有空位
+         */
+        BLOCK,
+        /**
+         * 拒绝新消息，返回的CompletableFuture以RejectedExecutionException结束
+         */
+        REJECT,
+        /**
+         * 丢弃最早的消息，被丢弃的消息以CancellationException结束
+         */
+        DROP_OLDEST
+    }
+
+    private final ConcurrentLinkedQueue<Message<?>> mailbox = new ConcurrentLinkedQueue<>();
+    private final Semaphore slots;//邮箱的空位
+    private final int capacity;
+    private final Overflow overflow;
+    private final int batchSize;
+    private final Executor executor;
+    private final boolean ownsExecutor;
+    private final AtomicBoolean scheduled = new AtomicBoolean();//处理任务已经交给执行器
+    private final CompletableFuture<Void> terminated = new CompletableFuture<>();
+    private volatile boolean closed;
+    private volatile ActorMetrics metrics;//统计信息，默认不开启
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            int n = 0;
+            Message<?> message;
+            ActorMetrics m = metrics;
+            while (n < batchSize && (message = poll()) != null) {
+                message.run(message.enqueued == 0 ? null : m);
+                n++;
+            }
+            processed.add(n);
+            batches.increment();
+            scheduled.set(false);
+            //清除标记后重新检查，避免与刚刚入队的消息错过
+            if (!mailbox.isEmpty()) {
+                schedule();
+            } else if (closed) {
+                terminate();
+            }
+        }
+    };
+
+    /**
+     * 使用自己的单线程执行器
+     *
+     * @param capacity  邮箱容量
+     * @param overflow  邮箱满时的策略
+     * @param batchSize 每次唤醒最多处理的消息数量
+     */
+    ActiveObject(int capacity, Overflow overflow, int batchSize) {
+        this(capacity, overflow, batchSize, Executors.newSingleThreadExecutor(), true);
+    }
+
+    /**
+     * 在共享的执行器上运行
+     *
+     * @param capacity
+     * @param overflow
+     * @param batchSize
+     * @param executor
+     */
+    ActiveObject(int capacity, Overflow overflow, int batchSize, Executor executor) {
+        this(capacity, overflow, batchSize, executor, false);
+    }
+
+    private ActiveObject(int capacity, Overflow overflow, int batchSize, Executor executor, boolean ownsExecutor) {
+        if (capacity <= 0 || batchSize <= 0) {
+            throw new IllegalArgumentException("capacity: " + capacity + ", batchSize: " + batchSize);
+        }
+        this.capacity = capacity;
+        this.slots = new Semaphore(capacity);
+        this.overflow = overflow;
+        this.batchSize = batchSize;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    /**
+     * 向邮箱发送一个请求
+     *
+     * @param task
+     * @param <V>
+     * @return 请求处理完成时结束，请求被拒绝、丢弃时以异常结束
+     */
+    <V> CompletableFuture<V> call(Callable<V> task) {
+        Message<V> message = new Message<>(task);
+        if (closed) {
+            reject(message, "shutdown");
+            return message.future;
+        }
+        if (!acquireSlot(message)) {
+            return message.future;
+        }
+        ActorMetrics m = metrics;
+        if (m != null) {
+            message.enqueued = System.nanoTime();
+        }
+        mailbox.offer(message);
+        if (m != null) {
+            m.queued(mailboxSize());
+        }
+        schedule();
+        return message.future;
+    }
+
+    /**
+     * 按溢出策略取得邮箱的一个空位
+     *
+     * @param message
+     * @return 没有取得空位时返回false，此时message已经以异常结束
+     */
+    private boolean acquireSlot(Message<?> message) {
+        if (slots.tryAcquire()) {
+            return true;
+        }
+        switch (overflow) {
+            case BLOCK:
+                try {
+                    slots.acquire();
+                    return true;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    reject(message, "interrupted");
+                    return false;
+                }
+            case DROP_OLDEST:
+                while (true) {
+                    //取走最早的消息，它占用的空位直接转给新消息
+                    Message<?> oldest = mailbox.poll();
+                    if (oldest != null) {
+                        oldest.future.completeExceptionally(new CancellationException("dropped"));
+                        dropped.increment();
+                        return true;
+                    }
+                    //邮箱已经被取空，空位正在释放
+                    if (slots.tryAcquire()) {
+                        return true;
+                    }
+                    Thread.onSpinWait();
+                }
+            default:
+                reject(message, "mailbox full");
+                return false;
+        }
+    }
+
+    private void reject(Message<?> message, String reason) {
+        message.future.completeExceptionally(new RejectedExecutionException(reason));
+        rejected.increment();
+    }
+
+    private Message<?> poll() {
+        Message<?> message = mailbox.poll();
+        if (message != null) {
+            slots.release();
+        }
+        return message;
+    }
+
+    /**
+     * 没有正在运行或者等待运行的处理任务时，把处理任务交给执行器
+     */
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(drain);
+            } catch (RejectedExecutionException e) {
+                //执行器已经关闭，邮箱中的消息不会再被处理
+                scheduled.set(false);
+                Message<?> message;
+                while ((message = poll()) != null) {
+                    reject(message, "executor shutdown");
+                }
+            }
+        }
+    }
+
+    private void terminate() {
+        if (terminated.complete(null) && ownsExecutor) {
+            ((ExecutorService) executor).shutdown();
+        }
+    }
+
+    /**
+     * 不再接受新的请求，邮箱中已有的请求处理完后结束
+     *
+     * @return 所有请求处理完时结束
+     */
+    CompletableFuture<Void> shutdown() {
+        closed = true;
+        //邮箱为空时也需要一个处理任务来结束
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(drain);
+            } catch (RejectedExecutionException e) {
+                scheduled.set(false);
+                terminate();
+            }
+        }
+        return terminated;
+    }
+
+    /**
+     * 活动对象结束时完成，不会触发关闭
+     *
+     * @return
+     */
+    CompletableFuture<Void> terminated() {
+        return terminated;
+    }
+
+    /**
+     * 邮箱中等待处理的消息数量
+     *
+     * @return
+     */
+    int mailboxSize() {
+        return capacity - slots.availablePermits();
+    }
+
+    long processed() {
+        return processed.sum();
+    }
+
+    /**
+     * 开启邮箱深度和处理延迟的统计
+     *
+     * @return
+     */
+    synchronized ActorMetrics enableMetrics() {
+        if (metrics == null) {
+            metrics = new ActorMetrics();
+        }
+        return metrics;
+    }
+
+    /**
+     * 获取统计信息，没有开启统计时返回null
+     *
+     * @return
+     */
+    ActorMetrics metrics() {
+        return metrics;
+    }
+
+    long rejected() {
+        return rejected.sum();
+    }
+
+    long dropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * 处理任务运行的次数，processed() / batches()是每次唤醒平均处理的消息数量
+     *
+     * @return
+     */
+    long batches() {
+        return batches.sum();
+    }
+
+    /**
+     * 邮箱中的一个请求
+     *
+     * @param <V>
+     */
+    private static class Message<V> {
+
+        final Callable<V> task;
+        final CompletableFuture<V> future = new CompletableFuture<>();
+        long enqueued;//入队时间，没有开启统计时为0
+
+        Message(Callable<V> task) {
+            this.task = task;
+        }
+
+        /**
+         * 执行任务，先记录统计再完成future，调用者拿到结果时这个消息一定已经计入统计
+         *
+         * @param m 统计信息，不统计时为null
+         */
+        void run(ActorMetrics m) {
+            long started = m != null ? System.nanoTime() : 0;
+            V result = null;
+            Throwable failure = null;
+            //调用者已经取消的请求不再执行
+            if (!future.isDone()) {
+                try {
+                    result = task.call();
+                } catch (Throwable e) {
+                    failure = e;
+                }
+            }
+            if (m != null) {
+                m.processed(enqueued, started, System.nanoTime());
+            }
+            if (failure != null) {
+                future.completeExceptionally(failure);
+            } else {
+                future.complete(result);
+            }
+        }
+    }
+
+}
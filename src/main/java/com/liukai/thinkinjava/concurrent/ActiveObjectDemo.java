@@ -1,42 +1,43 @@
 package com.liukai.thinkinjava.concurrent;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
-import java.util.concurrent.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * 活动对象或行动者
  * 每个对象都维护这它自己的工作器线程和消息队列，并且所有对这种对象的请求都将进入队列排队，任何时刻都只能运行其中的一个。
+ * 请求返回CompletableFuture，结果通过回调输出，不再轮询isDone()。
  * Created by Administrator on 2016/8/9 0009.
  */
 public class ActiveObjectDemo {
 
-    private ExecutorService es = Executors.newSingleThreadExecutor();
+    private ActiveObject active = new ActiveObject(16, ActiveObject.Overflow.BLOCK, 8);
     private Random random = new Random(47);
 
     public static void main(String[] args) {
 
         ActiveObjectDemo aod = new ActiveObjectDemo();
-        List<Future<?>> results = new CopyOnWriteArrayList<>();
+        List<CompletableFuture<?>> results = new ArrayList<>();
+        Consumer<Object> printer = new Consumer<Object>() {
+            @Override
+            public void accept(Object result) {
+                System.out.println(result);
+            }
+        };
         for (float f = 0.0f; f < 1.0f; f += 0.2f) {
-            results.add(aod.calculateFloat(f, f));
+            results.add(aod.calculateFloat(f, f).thenAccept(printer));
         }
         for (int i = 0; i < 5; i++) {
-            results.add(aod.calculateInt(i, i));
+            results.add(aod.calculateInt(i, i).thenAccept(printer));
         }
         System.out.println("All asych calls made");
-        while (results.size() > 0) {
-            for (Future f : results) {
-                if (f.isDone()) {
-                    try {
-                        System.out.println(f.get());
-                    } catch (Exception e) {
-                        throw new RuntimeException(e);
-                    }
-                    results.remove(f);
-                }
-            }
-        }
+        //等待所有回调执行完，主线程阻塞而不是轮询
+        CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).join();
         aod.shutdown();
     }
 
@@ -53,8 +54,8 @@ public class ActiveObjectDemo {
         }
     }
 
-    public Future<Integer> calculateInt(final int x, final int y) {
-        return es.submit(new Callable<Integer>() {
+    public CompletableFuture<Integer> calculateInt(final int x, final int y) {
+        return active.call(new Callable<Integer>() {
             @Override
             public Integer call() throws Exception {
                 System.out.println("starting " + x + " + " + y);
@@ -64,8 +65,8 @@ public class ActiveObjectDemo {
         });
     }
 
-    public Future<Float> calculateFloat(final float x, final float y) {
-        return es.submit(new Callable<Float>() {
+    public CompletableFuture<Float> calculateFloat(final float x, final float y) {
+        return active.call(new Callable<Float>() {
             @Override
             public Float call() throws Exception {
                 System.out.println("starting " + x + " + " + y);
@@ -76,7 +77,7 @@ public class ActiveObjectDemo {
     }
 
     public void shutdown() {
-        es.shutdown();
+        active.shutdown();
     }
 
 }
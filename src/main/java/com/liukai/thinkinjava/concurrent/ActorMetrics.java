@@ -0,0 +1,109 @@
+package com.liukai.thinkinjava.concurrent;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 单个活动对象的统计信息：邮箱深度和消息的处理延迟
+ * 一个运行时中可能有上万个活动对象，所以每个对象的统计信息要很小：延迟记录在紧凑精度的ConcurrentHistogram中，
+ * 按2的幂只分64个桶。消息总是由活动对象一个一个地处理，处理数量和服务时间只有一个写入者，
+ * 写入时只用release语义发布，不需要CAS；只有邮箱的峰值由多个发送者更新。
+ */
+class ActorMetrics {
+
+    private static final int PROCESSED = 0;
+    private static final int SERVICE_NANOS = 1;
+
+    private final ConcurrentHistogram latencies = ConcurrentHistogram.compact();//从入队到处理完的延迟，纳秒
+    private final AtomicLongArray values = new AtomicLongArray(2);//处理数量和总服务时间
+    private final AtomicInteger peakMailboxSize = new AtomicInteger();
+
+    /**
+     * 发送者记录消息入队后的邮箱深度
+     *
+     * @param size
+     */
+    void queued(int size) {
+        int peak;
+        while (size > (peak = peakMailboxSize.get())) {
+            if (peakMailboxSize.compareAndSet(peak, size)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 活动对象处理完一个消息后记录，只由处理消息的线程调用
+     *
+     * @param enqueued 入队时间
+     * @param started  开始处理的时间
+     * @param finished 处理完的时间
+     */
+    void processed(long enqueued, long started, long finished) {
+        latencies.record(finished - enqueued);
+        increment(PROCESSED, 1);
+        increment(SERVICE_NANOS, finished - started);
+    }
+
+    private void increment(int index, long delta) {
+        values.setRelease(index, values.getPlain(index) + delta);
+    }
+
+    long processed() {
+        return values.get(PROCESSED);
+    }
+
+    int peakMailboxSize() {
+        return peakMailboxSize.get();
+    }
+
+    /**
+     * 平均处理延迟（从入队到处理完），纳秒
+     *
+     * @return
+     */
+    double meanLatency() {
+        return latencies.mean();
+    }
+
+    /**
+     * 平均服务时间（不含在邮箱中等待的时间），纳秒
+     *
+     * @return
+     */
+    double meanServiceTime() {
+        long processed = processed();
+        return processed == 0 ? 0 : (double) values.get(SERVICE_NANOS) / processed;
+    }
+
+    long maxLatency() {
+        return latencies.max();
+    }
+
+    /**
+     * 处理延迟的百分位数，返回所在桶的上界（不超过最大值），误差不超过2倍
+     *
+     * @param p 0到100之间
+     * @return
+     */
+    long latencyPercentile(double p) {
+        return latencies.snapshot().percentile(p);
+    }
+
+    /**
+     * 处理延迟的分布
+     *
+     * @return
+     */
+    ConcurrentHistogram latencies() {
+        return latencies;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("处理：%d，邮箱峰值：%d，平均延迟：%.1fus，p99延迟：<%dus，平均服务时间：%.1fus",
+                processed(), peakMailboxSize(), meanLatency() / 1000, latencyPercentile(99) / 1000,
+                meanServiceTime() / 1000);
+    }
+
+}
@@ -0,0 +1,167 @@
+package com.liukai.thinkinjava.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 轻量级的活动对象运行时
+ * ActiveObjectDemo中每个活动对象都有自己的单线程执行器，一万个活动对象就需要一万个线程。
+ * 这里的活动对象只有一个邮箱，所有活动对象共享一个ForkJoinPool（异步模式，任务先进先出），
+ * 邮箱非空时才把活动对象的处理任务提交给线程池，每次最多处理messagesPerQuantum个消息后让出线程，
+ * 仍然保证每个活动对象任何时刻只处理一个消息。
+ * messagesPerQuantum越大，切换活动对象的开销越小，吞吐量越高，但一个繁忙的活动对象会让其他活动对象等待更久。
+ * 运行时只引用还没有结束的活动对象，活动对象关闭并处理完邮箱后就从运行时中移除。
+ */
+class ActorRuntime {
+
+    private final ForkJoinPool pool;
+    private final int messagesPerQuantum;
+    private final boolean metrics;
+    private final Set<ActiveObject> actors = ConcurrentHashMap.newKeySet();//还没有结束的活动对象
+
+    /**
+     * @param parallelism        线程数
+     * @param messagesPerQuantum 每个活动对象每次调度最多处理的消息数量
+     * @param metrics            是否为每个活动对象统计邮箱深度和处理延迟
+     */
+    ActorRuntime(int parallelism, int messagesPerQuantum, boolean metrics) {
+        if (messagesPerQuantum <= 0) {
+            throw new IllegalArgumentException("messagesPerQuantum: " + messagesPerQuantum);
+        }
+        this.pool = new ForkJoinPool(parallelism, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        this.messagesPerQuantum = messagesPerQuantum;
+        this.metrics = metrics;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int actorCount = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int messages = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        for (int quantum : new int[]{1, 16, 256}) {
+            ActorRuntime runtime = new ActorRuntime(parallelism, quantum, true);
+            long elapsed = run(runtime, actorCount, messages);
+            System.out.printf("%d个活动对象，%d个线程，每次调度%d个消息：每秒%.0f个消息%n", actorCount, parallelism,
+                    quantum, actorCount * (double) messages * 1e9 / elapsed);
+            System.out.println("    " + runtime.slowest());
+            runtime.shutdown().get();
+        }
+    }
+
+    /**
+     * 向每个活动对象发送指定数量的计数消息，等待所有消息处理完
+     *
+     * @param runtime
+     * @param actorCount
+     * @param messages
+     * @return 耗时，纳秒
+     * @throws Exception
+     */
+    static long run(ActorRuntime runtime, int actorCount, int messages) throws Exception {
+        List<ActiveObject> actors = new ArrayList<>(actorCount);
+        for (int i = 0; i < actorCount; i++) {
+            actors.add(runtime.newActor(messages, ActiveObject.Overflow.BLOCK));
+        }
+        List<CompletableFuture<Integer>> last = new ArrayList<>(actorCount);
+        long start = System.nanoTime();
+        for (ActiveObject actor : actors) {
+            final int[] count = {0};//只由活动对象处理消息时修改，不需要同步
+            Callable<Integer> increment = new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return ++count[0];
+                }
+            };
+            CompletableFuture<Integer> result = null;
+            for (int i = 0; i < messages; i++) {
+                result = actor.call(increment);
+            }
+            last.add(result);
+        }
+        CompletableFuture.allOf(last.toArray(new CompletableFuture<?>[0])).get();
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * 创建一个在共享线程池上运行的活动对象
+     *
+     * @param mailboxCapacity
+     * @param overflow
+     * @return
+     */
+    ActiveObject newActor(int mailboxCapacity, ActiveObject.Overflow overflow) {
+        final ActiveObject actor = new ActiveObject(mailboxCapacity, overflow, messagesPerQuantum, pool);
+        if (metrics) {
+            actor.enableMetrics();
+        }
+        actors.add(actor);
+        actor.terminated().thenRun(new Runnable() {
+            @Override
+            public void run() {
+                actors.remove(actor);
+            }
+        });
+        return actor;
+    }
+
+    /**
+     * 平均处理延迟最高的活动对象的统计信息，没有开启统计时返回null
+     *
+     * @return
+     */
+    ActorMetrics slowest() {
+        ActorMetrics slowest = null;
+        for (ActiveObject actor : actors) {
+            ActorMetrics m = actor.metrics();
+            if (m != null && (slowest == null || m.meanLatency() > slowest.meanLatency())) {
+                slowest = m;
+            }
+        }
+        return slowest;
+    }
+
+    /**
+     * 还没有结束的活动对象数量
+     *
+     * @return
+     */
+    int actorCount() {
+        return actors.size();
+    }
+
+    /**
+     * 关闭所有活动对象，它们的邮箱处理完后关闭线程池
+     *
+     * @return
+     */
+    CompletableFuture<Void> shutdown() {
+        List<CompletableFuture<Void>> terminated = new ArrayList<>();
+        for (ActiveObject actor : actors) {
+            terminated.add(actor.shutdown());
+        }
+        return CompletableFuture.allOf(terminated.toArray(new CompletableFuture<?>[0])).thenRun(new Runnable() {
+            @Override
+            public void run() {
+                pool.shutdown();
+            }
+        });
+    }
+
+    /**
+     * 等待线程池结束
+     *
+     * @param timeout
+     * @param unit
+     * @return
+     * @throws InterruptedException
+     */
+    boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return pool.awaitTermination(timeout, unit);
+    }
+
+}
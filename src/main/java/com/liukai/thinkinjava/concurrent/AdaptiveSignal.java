@@ -0,0 +1,155 @@
+package com.liukai.thinkinjava.concurrent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 先自旋、再让出CPU、最后休眠的自适应信号
+ * 锁加条件的交接每次都要获取锁，等待的一方休眠后要由内核唤醒，一次来回要几十微秒。
+ * 这里条件由调用者的volatile状态表示，等待的线程先调用Thread.onSpinWait()自旋，
+ * 超过自旋时间后Thread.yield()，再超过让出时间才登记自己并通过LockSupport.park()休眠；
+ * 发信号的线程修改状态后只有看到有线程休眠时才unpark()，对方还在自旋时发信号只是一次volatile读。
+ * 自旋和让出的时间根据观测到的等待时间调整：记录等待时间的指数移动平均，
+ * 平均等待时间不超过MAX_SPIN_NANOS时自旋它的两倍，大多数等待在自旋阶段结束；
+ * 等待时间更长时自旋只是浪费CPU，只自旋MIN_SPIN_NANOS就让出并很快休眠。
+ * 只有一个CPU时自旋期间对方不可能修改状态，跳过自旋直接让出CPU。
+ * 同一时刻只能有一个线程等待同一个信号，例如WaxOMatic中只有抛光任务等待打蜡完成。
+ */
+class AdaptiveSignal {
+
+    static final long MIN_SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(1);
+    static final long MAX_SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final boolean MULTI_CPU = Runtime.getRuntime().availableProcessors() > 1;
+    private static final int CHECK_INTERVAL = 64;//自旋多少次检查一次时间和中断
+    private static final int EWMA_SHIFT = 3;//移动平均的权重1/8
+
+    private static final int SPIN_WAKEUPS = 0;
+    private static final int YIELD_WAKEUPS = 1;
+    private static final int PARK_WAKEUPS = 2;
+    private static final int WAITS = 3;
+
+    private volatile Thread parked;//休眠中的等待线程
+    private long meanWaitNanos;//等待时间的指数移动平均，只由等待线程读写
+    private volatile long spinNanos = MAX_SPIN_NANOS;//只由等待线程写入
+    private final AtomicLongArray counters = new AtomicLongArray(4);//只由等待线程写入
+
+    /**
+     * 等待条件成立，调用者负责让条件读取的状态是volatile的
+     *
+     * @param ready
+     * @throws InterruptedException
+     */
+    void await(BooleanSupplier ready) throws InterruptedException {
+        if (ready.getAsBoolean()) {
+            return;
+        }
+        long start = System.nanoTime();
+        long spin = spinNanos;
+        long yieldDeadline = start + 2 * spin;
+        int outcome = -1;//被中断时不统计
+        try {
+            //自旋
+            for (int i = 1; MULTI_CPU; i++) {
+                if (ready.getAsBoolean()) {
+                    outcome = SPIN_WAKEUPS;
+                    return;
+                }
+                if (i % CHECK_INTERVAL == 0) {
+                    checkInterrupt();
+                    if (System.nanoTime() - start >= spin) {
+                        break;
+                    }
+                }
+                Thread.onSpinWait();
+            }
+            //让出CPU
+            do {
+                checkInterrupt();
+                Thread.yield();
+                if (ready.getAsBoolean()) {
+                    outcome = YIELD_WAKEUPS;
+                    return;
+                }
+            } while (System.nanoTime() - yieldDeadline < 0);
+            //休眠：先登记再检查条件，发信号的线程先修改状态再读登记，两边至少有一边能看到对方
+            parked = Thread.currentThread();
+            try {
+                while (!ready.getAsBoolean()) {
+                    LockSupport.park(this);
+                    checkInterrupt();
+                }
+                outcome = PARK_WAKEUPS;
+            } finally {
+                parked = null;
+            }
+        } finally {
+            if (outcome >= 0) {
+                counters.setRelease(outcome, counters.getPlain(outcome) + 1);
+                adapt(System.nanoTime() - start);
+            }
+        }
+    }
+
+    private static void checkInterrupt() throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    /**
+     * 根据这一次的等待时间调整自旋时间
+     *
+     * @param waitNanos
+     */
+    private void adapt(long waitNanos) {
+        long waits = counters.getPlain(WAITS);
+        meanWaitNanos = waits == 0 ? waitNanos : meanWaitNanos + ((waitNanos - meanWaitNanos) >> EWMA_SHIFT);
+        counters.setRelease(WAITS, waits + 1);
+        spinNanos = meanWaitNanos <= MAX_SPIN_NANOS ? Math.max(MIN_SPIN_NANOS, 2 * meanWaitNanos) : MIN_SPIN_NANOS;
+    }
+
+    /**
+     * 修改状态后调用，等待的线程已经休眠时唤醒它
+     */
+    void signal() {
+        Thread thread = parked;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * 当前的自旋时间，让出CPU的时间与它相同
+     *
+     * @return
+     */
+    long spinNanos() {
+        return spinNanos;
+    }
+
+    /**
+     * 在自旋阶段结束的等待次数
+     *
+     * @return
+     */
+    long spinWakeups() {
+        return counters.get(SPIN_WAKEUPS);
+    }
+
+    long yieldWakeups() {
+        return counters.get(YIELD_WAKEUPS);
+    }
+
+    long parkWakeups() {
+        return counters.get(PARK_WAKEUPS);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("spin: %d, yield: %d, park: %d, spinNanos: %d", spinWakeups(), yieldWakeups(),
+                parkWakeups(), spinNanos);
+    }
+
+}
@@ -0,0 +1,615 @@
+package com.liukai.thinkinjava.concurrent;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * 银行出纳员仿真系统的离散事件版本
+ * 与BankTellerSimulation的模型相同，但不再使用休眠的线程，而是使用虚拟时钟和按时间排序的事件队列：
+ * 顾客到达、出纳员服务完成和出纳员管理器调整都是事件，处理一个事件时虚拟时钟直接跳到该事件的时间。
+ * 整个仿真在一个线程中运行，所有随机数都来自同一个种子，所以相同的种子总能得到相同的结果。
+ * <p>
+ * 与线程版本的差异：线程版本中TellerManager构造时创建的第一个出纳员没有被执行，这里第一个出纳员从一开始就服务顾客。
+ */
+public class BankTellerEventSimulation {
+
+    private static final int MAX_LINE_SIZE = 50;
+    private static final int ADJUSTMENT_PERIOD = 1000;
+    private static final int MAX_ARRIVAL_INTERVAL = 300;
+    private static final int MAX_SERVICE_TIME = 1000;
+
+    //事件类型
+    private static final int ARRIVAL = 0;//顾客到达
+    private static final int SERVICE_DONE = 1;//出纳员服务完成
+    private static final int ADJUSTMENT = 2;//出纳员管理器调整出纳员数量
+
+    private final int maxLineSize;
+    private final int adjustmentPeriod;
+    private final Distribution arrivalInterval;//顾客到达间隔的分布
+    private final Distribution serviceTime;//顾客服务时间的分布
+    private final TellerScalingPolicy scalingPolicy;
+    private final Random random;
+
+    private final EventQueue events = new EventQueue();
+    private final CustomerQueue customers;//顾客队列
+    private final List<VirtualTeller> tellers = new ArrayList<>();//所有出纳员，下标即id
+    private final PriorityQueue<VirtualTeller> workingTellers = new PriorityQueue<>();//工作中的出纳员
+    private final Queue<VirtualTeller> tellersDoingOtherThings = new ArrayDeque<>();//做其他事情的出纳员
+    private final Queue<VirtualTeller> idleTellers = new ArrayDeque<>();//等待顾客的出纳员
+
+    private long now;//虚拟时钟，单位毫秒
+    private boolean generatorBlocked;//顾客队列已满，生成顾客任务阻塞
+    private int blockedServiceTime;//阻塞的顾客需要的服务时间
+    private long busyTime;//服务完的顾客的服务时间之和
+    private long lastAdjustment;//上一次调整的时间
+    private long arrivedAtLastAdjustment;
+    private long servedAtLastAdjustment;
+    private long busyTimeAtLastAdjustment;
+    private long tellerTimeUpdated;//出纳员工作时间统计到的时间
+    private final SimulationResult result = new SimulationResult();
+
+    public BankTellerEventSimulation(long seed) {
+        this(Config.DEFAULT, seed);
+    }
+
+    /**
+     * @param maxLineSize        顾客队列的最大长度
+     * @param adjustmentPeriod   出纳员管理器的调整周期
+     * @param maxArrivalInterval 顾客到达的最大间隔，实际间隔在[0, maxArrivalInterval)中均匀分布
+     * @param maxServiceTime     顾客需要的最大服务时间，实际服务时间在[0, maxServiceTime)中均匀分布
+     * @param seed               随机数种子
+     */
+    public BankTellerEventSimulation(int maxLineSize, int adjustmentPeriod, int maxArrivalInterval,
+                                     int maxServiceTime, long seed) {
+        this(new Config(maxLineSize, adjustmentPeriod, Distribution.uniform(maxArrivalInterval),
+                Distribution.uniform(maxServiceTime)), seed);
+    }
+
+    public BankTellerEventSimulation(Config config, long seed) {
+        this.maxLineSize = config.maxLineSize;
+        this.adjustmentPeriod = config.adjustmentPeriod;
+        this.arrivalInterval = config.arrivalInterval;
+        this.serviceTime = config.serviceTime;
+        this.scalingPolicy = config.scalingPolicy.get();
+        this.random = new Random(seed);
+        this.customers = new CustomerQueue(maxLineSize);
+
+        //第一个出纳员
+        VirtualTeller teller = newTeller();
+        workingTellers.add(teller);
+        idleTellers.add(teller);
+
+        events.schedule(arrivalInterval.sample(random), ARRIVAL, 0);
+        events.schedule(adjustmentPeriod, ADJUSTMENT, 0);
+    }
+
+    public static void main(String[] args) {
+        long customers = args.length > 0 ? Long.parseLong(args[0]) : 10000000L;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 47;
+
+        long start = System.nanoTime();
+        SimulationResult result = new BankTellerEventSimulation(seed).runCustomers(customers);
+        long elapsed = System.nanoTime() - start;
+        System.out.println(result);
+        System.out.printf("仿真了%d个顾客，耗时%dms，每秒%.0f个顾客%n", result.customersServed,
+                elapsed / 1000000, result.customersServed * 1e9 / elapsed);
+
+        //相同的种子得到相同的结果
+        SimulationResult again = new BankTellerEventSimulation(seed).runCustomers(customers);
+        System.out.println("相同种子的结果一致：" + result.equals(again));
+    }
+
+    /**
+     * 仿真直到虚拟时钟到达指定的时间
+     *
+     * @param virtualMillis
+     * @return
+     */
+    public SimulationResult runFor(long virtualMillis) {
+        while (!events.isEmpty() && events.nextTime() <= virtualMillis) {
+            step();
+        }
+        now = Math.max(now, virtualMillis);
+        result.virtualTime = now;
+        updateTellerTime();
+        return result;
+    }
+
+    /**
+     * 仿真直到服务完指定数量的顾客
+     *
+     * @param customersToServe
+     * @return
+     */
+    public SimulationResult runCustomers(long customersToServe) {
+        while (!events.isEmpty() && result.customersServed < customersToServe) {
+            step();
+        }
+        result.virtualTime = now;
+        updateTellerTime();
+        return result;
+    }
+
+    /**
+     * 处理下一个事件
+     */
+    private void step() {
+        now = events.nextTime();
+        int payload = events.poll();
+        result.events++;
+        switch (payload & 3) {
+            case ARRIVAL:
+                customerArrived();
+                break;
+            case SERVICE_DONE:
+                serviceDone(tellers.get(payload >>> 2));
+                break;
+            case ADJUSTMENT:
+                adjustmentTellerNumber();
+                events.schedule(now + adjustmentPeriod, ADJUSTMENT, 0);
+                break;
+            default:
+                throw new IllegalStateException("未知的事件：" + payload);
+        }
+    }
+
+    /**
+     * 顾客到达，队列已满时生成顾客任务阻塞，直到有出纳员取走一个顾客
+     */
+    private void customerArrived() {
+        int serviceTime = this.serviceTime.sample(random);
+        result.customersArrived++;
+        //到达的顾客看到的队列长度
+        result.lineSizes.record(customers.size());
+        if (customers.size() == maxLineSize) {
+            generatorBlocked = true;
+            blockedServiceTime = serviceTime;
+            return;
+        }
+        customers.add(serviceTime, now);
+        result.maxLineSize = Math.max(result.maxLineSize, customers.size());
+        events.schedule(now + arrivalInterval.sample(random), ARRIVAL, 0);
+        dispatch();
+    }
+
+    /**
+     * 出纳员服务完一个顾客，如果已经被安排做其他事情就停下来，否则继续服务顾客
+     *
+     * @param teller
+     */
+    private void serviceDone(VirtualTeller teller) {
+        teller.busy = false;
+        teller.customersServed++;
+        result.customersServed++;
+        busyTime += teller.serviceTime;
+        if (teller.servingCustomerLine) {
+            idleTellers.add(teller);
+            dispatch();
+        } else {
+            teller.parked = true;
+        }
+    }
+
+    /**
+     * 把队列中的顾客分配给等待中的出纳员
+     */
+    private void dispatch() {
+        while (customers.size() > 0 && !idleTellers.isEmpty()) {
+            VirtualTeller teller = idleTellers.poll();
+            long wait = now - customers.peekArrivalTime();
+            int serviceTime = customers.poll();
+            result.customersStarted++;
+            result.totalWait += wait;
+            result.maxWait = Math.max(result.maxWait, wait);
+            result.waitTimes.record(wait);
+            teller.busy = true;
+            teller.serviceTime = serviceTime;
+            events.schedule(now + serviceTime, SERVICE_DONE, teller.id);
+
+            //队列有了空位，阻塞的生成顾客任务放入顾客并继续生成
+            if (generatorBlocked) {
+                generatorBlocked = false;
+                customers.add(blockedServiceTime, now);
+                events.schedule(now + arrivalInterval.sample(random), ARRIVAL, 0);
+            }
+        }
+    }
+
+    /**
+     * 调整出纳员数量，由调整策略根据这个周期的观测数据决定需要的出纳员数量
+     */
+    private void adjustmentTellerNumber() {
+        updateTellerTime();
+        TellerScalingPolicy.Observation observation = new TellerScalingPolicy.Observation(now - lastAdjustment,
+                customers.size(), workingTellers.size(), result.customersArrived - arrivedAtLastAdjustment,
+                result.customersServed - servedAtLastAdjustment, busyTime - busyTimeAtLastAdjustment);
+        lastAdjustment = now;
+        arrivedAtLastAdjustment = result.customersArrived;
+        servedAtLastAdjustment = result.customersServed;
+        busyTimeAtLastAdjustment = busyTime;
+
+        int target = Math.max(1, scalingPolicy.targetTellers(observation));
+        if (target > workingTellers.size()) {
+            while (workingTellers.size() < target) {
+                result.adjustments++;
+                VirtualTeller teller = tellersDoingOtherThings.poll();
+                if (teller == null) {
+                    teller = newTeller();
+                    idleTellers.add(teller);
+                } else {
+                    serveCustomerLine(teller);
+                }
+                workingTellers.add(teller);
+            }
+            dispatch();
+            return;
+        }
+        while (workingTellers.size() > target) {
+            reassignOneTeller();
+        }
+    }
+
+    /**
+     * 累计出纳员的工作时间，出纳员数量只在调整时变化
+     */
+    private void updateTellerTime() {
+        result.tellerTime += (long) workingTellers.size() * (now - tellerTimeUpdated);
+        tellerTimeUpdated = now;
+    }
+
+    /**
+     * 重新分配一个出纳员
+     */
+    private void reassignOneTeller() {
+        result.adjustments++;
+        VirtualTeller teller = workingTellers.poll();
+        teller.customersServed = 0;
+        teller.servingCustomerLine = false;
+        tellersDoingOtherThings.add(teller);
+    }
+
+    /**
+     * 让出纳员回来服务顾客，已经停下的出纳员重新开始等待顾客
+     *
+     * @param teller
+     */
+    private void serveCustomerLine(VirtualTeller teller) {
+        teller.servingCustomerLine = true;
+        if (teller.parked) {
+            teller.parked = false;
+            idleTellers.add(teller);
+        }
+    }
+
+    private VirtualTeller newTeller() {
+        VirtualTeller teller = new VirtualTeller(tellers.size());
+        tellers.add(teller);
+        result.maxTellers = Math.max(result.maxTellers, tellers.size());
+        return teller;
+    }
+
+    /**
+     * 仿真参数
+     */
+    static class Config {
+
+        /**
+         * 使用原来调整规则的策略工厂
+         */
+        static final Supplier<TellerScalingPolicy> DEFAULT_POLICY = new Supplier<TellerScalingPolicy>() {
+            @Override
+            public TellerScalingPolicy get() {
+                return TellerScalingPolicy.DEFAULT;
+            }
+        };
+
+        static final Config DEFAULT = new Config(MAX_LINE_SIZE, ADJUSTMENT_PERIOD,
+                Distribution.uniform(MAX_ARRIVAL_INTERVAL), Distribution.uniform(MAX_SERVICE_TIME));
+
+        final int maxLineSize;//顾客队列的最大长度
+        final int adjustmentPeriod;//出纳员管理器的调整周期
+        final Distribution arrivalInterval;//顾客到达间隔的分布
+        final Distribution serviceTime;//顾客服务时间的分布
+        final Supplier<TellerScalingPolicy> scalingPolicy;//每次仿真创建一个新的调整策略，策略可以有状态
+
+        Config(int maxLineSize, int adjustmentPeriod, Distribution arrivalInterval, Distribution serviceTime) {
+            this(maxLineSize, adjustmentPeriod, arrivalInterval, serviceTime, DEFAULT_POLICY);
+        }
+
+        Config(int maxLineSize, int adjustmentPeriod, Distribution arrivalInterval, Distribution serviceTime,
+               Supplier<TellerScalingPolicy> scalingPolicy) {
+            this.maxLineSize = maxLineSize;
+            this.adjustmentPeriod = adjustmentPeriod;
+            this.arrivalInterval = arrivalInterval;
+            this.serviceTime = serviceTime;
+            this.scalingPolicy = scalingPolicy;
+        }
+
+        /**
+         * 使用另一个调整策略的参数
+         *
+         * @param scalingPolicy
+         * @return
+         */
+        Config withScalingPolicy(Supplier<TellerScalingPolicy> scalingPolicy) {
+            return new Config(maxLineSize, adjustmentPeriod, arrivalInterval, serviceTime, scalingPolicy);
+        }
+
+        @Override
+        public String toString() {
+            return "line=" + maxLineSize + " period=" + adjustmentPeriod + " arrival=" + arrivalInterval
+                    + " service=" + serviceTime + " policy=" + scalingPolicy.get();
+        }
+    }
+
+    /**
+     * 以毫秒为单位的时间分布
+     */
+    interface Distribution {
+
+        int sample(Random random);
+
+        /**
+         * [0, max)中的均匀分布，与BankTellerSimulation中的random.nextInt(max)相同
+         *
+         * @param max
+         * @return
+         */
+        static Distribution uniform(final int max) {
+            return new Distribution() {
+                @Override
+                public int sample(Random random) {
+                    return random.nextInt(max);
+                }
+
+                @Override
+                public String toString() {
+                    return "U[0," + max + ")";
+                }
+            };
+        }
+
+        /**
+         * 指定均值的指数分布，用于模拟泊松到达或者无记忆的服务时间
+         *
+         * @param mean
+         * @return
+         */
+        static Distribution exponential(final double mean) {
+            return new Distribution() {
+                @Override
+                public int sample(Random random) {
+                    return (int) (-mean * Math.log(1 - random.nextDouble()));
+                }
+
+                @Override
+                public String toString() {
+                    return "Exp(" + mean + ")";
+                }
+            };
+        }
+    }
+
+    /**
+     * 虚拟出纳员
+     * 线程版本中出纳员被重新分配后仍会阻塞在队列上取走下一个顾客，服务完后才停下来，这里保持相同的行为
+     */
+    static class VirtualTeller implements Comparable<VirtualTeller> {
+
+        final int id;
+        int customersServed;
+        boolean servingCustomerLine = true;
+        boolean busy;//正在服务顾客
+        int serviceTime;//正在服务的顾客需要的服务时间
+        boolean parked;//服务完顾客后停下来做其他事情
+
+        VirtualTeller(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public int compareTo(VirtualTeller o) {
+            return customersServed > o.customersServed ? 1 : (customersServed < o.customersServed ? -1 : 0);
+        }
+
+        @Override
+        public String toString() {
+            return "Teller: " + id;
+        }
+    }
+
+    /**
+     * 顾客队列
+     * 用环形数组保存每个顾客的服务时间和到达时间，不为每个顾客创建对象
+     */
+    static class CustomerQueue {
+
+        private final int[] serviceTimes;
+        private final long[] arrivalTimes;
+        private int head;
+        private int size;
+
+        CustomerQueue(int capacity) {
+            serviceTimes = new int[capacity];
+            arrivalTimes = new long[capacity];
+        }
+
+        void add(int serviceTime, long arrivalTime) {
+            int tail = (head + size) % serviceTimes.length;
+            serviceTimes[tail] = serviceTime;
+            arrivalTimes[tail] = arrivalTime;
+            size++;
+        }
+
+        long peekArrivalTime() {
+            return arrivalTimes[head];
+        }
+
+        int poll() {
+            int serviceTime = serviceTimes[head];
+            head = (head + 1) % serviceTimes.length;
+            size--;
+            return serviceTime;
+        }
+
+        int size() {
+            return size;
+        }
+    }
+
+    /**
+     * 事件队列
+     * 基于数组的二叉堆，按事件时间排序，时间相同时按加入的顺序，保证仿真结果是确定的。
+     * 事件的类型和出纳员id编码在一个int中，不为每个事件创建对象
+     */
+    static class EventQueue {
+
+        private long[] times = new long[64];
+        private long[] seqs = new long[64];
+        private int[] payloads = new int[64];
+        private int size;
+        private long seq;
+
+        void schedule(long time, int type, int tellerId) {
+            if (size == times.length) {
+                times = Arrays.copyOf(times, size * 2);
+                seqs = Arrays.copyOf(seqs, size * 2);
+                payloads = Arrays.copyOf(payloads, size * 2);
+            }
+            int i = size++;
+            long s = seq++;
+            int payload = tellerId << 2 | type;
+            //上浮
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!less(time, s, times[parent], seqs[parent])) {
+                    break;
+                }
+                move(parent, i);
+                i = parent;
+            }
+            times[i] = time;
+            seqs[i] = s;
+            payloads[i] = payload;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        long nextTime() {
+            return times[0];
+        }
+
+        /**
+         * 移除最早的事件
+         *
+         * @return 事件的类型和出纳员id
+         */
+        int poll() {
+            int result = payloads[0];
+            int last = --size;
+            long time = times[last];
+            long s = seqs[last];
+            int payload = payloads[last];
+            //下沉
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && less(times[child + 1], seqs[child + 1], times[child], seqs[child])) {
+                    child++;
+                }
+                if (!less(times[child], seqs[child], time, s)) {
+                    break;
+                }
+                move(child, i);
+                i = child;
+            }
+            times[i] = time;
+            seqs[i] = s;
+            payloads[i] = payload;
+            return result;
+        }
+
+        private void move(int from, int to) {
+            times[to] = times[from];
+            seqs[to] = seqs[from];
+            payloads[to] = payloads[from];
+        }
+
+        private static boolean less(long t1, long s1, long t2, long s2) {
+            return t1 < t2 || (t1 == t2 && s1 < s2);
+        }
+    }
+
+    /**
+     * 仿真结果
+     */
+    static class SimulationResult {
+
+        long virtualTime;//虚拟时钟，毫秒
+        long events;//处理的事件数量
+        long customersArrived;
+        long customersStarted;//开始接受服务的顾客
+        long customersServed;
+        long totalWait;//所有开始接受服务的顾客的排队时间之和
+        long maxWait;
+        int maxLineSize;
+        int maxTellers;
+        long adjustments;//出纳员数量的调整次数
+        long tellerTime;//工作中的出纳员数量对时间的积分，出纳员*毫秒
+        final Histogram waitTimes = new Histogram();//顾客的排队时间
+        final Histogram lineSizes = new Histogram();//顾客到达时看到的队列长度
+
+        public double meanWait() {
+            return customersStarted == 0 ? 0 : (double) totalWait / customersStarted;
+        }
+
+        /**
+         * 平均工作中的出纳员数量
+         *
+         * @return
+         */
+        public double meanTellers() {
+            return virtualTime == 0 ? 0 : (double) tellerTime / virtualTime;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof SimulationResult)) {
+                return false;
+            }
+            SimulationResult r = (SimulationResult) o;
+            return virtualTime == r.virtualTime && events == r.events && customersArrived == r.customersArrived
+                    && customersStarted == r.customersStarted && customersServed == r.customersServed
+                    && totalWait == r.totalWait && maxWait == r.maxWait
+                    && maxLineSize == r.maxLineSize && maxTellers == r.maxTellers && adjustments == r.adjustments
+                    && tellerTime == r.tellerTime
+                    && waitTimes.equals(r.waitTimes) && lineSizes.equals(r.lineSizes);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(new long[]{virtualTime, events, customersArrived, customersStarted, customersServed, totalWait,
+                    maxWait, maxLineSize, maxTellers, adjustments, tellerTime});
+        }
+
+        @Override
+        public String toString() {
+            return String.format("虚拟时间：%dms，事件：%d，到达顾客：%d，服务顾客：%d，平均排队：%.1fms，最长排队：%dms，"
+                            + "最长队列：%d，最多出纳员：%d，平均出纳员：%.2f，调整次数：%d",
+                    virtualTime, events, customersArrived, customersServed, meanWait(), maxWait, maxLineSize,
+                    maxTellers, meanTellers(), adjustments);
+        }
+    }
+
+}
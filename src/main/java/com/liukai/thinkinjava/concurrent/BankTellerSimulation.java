@@ -1,13 +1,21 @@
 package com.liukai.thinkinjava.concurrent;
 
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.PriorityQueue;
 import java.util.Queue;
-import java.util.Random;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.SplittableRandom;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * 银行出纳员仿真系统
@@ -18,18 +26,36 @@ public class BankTellerSimulation {
 
     private static final int MAX_LINE_SIZE = 50;
     private static final int ADJUSTMENT_PERIOD = 1000;
+    private static final int TELEMETRY_INTERVAL = 1000;
 
     public static void main(String[] args) throws InterruptedException {
-        ExecutorService es = Executors.newCachedThreadPool();
+        ExecutorService es = DemoExecutors.newExecutor();
         CustomerLine customers = new CustomerLine(MAX_LINE_SIZE);
+        BankTellerTelemetry telemetry = new BankTellerTelemetry();
+        BankTellerTelemetry.Format format = args.length > 0
+                ? BankTellerTelemetry.Format.valueOf(args[0].toUpperCase()) : BankTellerTelemetry.Format.CSV;
+        TellerScalingPolicy scalingPolicy = TellerScalingPolicy.DEFAULT;
+        if (args.length > 1 && args[1].equals("mmc")) {
+            scalingPolicy = new QueueingTheoryPolicy();
+        } else if (args.length > 1 && args[1].equals("trend")) {
+            scalingPolicy = new EwmaTrendPolicy();
+        }
 
         //执行生成顾客任务
-        es.execute(new CustomerGenerator(customers));
-        //执行出纳员管理器任务
-        es.execute(new TellerManager(ADJUSTMENT_PERIOD, es, customers));
+        es.execute(new CustomerGenerator(customers, telemetry));
+        //执行出纳员管理器任务，出纳员的等待由监视器统计
+        ContentionMonitor monitor = new ContentionMonitor();
+        monitor.start(100, TimeUnit.MILLISECONDS, ContentionMonitor.PRINT_DEADLOCKS);
+        es.execute(new TellerManager(ADJUSTMENT_PERIOD, es, customers, telemetry, scalingPolicy).watch(monitor));
+        //执行遥测输出任务
+        es.execute(new BankTellerTelemetry.Reporter(telemetry, TELEMETRY_INTERVAL, System.out, format));
 
         TimeUnit.SECONDS.sleep(5);
+        monitor.stop();
         es.shutdownNow();
+        for (ContentionMonitor.Contention contention : monitor.topContended(5)) {
+            System.out.println(contention);
+        }
 
     }
 }
@@ -39,60 +65,98 @@ public class BankTellerSimulation {
  */
 class TellerManager implements Runnable {
 
-    private static Random random = new Random(47);
     private ExecutorService es;
     private CustomerLine customers;//顾客队列
+    private BankTellerTelemetry telemetry;
     private PriorityQueue<Teller> workingTellers = new PriorityQueue<>();//优先级队列，工作中的出纳员
     private Queue<Teller> tellersDoingOtherThings = new LinkedList<>();//做其他事情的出纳员
     private int adjustmentPeriod;//调整周期
+    private TellerScalingPolicy scalingPolicy;//调整策略
+    private long lastAdjustment = System.nanoTime();
+    private long arrivedAtLastAdjustment;
+    private long servedAtLastAdjustment;
+    private long busyNanosAtLastAdjustment;
+    private ContentionMonitor monitor;//登记出纳员的监视器，可以为null
+
+    public TellerManager(int adjustmentPeriod, ExecutorService es, CustomerLine customers,
+                         BankTellerTelemetry telemetry) {
+        this(adjustmentPeriod, es, customers, telemetry, TellerScalingPolicy.DEFAULT);
+    }
 
-    public TellerManager(int adjustmentPeriod, ExecutorService es, CustomerLine customers) {
+    public TellerManager(int adjustmentPeriod, ExecutorService es, CustomerLine customers,
+                         BankTellerTelemetry telemetry, TellerScalingPolicy scalingPolicy) {
         this.adjustmentPeriod = adjustmentPeriod;
         this.es = es;
         this.customers = customers;
+        this.telemetry = telemetry;
+        this.scalingPolicy = scalingPolicy;
 
-        Teller teller = new Teller(customers);
+        Teller teller = new Teller(customers, telemetry);
         workingTellers.add(teller);
     }
 
     /**
-     * 调整出纳员数量
+     * 把现有的和以后创建的出纳员登记到监视器
+     *
+     * @param monitor
+     * @return
      */
-    private void adjustmentTellerNumber() {
-        //如果顾客队列很长，就添加一个出纳员
-        if (customers.size() / workingTellers.size() > 2) {
+    TellerManager watch(ContentionMonitor monitor) {
+        this.monitor = monitor;
+        for (Teller teller : workingTellers) {
+            teller.watch(monitor);
+        }
+        for (Teller teller : tellersDoingOtherThings) {
+            teller.watch(monitor);
+        }
+        return this;
+    }
 
+    /**
+     * 调整出纳员数量，由调整策略根据这个周期的观测数据决定需要的出纳员数量
+     */
+    private void adjustmentTellerNumber() {
+        long now = System.nanoTime();
+        long arrived = telemetry.customersArrived();
+        long served = telemetry.customersServed();
+        long busyNanos = telemetry.busyNanos();
+        TellerScalingPolicy.Observation observation = new TellerScalingPolicy.Observation(
+                TimeUnit.NANOSECONDS.toMillis(now - lastAdjustment), customers.size(), workingTellers.size(),
+                arrived - arrivedAtLastAdjustment, served - servedAtLastAdjustment,
+                (busyNanos - busyNanosAtLastAdjustment) / 1e6);
+        lastAdjustment = now;
+        arrivedAtLastAdjustment = arrived;
+        servedAtLastAdjustment = served;
+        busyNanosAtLastAdjustment = busyNanos;
+
+        int target = Math.max(1, scalingPolicy.targetTellers(observation));
+        while (workingTellers.size() < target) {
+            telemetry.tellerAdjusted();
             //如果做其他事情的出纳员队列中有出纳员
             if (tellersDoingOtherThings.size() > 0) {
                 Teller teller = tellersDoingOtherThings.remove();
                 teller.serveCustomerLine();
                 workingTellers.add(teller);
-                return;
+                continue;
             }
             //否则创建一个出纳员
-            Teller teller = new Teller(customers);
+            Teller teller = new Teller(customers, telemetry);
+            if (monitor != null) {
+                teller.watch(monitor);
+            }
             es.execute(teller);
             workingTellers.add(teller);
-            return;
         }
-
-        //如果顾客队列很短，就移除一个出纳员
-        if (workingTellers.size() > 1 && customers.size() / workingTellers.size() < 2) {
+        while (workingTellers.size() > target) {
             reassignOneTeller();
         }
-
-        //如果没有顾客排队，我们仅仅只需要一个出纳员
-        if (customers.size() == 0) {
-            while (workingTellers.size() > 1) {
-                reassignOneTeller();
-            }
-        }
     }
 
     /**
      * 重新分配一个出纳员
      */
     private void reassignOneTeller() {
+        telemetry.tellerAdjusted();
         Teller teller = workingTellers.poll();
         teller.doSomethingElse();
         tellersDoingOtherThings.add(teller);
@@ -104,11 +168,7 @@ class TellerManager implements Runnable {
             while (!Thread.interrupted()) {
                 TimeUnit.MILLISECONDS.sleep(adjustmentPeriod);
                 adjustmentTellerNumber();
-                System.out.print(customers + " { ");
-                for (Teller teller : workingTellers) {
-                    System.out.print(teller + " ");
-                }
-                System.out.println("}");
+                telemetry.workingTellers(workingTellers.size());
             }
         } catch (InterruptedException e) {
             System.out.println("出纳员管理器任务被中断");
@@ -120,6 +180,7 @@ class TellerManager implements Runnable {
 /**
  * 出纳员任务
  * 出纳员一直服务顾客，直到出纳员做其他事情
+ * 使用显式的Lock和Condition代替synchronized和wait()，虚拟线程等待重新服务顾客时不会占住载体线程
  */
 class Teller implements Runnable, Comparable<Teller> {
 
@@ -127,10 +188,15 @@ class Teller implements Runnable, Comparable<Teller> {
     private final int id = counter++;
     private int customersServed = 0;
     private CustomerLine customers;
+    private BankTellerTelemetry telemetry;
     private boolean servingCustomerLine = true;
+    private final Lock lock = new ReentrantLock();
+    private final Condition serving = lock.newCondition();//回来服务顾客
+    private volatile ContentionMonitor monitor;//登记了serving的监视器，可以为null
 
-    public Teller(CustomerLine customers) {
+    public Teller(CustomerLine customers, BankTellerTelemetry telemetry) {
         this.customers = customers;
+        this.telemetry = telemetry;
     }
 
     @Override
@@ -138,40 +204,91 @@ class Teller implements Runnable, Comparable<Teller> {
         try {
             while (!Thread.interrupted()) {
                 Customer customer = customers.take();
+                telemetry.serviceStarted(customer);
+                long start = System.nanoTime();
                 TimeUnit.MILLISECONDS.sleep(customer.getServiceTime());
-                synchronized (this) {
+                telemetry.serviceFinished(System.nanoTime() - start);
+                lock.lock();
+                try {
                     customersServed++;
                     while (!servingCustomerLine) {
-                        wait();
+                        serving.await();
                     }
+                } finally {
+                    lock.unlock();
                 }
             }
         } catch (InterruptedException e) {
             System.out.println("出纳员任务被中断");
+        } finally {
+            //出纳员任务结束后不会再在serving上等待，取消登记，监视器不再引用它
+            unwatch();
         }
         System.out.println("出纳员任务终止");
     }
 
     @Override
-    public synchronized int compareTo(Teller o) {
-        return customersServed > o.customersServed ? 1 : (customersServed < o.customersServed ? -1 : 0);
+    public int compareTo(Teller o) {
+        int served = getCustomersServed();
+        int otherServed = o.getCustomersServed();
+        return served > otherServed ? 1 : (served < otherServed ? -1 : 0);
+    }
+
+    private int getCustomersServed() {
+        lock.lock();
+        try {
+            return customersServed;
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
      * 做其他的事情
      */
-    public synchronized void doSomethingElse() {
-        customersServed = 0;
-        servingCustomerLine = false;
+    public void doSomethingElse() {
+        lock.lock();
+        try {
+            customersServed = 0;
+            servingCustomerLine = false;
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
      * 服务顾客
      */
-    public synchronized void serveCustomerLine() {
-        assert !servingCustomerLine : "already serving: " + this;
-        servingCustomerLine = true;
-        notifyAll();
+    public void serveCustomerLine() {
+        lock.lock();
+        try {
+            assert !servingCustomerLine : "already serving: " + this;
+            servingCustomerLine = true;
+            serving.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 向监视器登记等待重新服务顾客的条件
+     *
+     * @param monitor
+     */
+    void watch(ContentionMonitor monitor) {
+        this.monitor = monitor;
+        monitor.watch(toString() + " 等待服务顾客", serving);
+    }
+
+    /**
+     * 从登记过的监视器取消登记
+     */
+    void unwatch() {
+        ContentionMonitor m = monitor;
+        if (m != null) {
+            m.unwatch(serving);
+            monitor = null;
+        }
     }
 
     public String shortString() {
@@ -190,10 +307,12 @@ class Teller implements Runnable, Comparable<Teller> {
 class CustomerGenerator implements Runnable {
 
     private CustomerLine customers;
-    private static Random random = new Random(47);
+    private BankTellerTelemetry telemetry;
+    private final SplittableRandom random = RandomStreams.stream(CustomerGenerator.class, 0);
 
-    public CustomerGenerator(CustomerLine customers) {
+    public CustomerGenerator(CustomerLine customers, BankTellerTelemetry telemetry) {
         this.customers = customers;
+        this.telemetry = telemetry;
     }
 
     @Override
@@ -202,6 +321,7 @@ class CustomerGenerator implements Runnable {
             while (!Thread.interrupted()) {
                 TimeUnit.MILLISECONDS.sleep(random.nextInt(300));
                 customers.put(new Customer(random.nextInt(1000)));
+                telemetry.customerQueued(customers.size());
             }
         } catch (InterruptedException e) {
             System.out.println("生成顾客任务被中断");
@@ -212,11 +332,284 @@ class CustomerGenerator implements Runnable {
 
 /**
  * 顾客队列
+ * 有界的阻塞队列，使用一个ReentrantLock和notEmpty、notFull两个条件，虚拟线程在满队列或者空队列上等待时不会占住载体线程。
+ * 顾客在持有锁真正放入队列时才记录入队时间，put()和offer()等待空位的时间都不计入顾客的排队时间。
+ * 所有空出位置的操作（取走、remove()、clear()、迭代器的remove()、drainTo()）都会唤醒等待空位的生成者。
  */
-class CustomerLine extends ArrayBlockingQueue<Customer> {
+class CustomerLine extends AbstractQueue<Customer> implements BlockingQueue<Customer> {
+
+    private final int capacity;
+    private final ArrayDeque<Customer> customers;
+    private final Lock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
 
     public CustomerLine(int maxLineSize) {
-        super(maxLineSize);
+        if (maxLineSize <= 0) {
+            throw new IllegalArgumentException("maxLineSize: " + maxLineSize);
+        }
+        this.capacity = maxLineSize;
+        this.customers = new ArrayDeque<>(maxLineSize);
+    }
+
+    /**
+     * 放入顾客并记录入队时间，调用前必须持有锁并且队列没有满
+     *
+     * @param customer
+     */
+    private void enqueue(Customer customer) {
+        customer.enqueued();
+        customers.addLast(customer);
+        notEmpty.signal();
+    }
+
+    /**
+     * 取出顾客，调用前必须持有锁并且队列不为空
+     *
+     * @return
+     */
+    private Customer dequeue() {
+        Customer customer = customers.pollFirst();
+        notFull.signal();
+        return customer;
+    }
+
+    @Override
+    public boolean offer(Customer customer) {
+        Objects.requireNonNull(customer);
+        lock.lock();
+        try {
+            if (customers.size() == capacity) {
+                return false;
+            }
+            enqueue(customer);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 放入顾客，队列已满时阻塞
+     *
+     * @param customer
+     * @throws InterruptedException
+     */
+    @Override
+    public void put(Customer customer) throws InterruptedException {
+        Objects.requireNonNull(customer);
+        lock.lockInterruptibly();
+        try {
+            while (customers.size() == capacity) {
+                notFull.await();
+            }
+            enqueue(customer);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(Customer customer, long timeout, TimeUnit unit) throws InterruptedException {
+        Objects.requireNonNull(customer);
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (customers.size() == capacity) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            enqueue(customer);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Customer take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (customers.isEmpty()) {
+                notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Customer poll() {
+        lock.lock();
+        try {
+            return customers.isEmpty() ? null : dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Customer poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (customers.isEmpty()) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Customer peek() {
+        lock.lock();
+        try {
+            return customers.peekFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return customers.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return capacity - customers.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        lock.lock();
+        try {
+            return customers.contains(o);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 顾客离开队列，空出的位置唤醒一个等待的生成者
+     *
+     * @param o
+     * @return
+     */
+    @Override
+    public boolean remove(Object o) {
+        lock.lock();
+        try {
+            if (!customers.remove(o)) {
+                return false;
+            }
+            notFull.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            if (!customers.isEmpty()) {
+                customers.clear();
+                notFull.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super Customer> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Customer> c, int maxElements) {
+        Objects.requireNonNull(c);
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        lock.lock();
+        try {
+            int n = Math.min(maxElements, customers.size());
+            for (int i = 0; i < n; i++) {
+                c.add(customers.pollFirst());
+            }
+            if (n > 0) {
+                notFull.signalAll();
+            }
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 迭代队列的快照，迭代器的remove()通过remove(Object)移除顾客并唤醒生成者，
+     * 所以removeIf()等基于迭代器的批量删除也会唤醒生成者
+     *
+     * @return
+     */
+    @Override
+    public Iterator<Customer> iterator() {
+        final Customer[] snapshot;
+        lock.lock();
+        try {
+            snapshot = customers.toArray(new Customer[0]);
+        } finally {
+            lock.unlock();
+        }
+        return new Iterator<Customer>() {
+
+            private int next;
+            private Customer last;
+
+            @Override
+            public boolean hasNext() {
+                return next < snapshot.length;
+            }
+
+            @Override
+            public Customer next() {
+                if (next >= snapshot.length) {
+                    throw new NoSuchElementException();
+                }
+                last = snapshot[next++];
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                if (last == null) {
+                    throw new IllegalStateException();
+                }
+                CustomerLine.this.remove(last);
+                last = null;
+            }
+        };
     }
 
     @Override
@@ -234,11 +627,13 @@ class CustomerLine extends ArrayBlockingQueue<Customer> {
 
 /**
  * 顾客
- * 只读的对象，不需要同步
+ * 入队时间由CustomerLine在持有队列的锁时写入，通过队列的锁安全地发布给柜员，其余字段只读，不需要同步
+ * 同一个顾客不能同时放入多个队列
  */
 class Customer {
 
     private final int serviceTime;//服务时间
+    private long enqueueTime = System.nanoTime();//进入队列的时间，用于计算排队时间
 
     public Customer(int serviceTime) {
         this.serviceTime = serviceTime;
@@ -248,6 +643,17 @@ class Customer {
         return serviceTime;
     }
 
+    public long getEnqueueTime() {
+        return enqueueTime;
+    }
+
+    /**
+     * 记录进入队列的时间，由队列在顾客真正入队时调用
+     */
+    void enqueued() {
+        enqueueTime = System.nanoTime();
+    }
+
     @Override
     public String toString() {
         return "[顾客需要服务的时间：" + serviceTime + "ms]";
@@ -0,0 +1,209 @@
+package com.liukai.thinkinjava.concurrent;
+
+import com.liukai.thinkinjava.concurrent.BankTellerEventSimulation.Config;
+import com.liukai.thinkinjava.concurrent.BankTellerEventSimulation.Distribution;
+import com.liukai.thinkinjava.concurrent.BankTellerEventSimulation.SimulationResult;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * 银行出纳员仿真的参数扫描
+ * 对参数网格中的每一组参数运行大量独立的离散事件仿真（重复实验），并汇总排队时间和队列长度的分布。
+ * 重复实验之间没有共享的可变状态，每个重复实验使用由主种子和实验序号推导出的独立种子，
+ * 所以可以通过并行流分发到ForkJoinPool中，随核数线性扩展，并且结果与线程调度无关。
+ * 不同参数使用相同的一组种子（公共随机数），减少比较参数时的方差。
+ * <p>
+ * 每组参数分别用各个出纳员调整策略运行，用 p99排队时间 * 平均出纳员数量 作为成本比较策略，
+ * 即每个出纳员小时换来的尾部排队时间，成本越低越好。
+ */
+public class BankTellerSweep {
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    public static void main(String[] args) throws Exception {
+        int replications = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int parallelism = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        long seed = 47;
+
+        List<Supplier<TellerScalingPolicy>> policies = new ArrayList<>();
+        policies.add(Config.DEFAULT_POLICY);
+        policies.add(new Supplier<TellerScalingPolicy>() {
+            @Override
+            public TellerScalingPolicy get() {
+                return new QueueingTheoryPolicy();
+            }
+        });
+        policies.add(new Supplier<TellerScalingPolicy>() {
+            @Override
+            public TellerScalingPolicy get() {
+                return new EwmaTrendPolicy();
+            }
+        });
+
+        List<Config> grid = new ArrayList<>();
+        for (int maxLineSize : new int[]{20, 50}) {
+            for (int adjustmentPeriod : new int[]{500, 1000}) {
+                for (Distribution arrival : new Distribution[]{Distribution.uniform(300), Distribution.exponential(150)}) {
+                    for (Distribution service : new Distribution[]{Distribution.uniform(1000), Distribution.exponential(500)}) {
+                        for (Supplier<TellerScalingPolicy> policy : policies) {
+                            grid.add(new Config(maxLineSize, adjustmentPeriod, arrival, service, policy));
+                        }
+                    }
+                }
+            }
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        long start = System.nanoTime();
+        for (Config config : grid) {
+            System.out.println(config);
+            System.out.println("    " + sweep(pool, config, replications, HOUR, seed));
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%d组参数 x %d次重复实验，并行度%d，耗时%dms%n", grid.size(), replications, parallelism,
+                elapsed / 1000000);
+        pool.shutdown();
+    }
+
+    /**
+     * 在指定的ForkJoinPool中运行一组参数的所有重复实验
+     *
+     * @param pool
+     * @param config
+     * @param replications  重复实验的次数
+     * @param virtualMillis 每次实验仿真的虚拟时间
+     * @param seed          主种子
+     * @return
+     * @throws InterruptedException
+     * @throws ExecutionException
+     */
+    public static SweepResult sweep(ForkJoinPool pool, final Config config, final int replications,
+                                    final long virtualMillis, final long seed)
+            throws InterruptedException, ExecutionException {
+        return pool.submit(new Callable<SweepResult>() {
+            @Override
+            public SweepResult call() {
+                return sweep(config, replications, virtualMillis, seed);
+            }
+        }).get();
+    }
+
+    /**
+     * 使用并行流运行一组参数的所有重复实验，在当前线程所在的ForkJoinPool（或公共池）中执行
+     *
+     * @param config
+     * @param replications
+     * @param virtualMillis
+     * @param seed
+     * @return
+     */
+    public static SweepResult sweep(final Config config, int replications, final long virtualMillis,
+                                    final long seed) {
+        return IntStream.range(0, replications).parallel()
+                .mapToObj(new IntFunction<SimulationResult>() {
+                    @Override
+                    public SimulationResult apply(int replication) {
+                        return new BankTellerEventSimulation(config, replicationSeed(seed, replication))
+                                .runFor(virtualMillis);
+                    }
+                })
+                .collect(new Supplier<SweepResult>() {
+                    @Override
+                    public SweepResult get() {
+                        return new SweepResult();
+                    }
+                }, new BiConsumer<SweepResult, SimulationResult>() {
+                    @Override
+                    public void accept(SweepResult sweep, SimulationResult result) {
+                        sweep.add(result);
+                    }
+                }, new BiConsumer<SweepResult, SweepResult>() {
+                    @Override
+                    public void accept(SweepResult left, SweepResult right) {
+                        left.merge(right);
+                    }
+                });
+    }
+
+    /**
+     * 由主种子和实验序号推导出实验的种子（SplitMix64的混合函数），相邻的序号得到互不相关的种子
+     *
+     * @param seed
+     * @param replication
+     * @return
+     */
+    static long replicationSeed(long seed, int replication) {
+        return RandomStreams.seed(seed, replication);
+    }
+
+    /**
+     * 一组参数所有重复实验的汇总结果
+     */
+    static class SweepResult {
+
+        int replications;
+        long customersServed;
+        int maxTellers;
+        long virtualTime;
+        long tellerTime;
+        final Histogram waitTimes = new Histogram();
+        final Histogram lineSizes = new Histogram();
+
+        void add(SimulationResult result) {
+            replications++;
+            customersServed += result.customersServed;
+            maxTellers = Math.max(maxTellers, result.maxTellers);
+            virtualTime += result.virtualTime;
+            tellerTime += result.tellerTime;
+            waitTimes.merge(result.waitTimes);
+            lineSizes.merge(result.lineSizes);
+        }
+
+        void merge(SweepResult other) {
+            replications += other.replications;
+            customersServed += other.customersServed;
+            maxTellers = Math.max(maxTellers, other.maxTellers);
+            virtualTime += other.virtualTime;
+            tellerTime += other.tellerTime;
+            waitTimes.merge(other.waitTimes);
+            lineSizes.merge(other.lineSizes);
+        }
+
+        /**
+         * 平均工作中的出纳员数量
+         *
+         * @return
+         */
+        double meanTellers() {
+            return virtualTime == 0 ? 0 : (double) tellerTime / virtualTime;
+        }
+
+        /**
+         * 策略的成本：p99排队时间（秒）* 平均出纳员数量
+         *
+         * @return
+         */
+        double cost() {
+            return waitTimes.percentile(99) / 1000.0 * meanTellers();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("重复实验：%d，服务顾客：%d，最多出纳员：%d，平均出纳员：%.2f，成本：%.2f"
+                            + "%n    排队时间(ms)：mean=%.1f p50=%d p99=%d max=%d"
+                            + "%n    队列长度：mean=%.2f p50=%d p99=%d max=%d",
+                    replications, customersServed, maxTellers, meanTellers(), cost(),
+                    waitTimes.mean(), waitTimes.percentile(50), waitTimes.percentile(99), waitTimes.max(),
+                    lineSizes.mean(), lineSizes.percentile(50), lineSizes.percentile(99), lineSizes.max());
+        }
+    }
+
+}
@@ -0,0 +1,174 @@
+package com.liukai.thinkinjava.concurrent;
+
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 银行出纳员仿真的遥测数据
+ * 记录每个顾客的排队时间和服务时间、顾客入队时的队列长度、出纳员的忙碌时间和出纳员数量的调整次数。
+ * 出纳员和生成顾客任务在各自的线程中记录，记录时只更新原子变量，不加锁也不创建对象。
+ * 时间以微秒记录，输出时换算成毫秒。
+ */
+class BankTellerTelemetry {
+
+    enum Format {
+        CSV, JSON
+    }
+
+    private final ConcurrentHistogram queueWaits = new ConcurrentHistogram();//排队时间，微秒
+    private final ConcurrentHistogram serviceTimes = new ConcurrentHistogram();//服务时间，微秒
+    private final ConcurrentHistogram lineSizes = new ConcurrentHistogram();//入队时的队列长度
+    private final LongAdder customersArrived = new LongAdder();
+    private final LongAdder customersServed = new LongAdder();
+    private final LongAdder busyNanos = new LongAdder();//所有出纳员服务顾客的时间之和
+    private final LongAdder adjustments = new LongAdder();
+    private final AtomicInteger workingTellers = new AtomicInteger(1);
+    private volatile int lineSize;
+
+    /**
+     * 顾客进入队列
+     *
+     * @param lineSize 入队后的队列长度
+     */
+    public void customerQueued(int lineSize) {
+        this.lineSize = lineSize;
+        lineSizes.record(lineSize);
+        customersArrived.increment();
+    }
+
+    /**
+     * 出纳员开始服务顾客
+     *
+     * @param customer
+     */
+    public void serviceStarted(Customer customer) {
+        queueWaits.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - customer.getEnqueueTime()));
+    }
+
+    /**
+     * 出纳员服务完一个顾客
+     *
+     * @param serviceNanos 实际的服务时间
+     */
+    public void serviceFinished(long serviceNanos) {
+        customersServed.increment();
+        busyNanos.add(serviceNanos);
+        serviceTimes.record(TimeUnit.NANOSECONDS.toMicros(serviceNanos));
+    }
+
+    /**
+     * 出纳员管理器调整了一个出纳员
+     */
+    public void tellerAdjusted() {
+        adjustments.increment();
+    }
+
+    /**
+     * 当前工作中的出纳员数量
+     *
+     * @param tellers
+     */
+    public void workingTellers(int tellers) {
+        workingTellers.set(tellers);
+    }
+
+    long customersArrived() {
+        return customersArrived.sum();
+    }
+
+    long customersServed() {
+        return customersServed.sum();
+    }
+
+    long busyNanos() {
+        return busyNanos.sum();
+    }
+
+    /**
+     * 定期输出遥测数据快照的任务
+     * 排队时间、服务时间和队列长度是从开始到现在的累计分布，出纳员利用率是两次快照之间的值
+     */
+    static class Reporter implements Runnable {
+
+        private static final String[] COLUMNS = {"elapsedMs", "customersServed", "lineSize", "workingTellers",
+                "tellerUtilization", "adjustments", "waitMeanMs", "waitP50Ms", "waitP99Ms", "waitMaxMs",
+                "serviceMeanMs", "serviceP50Ms", "serviceP99Ms", "lineSizeMean", "lineSizeP99", "lineSizeMax"};
+
+        private final BankTellerTelemetry telemetry;
+        private final long interval;//输出间隔，毫秒
+        private final PrintStream out;
+        private final Format format;
+        private final long startTime = System.nanoTime();
+        private long lastTime = startTime;
+        private long lastBusyNanos;
+
+        public Reporter(BankTellerTelemetry telemetry, long interval, PrintStream out, Format format) {
+            this.telemetry = telemetry;
+            this.interval = interval;
+            this.out = out;
+            this.format = format;
+        }
+
+        @Override
+        public void run() {
+            if (format == Format.CSV) {
+                out.println(String.join(",", COLUMNS));
+            }
+            try {
+                while (!Thread.interrupted()) {
+                    TimeUnit.MILLISECONDS.sleep(interval);
+                    report();
+                }
+            } catch (InterruptedException e) {
+                System.out.println("遥测输出任务被中断");
+            }
+            report();
+            System.out.println("遥测输出任务终止");
+        }
+
+        /**
+         * 输出一次快照
+         */
+        public void report() {
+            long now = System.nanoTime();
+            long busy = telemetry.busyNanos.sum();
+            int tellers = telemetry.workingTellers.get();
+            double utilization = now == lastTime ? 0
+                    : (double) (busy - lastBusyNanos) / ((now - lastTime) * Math.max(1, tellers));
+            lastTime = now;
+            lastBusyNanos = busy;
+
+            Histogram waits = telemetry.queueWaits.snapshot();
+            Histogram services = telemetry.serviceTimes.snapshot();
+            Histogram lines = telemetry.lineSizes.snapshot();
+            Object[] values = {TimeUnit.NANOSECONDS.toMillis(now - startTime), telemetry.customersServed.sum(),
+                    telemetry.lineSize, tellers, utilization, telemetry.adjustments.sum(),
+                    waits.mean() / 1000, waits.percentile(50) / 1000.0, waits.percentile(99) / 1000.0,
+                    waits.max() / 1000.0, services.mean() / 1000, services.percentile(50) / 1000.0,
+                    services.percentile(99) / 1000.0, lines.mean(), lines.percentile(99), lines.max()};
+
+            StringBuilder line = new StringBuilder();
+            if (format == Format.JSON) {
+                line.append('{');
+            }
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    line.append(',');
+                }
+                if (format == Format.JSON) {
+                    line.append('"').append(COLUMNS[i]).append("\":");
+                }
+                Object value = values[i];
+                line.append(value instanceof Double ? String.format(Locale.ROOT, "%.3f", value) : value);
+            }
+            if (format == Format.JSON) {
+                line.append('}');
+            }
+            out.println(line);
+        }
+    }
+
+}
@@ -0,0 +1,100 @@
+package com.liukai.thinkinjava.concurrent;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 线程安全的直方图
+ * 桶的划分与Histogram相同，多个线程可以同时记录，记录时不加锁也不创建对象。
+ * 通过snapshot()得到一个Histogram快照来计算百分位数。
+ * 需要大量直方图时使用紧凑精度，每个直方图只有64个桶。
+ */
+class ConcurrentHistogram {
+
+    private final int subBucketBits;
+    private final AtomicLongArray counts;
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    ConcurrentHistogram() {
+        this(Histogram.PRECISE);
+    }
+
+    /**
+     * @param subBucketBits 精度，见Histogram
+     */
+    ConcurrentHistogram(int subBucketBits) {
+        this.subBucketBits = Histogram.checkPrecision(subBucketBits);
+        this.counts = new AtomicLongArray(Histogram.bucketCount(subBucketBits));
+    }
+
+    /**
+     * 紧凑精度的直方图，按2的幂划分64个桶
+     *
+     * @return
+     */
+    static ConcurrentHistogram compact() {
+        return new ConcurrentHistogram(Histogram.COMPACT);
+    }
+
+    /**
+     * 记录一个非负值
+     *
+     * @param value
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(Histogram.bucketOf(value, subBucketBits));
+        total.add(value);
+        long current;
+        while (value > (current = max.get())) {
+            if (max.compareAndSet(current, value)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 当前的快照，与并发的记录之间不是原子的，但每个桶的计数都是准确的
+     *
+     * @return
+     */
+    public Histogram snapshot() {
+        long[] snapshot = new long[counts.length()];
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counts.get(i);
+        }
+        return new Histogram(subBucketBits, snapshot, total.sum(), max.get());
+    }
+
+    /**
+     * 已记录的数量
+     *
+     * @return
+     */
+    public long count() {
+        long count = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    public double mean() {
+        long count = count();
+        return count == 0 ? 0 : (double) total.sum() / count;
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    @Override
+    public String toString() {
+        return snapshot().toString();
+    }
+
+}
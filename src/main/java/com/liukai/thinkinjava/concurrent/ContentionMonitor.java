@@ -0,0 +1,462 @@
+package com.liukai.thinkinjava.concurrent;
+
+import java.lang.management.LockInfo;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 死锁和锁竞争监视器
+ * 后台线程定期通过ThreadMXBean对所有平台线程采样，不需要暂停或者修改应用：
+ * 1. 构建等待图：线程等待的锁有所有者时（synchronized或者ReentrantLock），连一条指向所有者的边；
+ *    线程在登记过的阻塞对象上等待时（例如筷子的Condition），连一条指向登记的所有者的边。
+ *    筷子被拿走只是一个布尔标记，JVM不知道它的所有者，findDeadlockedThreads()发现不了这种死锁，所以需要登记。
+ *    每个线程最多等待一个对象，图中每个节点最多一条出边，沿着出边走就能找到环。
+ *    各个线程的信息不是同一时刻得到的，同一个环连续两次采样都出现才报告，每个环只报告一次。
+ * 2. 统计锁竞争：每次采样把距离上一次采样的时间记到每个等待中的线程所等待的对象上，
+ *    有所有者的等待记为阻塞时间，其他的等待（Condition上没有所有者的等待）记为等待时间，按阻塞时间排序报告最严重的竞争。
+ *    守护线程在没有登记的对象上的等待通常是JVM后台线程空闲，只记阻塞时间。
+ * 采样只读取线程状态和等待的锁，不获取调用栈，只有报告死锁时才获取环上线程的调用栈。
+ * ThreadMXBean看不到虚拟线程，虚拟线程上的等待不会被统计。
+ */
+class ContentionMonitor {
+
+    private static final int MAX_MONITORS = 1024;//最多统计的对象数量，超出时淘汰阻塞时间最短的
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final Map<String, Watched> watched = new ConcurrentHashMap<>();//按对象的标识登记
+    private final Map<String, Contention> contentions = new HashMap<>();
+    private Set<List<Long>> suspected = new HashSet<>();//上一次采样发现的环
+    private final Set<List<Long>> reported = new HashSet<>();//已经报告过并且还存在的环
+    private long lastSample;
+    private long samples;
+    private ScheduledExecutorService sampler;
+    private volatile long samplerId = -1;
+
+    /**
+     * 登记一个阻塞对象的名称，报告时用名称代替类名和标识
+     *
+     * @param name
+     * @param blocker 线程阻塞时等待的对象：synchronized的对象或者Condition
+     */
+    void watch(String name, Object blocker) {
+        watch(name, blocker, null);
+    }
+
+    /**
+     * 登记一个阻塞对象和它保护的资源的所有者，在这个对象上等待的线程在等待图中指向所有者
+     *
+     * @param name
+     * @param blocker 线程阻塞时等待的对象
+     * @param owner   返回资源当前的所有者，没有所有者时返回null，采样线程会调用，必须是线程安全的
+     */
+    void watch(String name, Object blocker, Supplier<Thread> owner) {
+        watched.put(key(blocker), new Watched(name, owner));
+    }
+
+    /**
+     * 取消登记
+     *
+     * @param blocker
+     */
+    void unwatch(Object blocker) {
+        watched.remove(key(blocker));
+    }
+
+    /**
+     * 登记的阻塞对象数量
+     *
+     * @return
+     */
+    int watchedCount() {
+        return watched.size();
+    }
+
+    /**
+     * 与LockInfo.toString()相同的标识：类名@十六进制的identityHashCode
+     * 不同对象的标识可能相同，只是概率很小，最坏的情况是把两个对象的统计合在一起
+     *
+     * @param blocker
+     * @return
+     */
+    private static String key(Object blocker) {
+        return blocker.getClass().getName() + '@' + Integer.toHexString(System.identityHashCode(blocker));
+    }
+
+    /**
+     * 开始后台采样
+     *
+     * @param period   采样间隔
+     * @param unit
+     * @param listener 发现死锁时通知
+     */
+    synchronized void start(long period, TimeUnit unit, final DeadlockListener listener) {
+        if (sampler != null) {
+            sampler.shutdownNow();
+        }
+        sampler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "ContentionMonitor-sampler");
+                t.setDaemon(true);
+                samplerId = t.threadId();
+                return t;
+            }
+        });
+        sampler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                for (Deadlock deadlock : sample()) {
+                    listener.deadlockDetected(deadlock);
+                }
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * 停止后台采样，已经统计的竞争信息保留
+     */
+    synchronized void stop() {
+        if (sampler != null) {
+            sampler.shutdownNow();
+            sampler = null;
+        }
+    }
+
+    /**
+     * 采样一次
+     *
+     * @return 这一次确认的新死锁
+     */
+    synchronized List<Deadlock> sample() {
+        long now = System.nanoTime();
+        long interval = lastSample == 0 ? 0 : now - lastSample;
+        lastSample = now;
+        samples++;
+        ThreadInfo[] infos = threads.getThreadInfo(threads.getAllThreadIds(), 0);
+        Map<Long, Long> waitsFor = new HashMap<>();//等待图：线程 -> 它等待的线程
+        Map<Long, String> blockedOn = new HashMap<>();//线程 -> 等待的对象的名称
+        Map<String, Integer> blockedThreads = new HashMap<>();
+        for (ThreadInfo info : infos) {
+            if (info == null) {
+                continue;//线程已经结束
+            }
+            LockInfo lock = info.getLockInfo();
+            if (lock == null) {
+                continue;//没有等待对象，例如正在运行或者sleep()
+            }
+            String key = lock.toString();
+            Watched resource = watched.get(key);
+            long owner = info.getLockOwnerId();
+            if (owner < 0 && resource != null && resource.owner != null) {
+                Thread thread = resource.owner.get();
+                if (thread != null) {
+                    owner = thread.threadId();
+                }
+            }
+            String name = resource != null ? resource.name : key;
+            boolean blocked = owner >= 0 && owner != info.getThreadId();
+            if (!blocked && (info.isDaemon() && resource == null || info.getThreadId() == samplerId)) {
+                continue;//JVM的后台线程（Reference Handler等）和采样线程自己空闲时的等待不统计
+            }
+            if (blocked) {
+                waitsFor.put(info.getThreadId(), owner);
+                blockedOn.put(info.getThreadId(), name);
+                Integer count = blockedThreads.get(key);
+                blockedThreads.put(key, count == null ? 1 : count + 1);
+            }
+            Contention contention = contention(key, name);
+            if (blocked) {
+                contention.blockedNanos += interval;
+                contention.blockedSamples++;
+            } else {
+                contention.waitedNanos += interval;
+            }
+        }
+        for (Map.Entry<String, Integer> entry : blockedThreads.entrySet()) {
+            Contention contention = contentions.get(entry.getKey());
+            if (contention != null) {
+                contention.maxBlockedThreads = Math.max(contention.maxBlockedThreads, entry.getValue());
+            }
+        }
+        return confirm(findCycles(waitsFor), blockedOn);
+    }
+
+    /**
+     * 找到或者创建一个对象的统计，超出容量时淘汰阻塞时间最短的
+     *
+     * @param key
+     * @param name
+     * @return
+     */
+    private Contention contention(String key, String name) {
+        Contention contention = contentions.get(key);
+        if (contention == null) {
+            if (contentions.size() >= MAX_MONITORS) {
+                String victim = null;
+                long min = Long.MAX_VALUE;
+                for (Map.Entry<String, Contention> entry : contentions.entrySet()) {
+                    if (entry.getValue().blockedNanos < min) {
+                        victim = entry.getKey();
+                        min = entry.getValue().blockedNanos;
+                    }
+                }
+                contentions.remove(victim);
+            }
+            contention = new Contention(name);
+            contentions.put(key, contention);
+        }
+        contention.name = name;//登记可能晚于第一次采样
+        return contention;
+    }
+
+    /**
+     * 找出等待图中所有的环
+     * 每个节点最多一条出边，沿出边走到已经访问过的节点时，如果它是这一次走过的就找到了一个环
+     *
+     * @param waitsFor
+     * @return 每个环从最小的线程id开始
+     */
+    private static List<List<Long>> findCycles(Map<Long, Long> waitsFor) {
+        List<List<Long>> cycles = new ArrayList<>();
+        Map<Long, Integer> visitedBy = new HashMap<>();//节点 -> 第几次遍历访问的
+        int walk = 0;
+        for (Long start : waitsFor.keySet()) {
+            if (visitedBy.containsKey(start)) {
+                continue;
+            }
+            walk++;
+            List<Long> path = new ArrayList<>();
+            Long node = start;
+            while (node != null && !visitedBy.containsKey(node)) {
+                visitedBy.put(node, walk);
+                path.add(node);
+                node = waitsFor.get(node);
+            }
+            if (node != null && visitedBy.get(node) == walk) {
+                List<Long> cycle = new ArrayList<>(path.subList(path.indexOf(node), path.size()));
+                Collections.rotate(cycle, -cycle.indexOf(Collections.min(cycle)));
+                cycles.add(cycle);
+            }
+        }
+        return cycles;
+    }
+
+    /**
+     * 连续两次采样都出现的环才是死锁，每个环只报告一次，环消失后再出现会再次报告
+     *
+     * @param cycles
+     * @param blockedOn
+     * @return
+     */
+    private List<Deadlock> confirm(List<List<Long>> cycles, Map<Long, String> blockedOn) {
+        Set<List<Long>> current = new HashSet<>(cycles);
+        reported.retainAll(current);
+        List<Deadlock> deadlocks = new ArrayList<>();
+        for (List<Long> cycle : cycles) {
+            if (suspected.contains(cycle) && reported.add(cycle)) {
+                deadlocks.add(deadlock(cycle, blockedOn));
+            }
+        }
+        suspected = current;
+        return deadlocks;
+    }
+
+    /**
+     * 获取环上线程的调用栈
+     *
+     * @param cycle
+     * @param blockedOn
+     * @return
+     */
+    private Deadlock deadlock(List<Long> cycle, Map<Long, String> blockedOn) {
+        long[] ids = new long[cycle.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = cycle.get(i);
+        }
+        ThreadInfo[] infos = threads.getThreadInfo(ids, Integer.MAX_VALUE);
+        List<String> names = new ArrayList<>();
+        List<String> locks = new ArrayList<>();
+        List<StackTraceElement[]> stacks = new ArrayList<>();
+        for (int i = 0; i < ids.length; i++) {
+            ThreadInfo info = infos[i];
+            names.add(info == null ? "#" + ids[i] : info.getThreadName());
+            locks.add(blockedOn.get(ids[i]));
+            stacks.add(info == null ? new StackTraceElement[0] : info.getStackTrace());
+        }
+        return new Deadlock(ids, names, locks, stacks);
+    }
+
+    /**
+     * 按阻塞时间从长到短排序的竞争最严重的对象，阻塞时间相同时按等待时间排序
+     *
+     * @param n
+     * @return 统计的快照
+     */
+    synchronized List<Contention> topContended(int n) {
+        List<Contention> top = new ArrayList<>();
+        for (Contention contention : contentions.values()) {
+            if (contention.blockedNanos > 0 || contention.waitedNanos > 0) {
+                top.add(new Contention(contention));
+            }
+        }
+        Collections.sort(top, new Comparator<Contention>() {
+            @Override
+            public int compare(Contention a, Contention b) {
+                int c = Long.compare(b.blockedNanos, a.blockedNanos);
+                return c != 0 ? c : Long.compare(b.waitedNanos, a.waitedNanos);
+            }
+        });
+        return top.size() > n ? new ArrayList<>(top.subList(0, n)) : top;
+    }
+
+    synchronized long samples() {
+        return samples;
+    }
+
+    /**
+     * 登记的阻塞对象
+     */
+    private static class Watched {
+
+        final String name;
+        final Supplier<Thread> owner;
+
+        Watched(String name, Supplier<Thread> owner) {
+            this.name = name;
+            this.owner = owner;
+        }
+    }
+
+    /**
+     * 一个对象上的竞争统计，时间是按采样间隔估计的
+     */
+    static class Contention {
+
+        String name;
+        long blockedNanos;//线程等待有所有者的锁或者资源的时间
+        long waitedNanos;//线程在没有所有者的Condition上等待的时间
+        long blockedSamples;//采样到的阻塞线程数量之和
+        int maxBlockedThreads;//同时阻塞的最大线程数
+
+        Contention(String name) {
+            this.name = name;
+        }
+
+        Contention(Contention contention) {
+            this.name = contention.name;
+            this.blockedNanos = contention.blockedNanos;
+            this.waitedNanos = contention.waitedNanos;
+            this.blockedSamples = contention.blockedSamples;
+            this.maxBlockedThreads = contention.maxBlockedThreads;
+        }
+
+        String name() {
+            return name;
+        }
+
+        long blockedNanos() {
+            return blockedNanos;
+        }
+
+        long waitedNanos() {
+            return waitedNanos;
+        }
+
+        int maxBlockedThreads() {
+            return maxBlockedThreads;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s blocked: %dms, waited: %dms, blocked samples: %d, max blocked threads: %d",
+                    name, TimeUnit.NANOSECONDS.toMillis(blockedNanos), TimeUnit.NANOSECONDS.toMillis(waitedNanos),
+                    blockedSamples, maxBlockedThreads);
+        }
+    }
+
+    /**
+     * 等待图中的一个环
+     */
+    static class Deadlock {
+
+        private final long[] threadIds;
+        private final List<String> threadNames;
+        private final List<String> locks;//每个线程等待的对象，由下一个线程持有
+        private final List<StackTraceElement[]> stacks;
+
+        Deadlock(long[] threadIds, List<String> threadNames, List<String> locks, List<StackTraceElement[]> stacks) {
+            this.threadIds = threadIds;
+            this.threadNames = threadNames;
+            this.locks = locks;
+            this.stacks = stacks;
+        }
+
+        long[] threadIds() {
+            return threadIds.clone();
+        }
+
+        List<String> threadNames() {
+            return threadNames;
+        }
+
+        List<String> locks() {
+            return locks;
+        }
+
+        StackTraceElement[] stack(int i) {
+            return stacks.get(i);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("发现死锁，").append(threadIds.length).append("个线程：");
+            for (int i = 0; i < threadIds.length; i++) {
+                sb.append(String.format("%n\"%s\" #%d 等待 %s，持有者 \"%s\"", threadNames.get(i), threadIds[i],
+                        locks.get(i), threadNames.get((i + 1) % threadIds.length)));
+                for (StackTraceElement frame : stacks.get(i)) {
+                    sb.append(String.format("%n\tat %s", frame));
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * 死锁监听器
+     */
+    interface DeadlockListener {
+
+        /**
+         * 发现死锁，同一个死锁只通知一次
+         *
+         * @param deadlock
+         */
+        void deadlockDetected(Deadlock deadlock);
+    }
+
+    /**
+     * 打印死锁信息的监听器
+     */
+    static final DeadlockListener PRINT_DEADLOCKS = new DeadlockListener() {
+        @Override
+        public void deadlockDetected(Deadlock deadlock) {
+            System.out.println(deadlock);
+        }
+    };
+
+}
@@ -1,22 +1,36 @@
 package com.liukai.thinkinjava.concurrent;
 
-import java.util.Random;
+import java.util.SplittableRandom;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * CountDownLatch示例
+ * 参数striped：使用分段计数的StripedLatch代替CountDownLatch；
+ * 参数fanin [任务数] [等待者数]：比较大规模汇合时CountDownLatch加阻塞的等待线程与StripedLatch加回调的耗时
  * @author Administrator
  *
  */
 public class CountDownLatchDemo {
 
 	public static void main(String[] args) throws InterruptedException {
+		if (args.length > 0 && args[0].equals("fanin")) {
+			int portions = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+			int waiters = args.length > 2 ? Integer.parseInt(args[2]) : 10000;
+			for (int i = 0; i < 3; i++) {
+				System.out.printf("CountDownLatch，每个等待者一个虚拟线程：%.1fms%n",
+						blockingFanIn(portions, waiters) / 1e6);
+				System.out.printf("StripedLatch，每个等待者一个回调：%.1fms%n", callbackFanIn(portions, waiters) / 1e6);
+			}
+			return;
+		}
 		int size = 100;
-		ExecutorService es = Executors.newCachedThreadPool();
-		CountDownLatch countDownLatch = new CountDownLatch(size);
+		ExecutorService es = DemoExecutors.newExecutor();
+		CountDownLatch countDownLatch = args.length > 0 && args[0].equals("striped") ? new StripedLatch(size)
+				: new CountDownLatch(size);
 		for (int i = 0; i < 10; i++) {
 			es.execute(new WaitingTask(countDownLatch));
 		}
@@ -28,6 +42,92 @@ public class CountDownLatchDemo {
 		TimeUnit.SECONDS.sleep(5);
 		es.shutdownNow();
 	}
+
+	/**
+	 * 每个CPU一个线程并发地递减计数，直到门闩打开
+	 * 
+	 * @param latch
+	 * @param portions
+	 * @throws InterruptedException
+	 */
+	private static void countDownAll(final CountDownLatch latch, int portions) throws InterruptedException {
+		int threads = Runtime.getRuntime().availableProcessors();
+		ExecutorService es = Executors.newFixedThreadPool(threads);
+		for (int t = 0; t < threads; t++) {
+			final int share = portions / threads + (t < portions % threads ? 1 : 0);
+			es.execute(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 0; i < share; i++) {
+						latch.countDown();
+					}
+				}
+			});
+		}
+		es.shutdown();
+		es.awaitTermination(1, TimeUnit.HOURS);
+	}
+
+	/**
+	 * CountDownLatch汇合，每个等待者占用一个虚拟线程阻塞在await()中
+	 * 
+	 * @param portions
+	 * @param waiters
+	 * @return 从创建等待者到所有等待者都被唤醒的耗时，纳秒
+	 * @throws InterruptedException
+	 */
+	static long blockingFanIn(int portions, int waiters) throws InterruptedException {
+		final CountDownLatch latch = new CountDownLatch(portions);
+		final CountDownLatch woken = new CountDownLatch(waiters);
+		long start = System.nanoTime();
+		ExecutorService es = Executors.newVirtualThreadPerTaskExecutor();
+		for (int i = 0; i < waiters; i++) {
+			es.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						latch.await();
+						woken.countDown();
+					} catch (InterruptedException e) {
+						// 结束
+					}
+				}
+			});
+		}
+		countDownAll(latch, portions);
+		woken.await();
+		long elapsed = System.nanoTime() - start;
+		es.shutdown();
+		return elapsed;
+	}
+
+	/**
+	 * StripedLatch汇合，每个等待者只是一个回调，不占用线程
+	 * 
+	 * @param portions
+	 * @param waiters
+	 * @return 从登记回调到所有回调都执行完的耗时，纳秒
+	 * @throws InterruptedException
+	 */
+	static long callbackFanIn(int portions, int waiters) throws InterruptedException {
+		StripedLatch latch = new StripedLatch(portions);
+		final AtomicInteger woken = new AtomicInteger();
+		long start = System.nanoTime();
+		for (int i = 0; i < waiters; i++) {
+			latch.onComplete(new Runnable() {
+				@Override
+				public void run() {
+					woken.incrementAndGet();
+				}
+			});
+		}
+		countDownAll(latch, portions);
+		long elapsed = System.nanoTime() - start;
+		if (woken.get() != waiters) {
+			throw new IllegalStateException("woken: " + woken.get());
+		}
+		return elapsed;
+	}
 }
 
 class WaitingTask implements Runnable {
@@ -60,7 +160,7 @@ class TaskPortion implements Runnable {
 
 	private static int counter = 0;
 	private final int id = counter++;
-	private static Random random = new Random();
+	private final SplittableRandom random = RandomStreams.stream(TaskPortion.class, id);// 每个任务独立的随机数流
 	private CountDownLatch latch;
 
 	public TaskPortion(CountDownLatch countDownLatch) {
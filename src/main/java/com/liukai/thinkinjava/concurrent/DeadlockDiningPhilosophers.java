@@ -2,11 +2,17 @@ package com.liukai.thinkinjava.concurrent;
 
 import java.util.Random;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 
 /**
  * 死锁
+ * 大规模、可替换获取策略的版本见DiningPhilosophers
+ * 参数deadlock：按(i + 1) % size的顺序拿筷子，所有哲学家都可能同时拿着右边的筷子等待左边的筷子，
+ * ContentionMonitor在后台采样，发现死锁时打印环上每个哲学家的调用栈，结束时打印竞争最严重的筷子
  * 
  * @author Administrator
  *
@@ -15,27 +21,35 @@ public class DeadlockDiningPhilosophers {
 
 	public static void main(String[] args) throws InterruptedException {
 
-		int ponder = 5;
+		boolean deadlock = args.length > 0 && args[0].equals("deadlock");
+		int ponder = deadlock ? 0 : 5;// 不思考时很快就会死锁
 		int size = 5;
+		ContentionMonitor monitor = new ContentionMonitor();
 		Chopstick[] chopsticks = new Chopstick[size];
 		for (int i = 0; i < size; i++) {
 			chopsticks[i] = new Chopstick();
+			chopsticks[i].watch(monitor, "筷子 " + i);
 		}
+		monitor.start(100, TimeUnit.MILLISECONDS, ContentionMonitor.PRINT_DEADLOCKS);
 
-		ExecutorService es = Executors.newCachedThreadPool();
+		ExecutorService es = DemoExecutors.newExecutor();
 		for (int i = 0; i < size; i++) {
-			if (i == (size - 1)) {
+			if (deadlock) {
+				es.execute(new Philosopher(chopsticks[i], chopsticks[(i + 1) % size], i, ponder));
+			} else if (i == (size - 1)) {
 				es.execute(new Philosopher(chopsticks[0], chopsticks[i], i, ponder));
 			} else {
 				es.execute(new Philosopher(chopsticks[i], chopsticks[i + 1], i, ponder));
 			}
-			// es.execute(new Philosopher(chopsticks[i], chopsticks[(i + 1) %
-			// size], i, ponder));
 		}
 
 		TimeUnit.SECONDS.sleep(5);
 
+		monitor.stop();
 		es.shutdownNow();
+		for (ContentionMonitor.Contention contention : monitor.topContended(size)) {
+			System.out.println(contention);
+		}
 
 	}
 }
@@ -67,6 +81,9 @@ class Philosopher implements Runnable {
 	 * @throws InterruptedException
 	 */
 	public void pause() throws InterruptedException {
+		if (ponderFactor == 0) {
+			return;
+		}
 		TimeUnit.MILLISECONDS.sleep(random.nextInt(ponderFactor * 250));
 	}
 
@@ -98,22 +115,53 @@ class Philosopher implements Runnable {
 
 /**
  * 筷子
+ * 使用显式的Lock和Condition代替synchronized和wait()，虚拟线程等待筷子时不会占住载体线程
  * 
  * @author Administrator
  *
  */
 class Chopstick {
+	private final Lock lock = new ReentrantLock();
+	private final Condition dropped = lock.newCondition();
 	private boolean taken = false;
+	private volatile Thread holder;// 拿着筷子的线程，供ContentionMonitor构建等待图
+
+	public void take() throws InterruptedException {
+		lock.lock();
+		try {
+			while (taken) {
+				dropped.await();
+			}
+			taken = true;
+			holder = Thread.currentThread();
+		} finally {
+			lock.unlock();
+		}
+	}
 
-	public synchronized void take() throws InterruptedException {
-		while (taken) {
-			wait();
+	public void drop() {
+		lock.lock();
+		try {
+			taken = false;
+			holder = null;
+			dropped.signal();// 等待的哲学家只有一个能拿到筷子，只唤醒一个
+		} finally {
+			lock.unlock();
 		}
-		taken = true;
 	}
 
-	public synchronized void drop() {
-		taken = false;
-		notifyAll();
+	/**
+	 * 向监视器登记，等待这根筷子的线程在等待图中指向拿着它的线程
+	 * 
+	 * @param monitor
+	 * @param name
+	 */
+	void watch(ContentionMonitor monitor, String name) {
+		monitor.watch(name, dropped, new Supplier<Thread>() {
+			@Override
+			public Thread get() {
+				return holder;
+			}
+		});
 	}
 }
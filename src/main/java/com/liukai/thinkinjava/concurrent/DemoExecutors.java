@@ -0,0 +1,61 @@
+package com.liukai.thinkinjava.concurrent;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 示例共用的线程池工厂
+ * 示例中的任务几乎都在休眠或者阻塞，默认每个任务占用一个平台线程（newCachedThreadPool），
+ * 通过系统属性 -Dthinkinjava.executor=virtual 可以切换为每个任务一个虚拟线程，
+ * 虚拟线程阻塞时会让出载体线程，大量阻塞的任务只需要很少的平台线程。
+ */
+final class DemoExecutors {
+
+    static final String MODE_PROPERTY = "thinkinjava.executor";
+
+    /**
+     * 线程池的类型
+     */
+    enum Mode {
+        /**
+         * 平台线程，按需创建并缓存
+         */
+        PLATFORM,
+        /**
+         * 每个任务一个虚拟线程
+         */
+        VIRTUAL
+    }
+
+    private DemoExecutors() {
+    }
+
+    /**
+     * 由系统属性决定的线程池类型，默认为平台线程
+     *
+     * @return
+     */
+    static Mode mode() {
+        String mode = System.getProperty(MODE_PROPERTY);
+        return mode == null ? Mode.PLATFORM : Mode.valueOf(mode.trim().toUpperCase());
+    }
+
+    /**
+     * 按系统属性创建线程池
+     *
+     * @return
+     */
+    static ExecutorService newExecutor() {
+        return newExecutor(mode());
+    }
+
+    static ExecutorService newExecutor(Mode mode) {
+        switch (mode) {
+            case VIRTUAL:
+                return Executors.newVirtualThreadPerTaskExecutor();
+            default:
+                return Executors.newCachedThreadPool();
+        }
+    }
+
+}
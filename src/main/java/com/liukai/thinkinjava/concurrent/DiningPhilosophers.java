@@ -0,0 +1,445 @@
+package com.liukai.thinkinjava.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 哲学家就餐问题的引擎
+ * DeadlockDiningPhilosophers只是让最后一个哲学家反过来拿筷子来避免死锁，
+ * 这里n个哲学家围成一圈，第i个哲学家使用第i和第(i + 1) % n根筷子，获取两根筷子的策略可以替换：
+ * 按全局顺序加锁、tryLock加随机退避、服务员统一分配、Chandy–Misra（干净/脏的筷子）。
+ * 每个策略都只唤醒可能拿到筷子的邻居，而不是唤醒所有等待者。
+ * 运行结束后报告每秒进餐次数、每个哲学家的进餐次数和最长饥饿时间，以及公平性（Jain指数）。
+ */
+class DiningPhilosophers {
+
+    /**
+     * 获取两根筷子的策略
+     */
+    enum Strategy {
+        /**
+         * 总是先拿编号小的筷子，不会形成循环等待
+         */
+        ORDERED,
+        /**
+         * 拿到一根筷子后尝试拿另一根，失败时放下第一根并随机退避，退避时间逐渐增加
+         */
+        TRY_LOCK,
+        /**
+         * 服务员在一把锁下检查两根筷子，都空闲时同时分配，否则哲学家等待服务员通知
+         */
+        WAITER,
+        /**
+         * Chandy–Misra：筷子有干净和脏两种状态，吃过的筷子变脏，被邻居请求时交出脏筷子并擦干净，
+         * 干净的筷子不交出，哲学家之间的优先关系保证没有死锁和饥饿
+         */
+        CHANDY_MISRA
+    }
+
+    private static final long MAX_BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final int size;
+    private final Strategy strategy;
+    private final long thinkNanos;
+    private final long eatNanos;
+    private final ReentrantLock[] locks;//ORDERED和TRY_LOCK使用的筷子
+    private final Fork[] forks;//CHANDY_MISRA使用的筷子
+    private final Waiter waiter;
+
+    /**
+     * @param size       哲学家和筷子的数量
+     * @param strategy
+     * @param thinkNanos 每次思考的时间，0表示不思考
+     * @param eatNanos   每次进餐的时间，0表示不占用筷子
+     */
+    DiningPhilosophers(int size, Strategy strategy, long thinkNanos, long eatNanos) {
+        if (size < 2) {
+            throw new IllegalArgumentException("size: " + size);
+        }
+        this.size = size;
+        this.strategy = strategy;
+        this.thinkNanos = thinkNanos;
+        this.eatNanos = eatNanos;
+        this.locks = new ReentrantLock[size];
+        this.forks = new Fork[size];
+        for (int i = 0; i < size; i++) {
+            locks[i] = new ReentrantLock();
+            //开始时每根筷子都是脏的，属于相邻的两个哲学家中编号小的那个，优先关系没有环
+            forks[i] = new Fork(Math.min(i, (i - 1 + size) % size));
+        }
+        this.waiter = new Waiter(size);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        long micros = args.length > 1 ? Long.parseLong(args[1]) : 10;//思考和进餐的时间
+        for (Strategy strategy : Strategy.values()) {
+            DiningPhilosophers table = new DiningPhilosophers(size, strategy, TimeUnit.MICROSECONDS.toNanos(micros),
+                    TimeUnit.MICROSECONDS.toNanos(micros));
+            ExecutorService es = DemoExecutors.newExecutor();
+            Result result = table.run(es, 2, TimeUnit.SECONDS);
+            es.shutdown();
+            System.out.println(strategy + " " + result);
+        }
+    }
+
+    /**
+     * 所有哲学家同时开始思考和进餐，运行指定的时间后中断
+     *
+     * @param es       运行哲学家的线程池，至少能同时运行size个任务
+     * @param duration
+     * @param unit
+     * @return
+     * @throws InterruptedException
+     */
+    Result run(ExecutorService es, long duration, TimeUnit unit) throws InterruptedException {
+        final long[] meals = new long[size];
+        final long[] maxHungryNanos = new long[size];
+        final CountDownLatch ready = new CountDownLatch(size);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch finished = new CountDownLatch(size);
+        List<Future<?>> futures = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            final int id = i;
+            futures.add(es.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        ready.countDown();
+                        start.await();
+                        dine(id, meals, maxHungryNanos);
+                    } catch (InterruptedException e) {
+                        //结束
+                    } finally {
+                        finished.countDown();
+                    }
+                }
+            }));
+        }
+        ready.await();
+        long begin = System.nanoTime();
+        start.countDown();
+        unit.sleep(duration);
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+        finished.await();
+        //每个哲学家只写自己的计数，finished保证结束后这些写入可见
+        return new Result(meals, maxHungryNanos, System.nanoTime() - begin);
+    }
+
+    /**
+     * 第id个哲学家不断地思考和进餐，直到被中断
+     *
+     * @param id
+     * @param meals
+     * @param maxHungryNanos
+     * @throws InterruptedException
+     */
+    private void dine(int id, long[] meals, long[] maxHungryNanos) throws InterruptedException {
+        SplittableRandom random = RandomStreams.stream(DiningPhilosophers.class, id);
+        int left = id;
+        int right = (id + 1) % size;
+        while (!Thread.currentThread().isInterrupted()) {
+            if (thinkNanos > 0) {
+                LockSupport.parkNanos(random.nextLong(thinkNanos) + 1);
+            }
+            long hungry = System.nanoTime();
+            try {
+                acquire(id, left, right, random);
+            } catch (InterruptedException e) {
+                //结束时还没有拿到筷子，等待的时间也计入饥饿时间
+                maxHungryNanos[id] = Math.max(maxHungryNanos[id], System.nanoTime() - hungry);
+                throw e;
+            }
+            try {
+                long waited = System.nanoTime() - hungry;
+                if (waited > maxHungryNanos[id]) {
+                    maxHungryNanos[id] = waited;
+                }
+                meals[id]++;
+                if (eatNanos > 0) {
+                    LockSupport.parkNanos(eatNanos);
+                }
+            } finally {
+                release(id, left, right);
+            }
+        }
+        throw new InterruptedException();
+    }
+
+    private void acquire(int id, int left, int right, SplittableRandom random) throws InterruptedException {
+        switch (strategy) {
+            case ORDERED:
+                locks[Math.min(left, right)].lockInterruptibly();
+                try {
+                    locks[Math.max(left, right)].lockInterruptibly();
+                } catch (InterruptedException e) {
+                    locks[Math.min(left, right)].unlock();
+                    throw e;
+                }
+                return;
+            case TRY_LOCK:
+                long backoff = 1000;
+                while (true) {
+                    locks[left].lockInterruptibly();
+                    if (locks[right].tryLock()) {
+                        return;
+                    }
+                    locks[left].unlock();
+                    //随机退避，避免相邻的哲学家同步地重试
+                    LockSupport.parkNanos(random.nextLong(backoff) + 1);
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+                    backoff = Math.min(backoff * 2, MAX_BACKOFF_NANOS);
+                }
+            case WAITER:
+                waiter.acquire(id, left, right);
+                return;
+            default:
+                acquireForks(id, left, right);
+        }
+    }
+
+    private void release(int id, int left, int right) {
+        switch (strategy) {
+            case ORDERED:
+            case TRY_LOCK:
+                locks[right].unlock();
+                locks[left].unlock();
+                return;
+            case WAITER:
+                waiter.release(id, left, right);
+                return;
+            default:
+                forks[left].finishEating();
+                forks[right].finishEating();
+        }
+    }
+
+    /**
+     * Chandy–Misra：分别取得两根筷子的所有权，然后按编号顺序短暂地锁住两根筷子，确认都还属于自己后开始进餐。
+     * 等待筷子时不持有其他筷子的锁；只有脏的、没有在使用的筷子会被邻居拿走，拿走后是干净的，
+     * 所以已经拿到的干净筷子不会丢失，最终能拿到两根
+     *
+     * @param id
+     * @param left
+     * @param right
+     * @throws InterruptedException
+     */
+    private void acquireForks(int id, int left, int right) throws InterruptedException {
+        Fork first = forks[Math.min(left, right)];
+        Fork second = forks[Math.max(left, right)];
+        while (true) {
+            forks[left].obtain(id);
+            forks[right].obtain(id);
+            first.lock.lock();
+            second.lock.lock();
+            try {
+                if (first.owner == id && second.owner == id) {
+                    first.inUse = true;
+                    second.inUse = true;
+                    return;
+                }
+            } finally {
+                second.lock.unlock();
+                first.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Chandy–Misra的筷子
+     */
+    private static class Fork {
+
+        final ReentrantLock lock = new ReentrantLock();
+        final Condition changed = lock.newCondition();
+        int owner;
+        boolean dirty = true;
+        boolean inUse;//属于的哲学家正在用它进餐
+
+        Fork(int owner) {
+            this.owner = owner;
+        }
+
+        /**
+         * 等待筷子属于自己，脏的、没有在使用的筷子直接从邻居那里拿过来并擦干净
+         *
+         * @param id
+         * @throws InterruptedException
+         */
+        void obtain(int id) throws InterruptedException {
+            lock.lock();
+            try {
+                while (owner != id) {
+                    if (dirty && !inUse) {
+                        owner = id;
+                        dirty = false;
+                        return;
+                    }
+                    changed.await();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 吃完后筷子变脏，等待这根筷子的只可能是另一个邻居
+         */
+        void finishEating() {
+            lock.lock();
+            try {
+                inUse = false;
+                dirty = true;
+                changed.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 服务员：在一把锁下记录所有筷子的状态，每个哲学家有自己的条件，放下筷子时只通知两边的邻居
+     */
+    private static class Waiter {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final boolean[] taken;
+        private final boolean[] hungry;
+        private final Condition[] served;
+
+        Waiter(int size) {
+            this.taken = new boolean[size];
+            this.hungry = new boolean[size];
+            this.served = new Condition[size];
+            for (int i = 0; i < size; i++) {
+                served[i] = lock.newCondition();
+            }
+        }
+
+        void acquire(int id, int left, int right) throws InterruptedException {
+            lock.lockInterruptibly();
+            try {
+                hungry[id] = true;
+                while (taken[left] || taken[right]) {
+                    served[id].await();
+                }
+                taken[left] = true;
+                taken[right] = true;
+            } finally {
+                hungry[id] = false;
+                lock.unlock();
+            }
+        }
+
+        void release(int id, int left, int right) {
+            lock.lock();
+            try {
+                taken[left] = false;
+                taken[right] = false;
+                int size = taken.length;
+                //左边的邻居使用left - 1和left，右边的邻居使用right和right + 1
+                int leftNeighbour = (id - 1 + size) % size;
+                int rightNeighbour = right;
+                if (hungry[leftNeighbour]) {
+                    served[leftNeighbour].signal();
+                }
+                if (hungry[rightNeighbour]) {
+                    served[rightNeighbour].signal();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 一次运行的结果
+     */
+    static class Result {
+
+        final long[] meals;//每个哲学家的进餐次数
+        final long[] maxHungryNanos;//每个哲学家从饥饿到进餐的最长等待时间
+        final long elapsedNanos;
+
+        Result(long[] meals, long[] maxHungryNanos, long elapsedNanos) {
+            this.meals = meals;
+            this.maxHungryNanos = maxHungryNanos;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        long totalMeals() {
+            long total = 0;
+            for (long m : meals) {
+                total += m;
+            }
+            return total;
+        }
+
+        double mealsPerSecond() {
+            return totalMeals() * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * 一次都没有进餐的哲学家数量
+         *
+         * @return
+         */
+        int starved() {
+            int starved = 0;
+            for (long m : meals) {
+                if (m == 0) {
+                    starved++;
+                }
+            }
+            return starved;
+        }
+
+        /**
+         * Jain公平性指数：(Σx)² / (n·Σx²)，所有哲学家进餐次数相同时为1，只有一个哲学家进餐时为1/n
+         *
+         * @return
+         */
+        double fairness() {
+            double sum = 0;
+            double sumOfSquares = 0;
+            for (long m : meals) {
+                sum += m;
+                sumOfSquares += (double) m * m;
+            }
+            return sumOfSquares == 0 ? 1 : sum * sum / (meals.length * sumOfSquares);
+        }
+
+        long maxHungryNanos() {
+            long max = 0;
+            for (long h : maxHungryNanos) {
+                max = Math.max(max, h);
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            long min = Long.MAX_VALUE;
+            long max = 0;
+            for (long m : meals) {
+                min = Math.min(min, m);
+                max = Math.max(max, m);
+            }
+            return String.format("%d个哲学家：每秒进餐%.0f次，最少%d次，最多%d次，没有进餐：%d，公平性：%.3f，最长饥饿：%.1fms",
+                    meals.length, mealsPerSecond(), min, max, starved(), fairness(), maxHungryNanos() / 1e6);
+        }
+    }
+
+}
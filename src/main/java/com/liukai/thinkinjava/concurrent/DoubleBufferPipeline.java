@@ -0,0 +1,210 @@
+package com.liukai.thinkinjava.concurrent;
+
+import java.util.concurrent.Exchanger;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 双缓冲的生产者消费者流水线
+ * 每对生产者和消费者通过一个Exchanger交换两个预先分配的定长缓冲区：生产者填满自己的缓冲区后，
+ * 与消费者手中已经清空的缓冲区交换，然后继续填充换回来的缓冲区，消费者批量取出换来的缓冲区中的元素。
+ * 缓冲区在两者之间循环使用，元素的引用只写入一次，不复制，每个缓冲区只交换一次，而不是每个元素同步一次。
+ * 多对生产者和消费者之间互不相干，各自使用自己的Exchanger。
+ *
+ * @param <T>
+ */
+class DoubleBufferPipeline<T> {
+
+    private final Channel<T>[] channels;
+
+    /**
+     * @param pairs    生产者和消费者的对数
+     * @param capacity 每个缓冲区的容量
+     */
+    DoubleBufferPipeline(int pairs, int capacity) {
+        if (pairs <= 0) {
+            throw new IllegalArgumentException("pairs: " + pairs);
+        }
+        @SuppressWarnings("unchecked")
+        Channel<T>[] channels = (Channel<T>[]) new Channel<?>[pairs];
+        this.channels = channels;
+        for (int i = 0; i < pairs; i++) {
+            channels[i] = new Channel<>(capacity);
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int items = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+        for (int capacity : new int[]{20, 1000}) {
+            for (int pairs : new int[]{1, 2, 4}) {
+                DoubleBufferPipeline<Object> pipeline = new DoubleBufferPipeline<>(pairs, capacity);
+                long elapsed = run(pipeline, items / pairs, new Object());
+                System.out.printf("%d对生产者消费者，缓冲区容量%d：每秒%.0f个元素%n", pairs, capacity,
+                        items * 1e9 / elapsed);
+            }
+        }
+    }
+
+    /**
+     * 每对生产者和消费者传递指定数量的同一个元素
+     *
+     * @param pipeline
+     * @param itemsPerPair
+     * @param item
+     * @return 耗时，纳秒
+     * @throws InterruptedException
+     */
+    static <T> long run(DoubleBufferPipeline<T> pipeline, final int itemsPerPair, final T item)
+            throws InterruptedException {
+        ExecutorService es = DemoExecutors.newExecutor();
+        final Consumer<T> sink = new Consumer<T>() {
+            @Override
+            public void accept(T t) {
+                //只传递，不处理
+            }
+        };
+        long start = System.nanoTime();
+        for (int i = 0; i < pipeline.pairs(); i++) {
+            final Channel<T> channel = pipeline.channel(i);
+            es.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int n = 0; n < itemsPerPair; n++) {
+                            channel.put(item);
+                        }
+                        channel.close();
+                    } catch (InterruptedException e) {
+                        //结束
+                    }
+                }
+            });
+            es.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (channel.drainTo(sink) >= 0) {
+                            //继续交换
+                        }
+                    } catch (InterruptedException e) {
+                        //结束
+                    }
+                }
+            });
+        }
+        es.shutdown();
+        es.awaitTermination(1, TimeUnit.HOURS);
+        return System.nanoTime() - start;
+    }
+
+    int pairs() {
+        return channels.length;
+    }
+
+    /**
+     * 第i对生产者和消费者使用的通道
+     *
+     * @param i
+     * @return
+     */
+    Channel<T> channel(int i) {
+        return channels[i];
+    }
+
+    /**
+     * 一对生产者和消费者之间的通道
+     * 生产者的方法（put、flush、close）只能由一个生产者任务调用，drainTo只能由一个消费者任务调用
+     *
+     * @param <T>
+     */
+    static class Channel<T> {
+
+        private final Exchanger<ExchangeBuffer<T>> exchanger = new Exchanger<>();
+        private ExchangeBuffer<T> producing;//生产者正在填充的缓冲区
+        private ExchangeBuffer<T> consuming;//消费者正在取出的缓冲区
+        private boolean closed;//只由生产者读写
+        private boolean finished;//只由消费者读写
+        private volatile long exchanges;//只由生产者写入
+
+        Channel(int capacity) {
+            this.producing = new ExchangeBuffer<>(capacity);
+            this.consuming = new ExchangeBuffer<>(capacity);
+        }
+
+        /**
+         * 生产者添加一个元素，缓冲区满时与消费者交换，消费者没有取完上一个缓冲区时阻塞
+         *
+         * @param item
+         * @throws InterruptedException
+         */
+        void put(T item) throws InterruptedException {
+            if (closed) {
+                throw new IllegalStateException("closed");
+            }
+            producing.add(item);
+            if (producing.isFull()) {
+                exchange();
+            }
+        }
+
+        /**
+         * 把没有填满的缓冲区交给消费者
+         *
+         * @throws InterruptedException
+         */
+        void flush() throws InterruptedException {
+            if (!closed && !producing.isEmpty()) {
+                exchange();
+            }
+        }
+
+        /**
+         * 把剩余的元素和结束标记交给消费者，之后不能再添加元素
+         *
+         * @throws InterruptedException
+         */
+        void close() throws InterruptedException {
+            if (closed) {
+                return;
+            }
+            producing.setLast(true);
+            exchange();
+            closed = true;
+        }
+
+        private void exchange() throws InterruptedException {
+            producing = exchanger.exchange(producing);
+            exchanges++;
+        }
+
+        /**
+         * 消费者用清空的缓冲区换回一个缓冲区，并把其中所有的元素交给sink，生产者没有交出缓冲区时阻塞
+         *
+         * @param sink
+         * @return 取出的元素数量，生产者关闭并且所有元素都已取出时返回-1
+         * @throws InterruptedException
+         */
+        int drainTo(Consumer<? super T> sink) throws InterruptedException {
+            if (finished) {
+                return -1;
+            }
+            consuming = exchanger.exchange(consuming);
+            if (consuming.isLast()) {
+                consuming.setLast(false);
+                finished = true;
+            }
+            return consuming.drainTo(sink);
+        }
+
+        /**
+         * 生产者交出的缓冲区数量
+         *
+         * @return
+         */
+        long exchanges() {
+            return exchanges;
+        }
+    }
+
+}
@@ -0,0 +1,292 @@
+package com.liukai.thinkinjava.concurrent;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * 弹性对象池
+ * 对象在签出时按需通过Supplier创建，池中对象的数量不超过max。
+ * 空闲超过指定时间的对象由后台清理线程回收，但至少保留min个对象。
+ * 所有弹性对象池共用一个清理线程，清理任务只弱引用对象池，没有关闭就被丢弃的对象池仍然可以被回收，
+ * 回收后清理任务会自己取消。
+ * 空闲对象按后进先出的顺序签出，最近使用过的对象会被优先复用，长时间不用的对象留在队尾等待回收。
+ *
+ * @param <T>
+ */
+class ElasticPool<T> implements ObjectPool<T> {
+
+    private static final ScheduledThreadPoolExecutor REAPER = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "ElasticPool-reaper");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    static {
+        //关闭的对象池的清理任务立即从队列中移除
+        REAPER.setRemoveOnCancelPolicy(true);
+    }
+
+    private final Supplier<T> factory;
+    private final int min;
+    private final int max;
+    private final long idleNanos;//对象最长空闲时间
+    private final Semaphore available;//计数信号量，许可数量等于max减去已签出的数量
+    private final Deque<Entry<T>> idle = new ConcurrentLinkedDeque<>();//空闲对象，队首为最近签入的对象
+    private final Map<T, Entry<T>> entries = Collections.synchronizedMap(new IdentityHashMap<T, Entry<T>>());//按对象的身份查找，相等的对象互不覆盖
+    private final AtomicInteger created = new AtomicInteger();//当前池中对象的数量
+    private final ScheduledFuture<?> reaper;//清理任务
+
+    public ElasticPool(Supplier<T> factory, int min, int max, long idleTime, TimeUnit unit) {
+        if (min < 0 || max <= 0 || min > max) {
+            throw new IllegalArgumentException("min: " + min + ", max: " + max);
+        }
+        this.factory = factory;
+        this.min = min;
+        this.max = max;
+        this.idleNanos = unit.toNanos(idleTime);
+        this.available = new Semaphore(max);
+        long period = Math.max(idleNanos / 2, TimeUnit.MILLISECONDS.toNanos(1));
+        Reaper task = new Reaper(this);
+        this.reaper = REAPER.scheduleWithFixedDelay(task, period, period, TimeUnit.NANOSECONDS);
+        task.future = reaper;
+    }
+
+    /**
+     * 签出对象
+     *
+     * @return
+     * @throws InterruptedException
+     */
+    @Override
+    public T checkOut() throws InterruptedException {
+        available.acquire();
+        return getItem();
+    }
+
+    /**
+     * 尝试签出对象，没有可用对象时返回null
+     *
+     * @return
+     */
+    @Override
+    public T tryCheckOut() {
+        if (!available.tryAcquire()) {
+            return null;
+        }
+        return getItem();
+    }
+
+    /**
+     * 尝试签出对象，超时返回null
+     *
+     * @param timeout
+     * @param unit
+     * @return
+     * @throws InterruptedException
+     */
+    @Override
+    public T tryCheckOut(long timeout, TimeUnit unit) throws InterruptedException {
+        if (!available.tryAcquire(timeout, unit)) {
+            return null;
+        }
+        return getItem();
+    }
+
+    /**
+     * 批量签出对象，n个许可一次性获取
+     *
+     * @param n 不能大于max
+     * @return
+     * @throws InterruptedException
+     */
+    @Override
+    public List<T> checkOut(int n) throws InterruptedException {
+        if (n < 0 || n > max) {
+            throw new IllegalArgumentException("n: " + n + ", capacity: " + max);
+        }
+        available.acquire(n);
+        List<T> result = new ArrayList<>(n);
+        try {
+            for (int i = 0; i < n; i++) {
+                result.add(getItem());
+            }
+        } catch (RuntimeException e) {
+            //创建失败时归还剩余的许可和已签出的对象
+            available.release(n - result.size() - 1);
+            checkInAll(result);
+            throw e;
+        }
+        return result;
+    }
+
+    /**
+     * 签入，使用完对象后签入对象到池中
+     * 不属于池的对象或者重复签入的对象会被忽略
+     *
+     * @param x
+     */
+    @Override
+    public void checkIn(T x) {
+        if (realseItem(x)) {
+            available.release();
+        }
+    }
+
+    /**
+     * 批量签入对象，有效签入的许可一次性归还
+     *
+     * @param returned
+     */
+    @Override
+    public void checkInAll(Collection<T> returned) {
+        int released = 0;
+        for (T item : returned) {
+            if (realseItem(item)) {
+                released++;
+            }
+        }
+        if (released > 0) {
+            available.release(released);
+        }
+    }
+
+    /**
+     * 当前池中对象的数量，包括空闲的和已签出的对象
+     *
+     * @return
+     */
+    public int size() {
+        return created.get();
+    }
+
+    /**
+     * 当前空闲对象的数量
+     *
+     * @return
+     */
+    public int idleSize() {
+        return idle.size();
+    }
+
+    /**
+     * 关闭对象池，取消清理任务
+     */
+    @Override
+    public void close() {
+        reaper.cancel(false);
+    }
+
+    /**
+     * 获取对象，调用前必须已经获得许可。
+     * 没有空闲对象时说明所有对象都已签出，而许可保证了签出的数量小于max，所以可以创建新对象
+     *
+     * @return
+     */
+    private T getItem() {
+        Entry<T> entry = idle.pollFirst();
+        if (entry == null) {
+            try {
+                entry = new Entry<>(factory.get());
+            } catch (RuntimeException e) {
+                available.release();
+                throw e;
+            }
+            created.incrementAndGet();
+            entries.put(entry.item, entry);
+        }
+        entry.checkedOut.set(true);
+        return entry.item;
+    }
+
+    /**
+     * 释放对象
+     *
+     * @param item
+     * @return
+     */
+    private boolean realseItem(T item) {
+        Entry<T> entry = entries.get(item);
+        if (entry == null || !entry.checkedOut.compareAndSet(true, false)) {
+            return false;
+        }
+        entry.lastUsed = System.nanoTime();
+        idle.offerFirst(entry);
+        return true;
+    }
+
+    /**
+     * 从队尾开始回收空闲时间过长的对象，直到剩余min个对象
+     */
+    private void evictIdle() {
+        long deadline = System.nanoTime() - idleNanos;
+        while (created.get() > min) {
+            Entry<T> entry = idle.peekLast();
+            if (entry == null || entry.lastUsed - deadline > 0) {
+                return;
+            }
+            //对象可能同时被签出，只有成功从队列中移除的对象才能回收
+            if (idle.removeLastOccurrence(entry)) {
+                entries.remove(entry.item);
+                created.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 清理任务，弱引用对象池，对象池被回收后取消自己
+     */
+    private static class Reaper implements Runnable {
+
+        private final WeakReference<ElasticPool<?>> pool;
+        volatile ScheduledFuture<?> future;
+
+        Reaper(ElasticPool<?> pool) {
+            this.pool = new WeakReference<ElasticPool<?>>(pool);
+        }
+
+        @Override
+        public void run() {
+            ElasticPool<?> p = pool.get();
+            if (p != null) {
+                p.evictIdle();
+            } else if (future != null) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * 池中的对象及其状态
+     *
+     * @param <T>
+     */
+    private static class Entry<T> {
+
+        final T item;
+        final AtomicBoolean checkedOut = new AtomicBoolean();
+        volatile long lastUsed;
+
+        Entry(T item) {
+            this.item = item;
+        }
+    }
+
+}
@@ -0,0 +1,86 @@
+package com.liukai.thinkinjava.concurrent;
+
+/**
+ * 基于到达率趋势预测的出纳员调整策略
+ * 用Holt双指数平滑（带趋势的指数加权移动平均）跟踪到达率，预测下一个周期的到达率，
+ * 需要的出纳员数量 = (预测到达率 + 积压顾客在一个周期内消化完需要的速率) / (单个出纳员服务率 * 目标利用率)。
+ * 到达率上升时提前添加出纳员，一次最多添加或者移除maxStep个；
+ * 为了避免在稳定负载下来回振荡，只有连续patience个周期都需要更少的出纳员时才移除。
+ */
+class EwmaTrendPolicy implements TellerScalingPolicy {
+
+    private final double alpha;//到达率水平的平滑系数
+    private final double beta;//到达率趋势的平滑系数
+    private final double utilization;//目标利用率
+    private final int maxStep;//一次最多调整的出纳员数量
+    private final int patience;//连续多少个周期需要更少的出纳员才移除
+
+    private double level = Double.NaN;//平滑后的到达率，每毫秒
+    private double trend;//到达率每个周期的变化量
+    private double serviceRate = Double.NaN;//平滑后的单个出纳员服务率，每毫秒
+    private int surplusPeriods;//已经连续多少个周期需要更少的出纳员
+
+    EwmaTrendPolicy() {
+        this(0.5, 0.3, 0.8, 4, 2);
+    }
+
+    /**
+     * @param alpha       到达率水平的平滑系数，(0, 1]
+     * @param beta        到达率趋势的平滑系数，(0, 1]
+     * @param utilization 目标利用率，(0, 1]
+     * @param maxStep     一次最多调整的出纳员数量
+     * @param patience    连续多少个周期需要更少的出纳员才移除
+     */
+    EwmaTrendPolicy(double alpha, double beta, double utilization, int maxStep, int patience) {
+        this.alpha = alpha;
+        this.beta = beta;
+        this.utilization = utilization;
+        this.maxStep = maxStep;
+        this.patience = patience;
+    }
+
+    @Override
+    public int targetTellers(Observation o) {
+        if (o.period > 0) {
+            double rate = o.arrivalRate();
+            if (Double.isNaN(level)) {
+                level = rate;
+            } else {
+                double last = level;
+                level = alpha * rate + (1 - alpha) * (level + trend);
+                trend = beta * (level - last) + (1 - beta) * trend;
+            }
+        }
+        double rate = o.serviceRate();
+        if (!Double.isNaN(rate)) {
+            serviceRate = Double.isNaN(serviceRate) ? rate : serviceRate + alpha * (rate - serviceRate);
+        }
+        if (Double.isNaN(serviceRate)) {
+            return DEFAULT.targetTellers(o);
+        }
+
+        double forecast = Math.max(0, level + trend);
+        double backlog = o.period == 0 ? 0 : (double) o.lineSize / o.period;
+        int needed = Math.max(1, (int) Math.ceil((forecast + backlog) / (serviceRate * utilization)));
+
+        int working = o.workingTellers;
+        if (needed > working) {
+            surplusPeriods = 0;
+            return Math.min(needed, working + maxStep);
+        }
+        if (needed < working && ++surplusPeriods >= patience) {
+            surplusPeriods = 0;
+            return Math.max(needed, working - maxStep);
+        }
+        if (needed == working) {
+            surplusPeriods = 0;
+        }
+        return working;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("EWMA-trend(util=%.2f,step=%d)", utilization, maxStep);
+    }
+
+}
@@ -0,0 +1,104 @@
+package com.liukai.thinkinjava.concurrent;
+
+import java.util.function.Consumer;
+
+/**
+ * 固定容量的缓冲区，在生产者和消费者之间通过Exchanger循环使用
+ * 数组在创建时分配，之后只写入和清空元素的引用，不扩容也不复制，
+ * 同一时刻缓冲区只属于交换的一方，所以不需要同步，Exchanger保证交换前的写入对另一方可见。
+ *
+ * @param <T>
+ */
+class ExchangeBuffer<T> {
+
+    private final Object[] items;
+    private int size;
+    private boolean last;//生产者关闭后的最后一个缓冲区
+
+    ExchangeBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity: " + capacity);
+        }
+        this.items = new Object[capacity];
+    }
+
+    /**
+     * 在末尾添加一个元素
+     *
+     * @param item
+     * @return 缓冲区已满时返回false
+     */
+    boolean add(T item) {
+        if (size == items.length) {
+            return false;
+        }
+        items[size++] = item;
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    T get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+        }
+        return (T) items[index];
+    }
+
+    /**
+     * 按添加的顺序把所有元素交给sink，并清空缓冲区
+     *
+     * @param sink
+     * @return 元素的数量
+     */
+    @SuppressWarnings("unchecked")
+    int drainTo(Consumer<? super T> sink) {
+        int n = size;
+        for (int i = 0; i < n; i++) {
+            sink.accept((T) items[i]);
+            items[i] = null;//不持有已消费的对象
+        }
+        size = 0;
+        return n;
+    }
+
+    /**
+     * 清空缓冲区
+     */
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            items[i] = null;
+        }
+        size = 0;
+        last = false;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int capacity() {
+        return items.length;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    boolean isFull() {
+        return size == items.length;
+    }
+
+    boolean isLast() {
+        return last;
+    }
+
+    void setLast(boolean last) {
+        this.last = last;
+    }
+
+    @Override
+    public String toString() {
+        return "ExchangeBuffer{size=" + size + ", capacity=" + items.length + (last ? ", last" : "") + '}';
+    }
+
+}
@@ -1,10 +1,12 @@
 package com.liukai.thinkinjava.concurrent;
 
-import java.util.List;
-import java.util.concurrent.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * Exchanger是两个任务之间交换对象的栅栏，
+ * 生产者和消费者通过DoubleBufferPipeline交换预先分配的定长缓冲区，缓冲区循环使用，不复制元素，
  * Created by Administrator on 2016/7/28 0028.
  */
 public class ExchangerDemo {
@@ -12,29 +14,41 @@ public class ExchangerDemo {
     public static final int SIZE = 20;
 
     public static void main(String[] args) throws InterruptedException {
-        Exchanger<List<Fat>> exchanger = new Exchanger<>();
-        ExecutorService es = Executors.newCachedThreadPool();
-        es.execute(new ExchangeProducer<>(Fat.class, exchanger, new CopyOnWriteArrayList<Fat>()));
-        es.execute(new ExchangerConsumer<>(exchanger, new CopyOnWriteArrayList<Fat>()));
+        int pairs = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+        boolean ring = args.length > 1 && "ring".equals(args[1]);
+        ExecutorService es = DemoExecutors.newExecutor();
+        if (ring) {
+            //一个生产者通过环形缓冲区发布给pairs个消费者，消费者慢的时候生产者不必等待交换
+            RingBuffer<Fat> buffer = new RingBuffer<>(1024, RingBuffer.WaitStrategy.PARK);
+            for (int i = 0; i < pairs; i++) {
+                es.execute(new RingBufferConsumer<>(buffer.newReader()));
+            }
+            es.execute(new RingBufferProducer<>(Fat.class, buffer));
+        } else {
+            //每对生产者和消费者交换两个容量为SIZE的缓冲区
+            DoubleBufferPipeline<Fat> pipeline = new DoubleBufferPipeline<>(pairs, SIZE);
+            for (int i = 0; i < pairs; i++) {
+                es.execute(new ExchangeProducer<>(Fat.class, pipeline.channel(i)));
+                es.execute(new ExchangerConsumer<>(pipeline.channel(i)));
+            }
+        }
         TimeUnit.SECONDS.sleep(1);
         es.shutdownNow();
     }
 }
 
 /**
- * 生产者任务，用于生成对象并放入到List中并通过Exchanger对象交换到消费者线程
+ * 生产者任务，用于生成对象并放入到缓冲区中，缓冲区满时通过Exchanger对象交换到消费者线程
  *
  * @param <T>
  */
 class ExchangeProducer<T> implements Runnable {
 
-    private Exchanger<List<T>> exchanger;
-    private List<T> holder;
+    private DoubleBufferPipeline.Channel<T> channel;
     private Class<T> clazz;
 
-    ExchangeProducer(Class<T> clazz, Exchanger<List<T>> exchanger, List<T> holder) {
-        this.exchanger = exchanger;
-        this.holder = holder;
+    ExchangeProducer(Class<T> clazz, DoubleBufferPipeline.Channel<T> channel) {
+        this.channel = channel;
         this.clazz = clazz;
     }
 
@@ -42,15 +56,11 @@ class ExchangeProducer<T> implements Runnable {
     public void run() {
         try {
             while (!Thread.interrupted()) {
-                for (int i = 0; i < ExchangerDemo.SIZE; i++) {
-                    try {
-                        holder.add(i, clazz.newInstance());
-                    } catch (Exception e) {
-                        System.out.println("类创建失败：" + e.getMessage());
-                    }
+                try {
+                    channel.put(clazz.getDeclaredConstructor().newInstance());
+                } catch (ReflectiveOperationException e) {
+                    System.out.println("类创建失败：" + e.getMessage());
                 }
-                holder = exchanger.exchange(holder);
-                System.out.println("生产者线程：交换过后的holder对象为：" + holder);
             }
         } catch (InterruptedException e) {
             System.out.println(Thread.currentThread().getName() + "：当前线程被中断");
@@ -59,35 +69,35 @@ class ExchangeProducer<T> implements Runnable {
 }
 
 /**
- * 消费者线程，通过Exchanger对象来从生产者那里交换List对象并消费其中的对象
+ * 消费者线程，通过Exchanger对象来从生产者那里交换缓冲区并批量消费其中的对象
  *
  * @param <T>
  */
 class ExchangerConsumer<T> implements Runnable {
 
-    private Exchanger<List<T>> exchanger;
-    private List<T> holder;
+    private DoubleBufferPipeline.Channel<T> channel;
     private volatile T value;
 
-    ExchangerConsumer(Exchanger<List<T>> exchanger, List<T> holder) {
-        this.exchanger = exchanger;
-        this.holder = holder;
+    ExchangerConsumer(DoubleBufferPipeline.Channel<T> channel) {
+        this.channel = channel;
     }
 
     @Override
     public void run() {
+        Consumer<T> sink = new Consumer<T>() {
+            @Override
+            public void accept(T x) {
+                value = x;
+            }
+        };
         try {
-            while (!Thread.interrupted()) {
-                holder = exchanger.exchange(holder);
-                System.out.println("消费者线程：交换过后的holder对象为：" + holder);
-                for (T x : holder) {
-                    value = x;
-                    holder.remove(x);
-                }
+            int n;
+            while (!Thread.interrupted() && (n = channel.drainTo(sink)) >= 0) {
+                System.out.println("消费者线程：交换过后取出" + n + "个对象，最后一个为：" + value);
             }
         } catch (InterruptedException e) {
             System.out.println(Thread.currentThread().getName() + "：当前线程被中断");
         }
         System.out.println("最后一个对象为：" + value);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,194 @@
+package com.liukai.thinkinjava.concurrent;
+
+import java.util.Arrays;
+
+/**
+ * 可合并的直方图
+ * 值按2的幂分段，每段再分成2^subBucketBits个桶，小于2^(subBucketBits+1)的值精确记录，相对误差不超过2^-subBucketBits。
+ * 默认精度PRECISE每段64个桶，相对误差不超过1/64；紧凑精度COMPACT每段只有一个桶，总共64个桶，误差不超过2倍，
+ * 适合需要大量直方图的场景。
+ * 非线程安全，每个仿真只在自己的线程中记录，结束后再把多个直方图合并起来。
+ * 多个线程同时记录时使用ConcurrentHistogram，它的快照也是Histogram。
+ */
+class Histogram {
+
+    static final int PRECISE = 6;//默认精度
+    static final int COMPACT = 0;//紧凑精度，按2的幂划分桶
+
+    private final int subBucketBits;
+    private final long[] counts;
+    private long count;
+    private long total;
+    private long max;
+
+    Histogram() {
+        this(PRECISE);
+    }
+
+    /**
+     * @param subBucketBits 每段桶数的位数，在COMPACT和PRECISE之间
+     */
+    Histogram(int subBucketBits) {
+        this.subBucketBits = checkPrecision(subBucketBits);
+        this.counts = new long[bucketCount(subBucketBits)];
+    }
+
+    /**
+     * 由各个桶的计数创建直方图，用于ConcurrentHistogram生成快照
+     *
+     * @param subBucketBits
+     * @param counts
+     * @param total
+     * @param max
+     */
+    Histogram(int subBucketBits, long[] counts, long total, long max) {
+        this(subBucketBits);
+        System.arraycopy(counts, 0, this.counts, 0, this.counts.length);
+        for (long c : counts) {
+            this.count += c;
+        }
+        this.total = total;
+        this.max = max;
+    }
+
+    /**
+     * 记录一个非负值
+     *
+     * @param value
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts[bucketOf(value, subBucketBits)]++;
+        count++;
+        total += value;
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    /**
+     * 把另一个直方图合并到当前直方图，两个直方图的精度必须相同
+     *
+     * @param other
+     * @return 当前直方图
+     */
+    public Histogram merge(Histogram other) {
+        if (other.subBucketBits != subBucketBits) {
+            throw new IllegalArgumentException("precision: " + other.subBucketBits + " != " + subBucketBits);
+        }
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        total += other.total;
+        max = Math.max(max, other.max);
+        return this;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public double mean() {
+        return count == 0 ? 0 : (double) total / count;
+    }
+
+    public long max() {
+        return max;
+    }
+
+    /**
+     * 百分位数，返回所在桶的上界（不超过最大值）
+     *
+     * @param p 0到100之间
+     * @return
+     */
+    public long percentile(double p) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(count * p / 100));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i, subBucketBits), max);
+            }
+        }
+        return max;
+    }
+
+    public int precision() {
+        return subBucketBits;
+    }
+
+    static int checkPrecision(int subBucketBits) {
+        if (subBucketBits < COMPACT || subBucketBits > PRECISE) {
+            throw new IllegalArgumentException("subBucketBits: " + subBucketBits);
+        }
+        return subBucketBits;
+    }
+
+    /**
+     * 指定精度下桶的数量
+     *
+     * @param subBucketBits
+     * @return
+     */
+    static int bucketCount(int subBucketBits) {
+        int subBuckets = 1 << subBucketBits;
+        return 2 * subBuckets + (63 - subBucketBits - 1) * subBuckets;
+    }
+
+    /**
+     * 非负值所在的桶
+     *
+     * @param value
+     * @param subBucketBits
+     * @return
+     */
+    static int bucketOf(long value, int subBucketBits) {
+        int subBuckets = 1 << subBucketBits;
+        int linearLimit = 2 * subBuckets;//小于该值的值精确记录
+        if (value < linearLimit) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - subBucketBits;
+        return linearLimit + (shift - 1) * subBuckets + (int) (value >>> shift) - subBuckets;
+    }
+
+    private static long upperBound(int bucket, int subBucketBits) {
+        int subBuckets = 1 << subBucketBits;
+        int linearLimit = 2 * subBuckets;
+        if (bucket < linearLimit) {
+            return bucket;
+        }
+        int shift = (bucket - linearLimit) / subBuckets + 1;
+        long sub = (bucket - linearLimit) % subBuckets + subBuckets;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Histogram)) {
+            return false;
+        }
+        Histogram h = (Histogram) o;
+        return subBucketBits == h.subBucketBits && count == h.count && total == h.total && max == h.max
+                && Arrays.equals(counts, h.counts);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(counts);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d mean=%.1f p50=%d p99=%d max=%d",
+                count, mean(), percentile(50), percentile(99), max);
+    }
+
+}
@@ -2,18 +2,17 @@ package com.liukai.thinkinjava.concurrent;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
+import java.util.SplittableRandom;
 import java.util.concurrent.BrokenBarrierException;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 public class HorseRace {
 
 	static final int FINISH_LINE = 75;
 	private List<Horse> horses = new ArrayList<>();
-	private ExecutorService es = Executors.newCachedThreadPool();
+	private ExecutorService es = DemoExecutors.newExecutor();
 	private CyclicBarrier barrier;
 
 	public HorseRace(int nHorses, final int pause) {
@@ -71,7 +70,7 @@ class Horse implements Runnable {
 	private static int counter;
 	private final int id = counter++;
 	private int strides;
-	private static Random random = new Random();
+	private final SplittableRandom random = RandomStreams.stream(Horse.class, id);// 每匹马独立的随机数流
 	private CyclicBarrier barrier;
 
 	public Horse(CyclicBarrier barrier) {
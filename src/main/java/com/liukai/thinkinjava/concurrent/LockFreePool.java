@@ -0,0 +1,416 @@
+package com.liukai.thinkinjava.concurrent;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 无锁对象池
+ * 与Pool一样通过Semaphore管理签出许可，但空闲对象不再通过加锁扫描boolean数组查找，
+ * 而是保存在一个无锁的索引栈（Treiber栈）中，签出和签入都是O(1)操作。
+ * 池中还有固定数量的缓存，每个线程按线程id映射到其中一个，签入的对象优先放进自己的缓存，
+ * 同一线程再次签出时优先从缓存中获取。缓存中的对象也可以被其他线程窃取，所以不会有对象被某个线程独占。
+ * 缓存的数量只与CPU数量有关，不会随着访问过池的线程数量增长。
+ *
+ * @param <T>
+ */
+class LockFreePool<T> implements ObjectPool<T> {
+
+    private static final int FREE = 0;//空闲
+    private static final int CHECKED_OUT = 1;//已签出
+    private static final int NONE = -1;//空索引
+    private static final int THREAD_CACHE_SIZE = 4;//每个线程缓存的对象数量
+
+    private final int size;
+    private final Object[] items;
+    private final Map<T, Integer> indexes;//对象到索引的映射，构造完成后只读
+    private final AtomicIntegerArray states;//每个对象的签出状态
+    private final int[] next;//空闲栈的链接，只在入栈前由持有该索引的线程写入
+    private final AtomicLong top;//栈顶：高32位为版本号防止ABA问题，低32位为索引+1
+    private final Semaphore available;//计数信号量
+    private volatile PoolMetrics metrics;//统计信息，默认不开启
+    private final ThreadCache[] caches;//线程缓存，数量是2的幂
+
+    public LockFreePool(final Class<T> classObject, int size) {
+        this(new Supplier<T>() {
+            @Override
+            public T get() {
+                try {
+                    //确保T的具有公共的无参构造器
+                    return classObject.getDeclaredConstructor().newInstance();
+                } catch (ReflectiveOperationException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }, size);
+    }
+
+    public LockFreePool(Supplier<T> factory, int size) {
+        this.size = size;
+        this.items = new Object[size];
+        this.indexes = new IdentityHashMap<>(size);
+        this.states = new AtomicIntegerArray(size);
+        this.next = new int[size];
+        this.top = new AtomicLong();
+        this.caches = new ThreadCache[cacheCount()];
+        for (int i = 0; i < caches.length; i++) {
+            caches[i] = new ThreadCache();
+        }
+        //初始化对象池可以被签出的对象
+        for (int i = 0; i < size; i++) {
+            T item = factory.get();
+            items[i] = item;
+            indexes.put(item, i);
+        }
+        for (int i = size - 1; i >= 0; i--) {
+            push(i);
+        }
+        this.available = new Semaphore(size);
+    }
+
+    /**
+     * 签出对象
+     *
+     * @return
+     * @throws InterruptedException
+     */
+    @Override
+    public T checkOut() throws InterruptedException {
+        PoolMetrics m = metrics;
+        long start = m != null ? System.nanoTime() : 0;
+        available.acquire();
+        return getItem(m, start);
+    }
+
+    /**
+     * 尝试签出对象，没有可用对象时返回null
+     *
+     * @return
+     */
+    @Override
+    public T tryCheckOut() {
+        PoolMetrics m = metrics;
+        long start = m != null ? System.nanoTime() : 0;
+        if (!available.tryAcquire()) {
+            return null;
+        }
+        return getItem(m, start);
+    }
+
+    /**
+     * 尝试签出对象，超时返回null
+     *
+     * @param timeout
+     * @param unit
+     * @return
+     * @throws InterruptedException
+     */
+    @Override
+    public T tryCheckOut(long timeout, TimeUnit unit) throws InterruptedException {
+        PoolMetrics m = metrics;
+        long start = m != null ? System.nanoTime() : 0;
+        if (!available.tryAcquire(timeout, unit)) {
+            if (m != null) {
+                m.timedOut();
+            }
+            return null;
+        }
+        return getItem(m, start);
+    }
+
+    /**
+     * 批量签出对象，n个许可一次性获取
+     *
+     * @param n 不能大于池的大小
+     * @return
+     * @throws InterruptedException
+     */
+    @Override
+    public List<T> checkOut(int n) throws InterruptedException {
+        if (n < 0 || n > size) {
+            throw new IllegalArgumentException("n: " + n + ", capacity: " + size);
+        }
+        PoolMetrics m = metrics;
+        long start = m != null ? System.nanoTime() : 0;
+        available.acquire(n);
+        List<T> result = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            result.add(getItem(m, start));
+        }
+        return result;
+    }
+
+    /**
+     * 不等待地签出最多max个对象，放入into，供StripedPool在各个分片上凑齐一批对象
+     *
+     * @param max
+     * @param into
+     * @return 签出的数量
+     */
+    int tryCheckOut(int max, Collection<? super T> into) {
+        PoolMetrics m = metrics;
+        long start = m != null ? System.nanoTime() : 0;
+        int n = 0;
+        while (n < max && available.tryAcquire()) {
+            n++;
+        }
+        for (int i = 0; i < n; i++) {
+            into.add(getItem(m, start));
+        }
+        return n;
+    }
+
+    /**
+     * 还没有被认领的空闲对象数量
+     *
+     * @return
+     */
+    int availablePermits() {
+        return available.availablePermits();
+    }
+
+    /**
+     * 签入，使用完对象后签入对象到池中
+     * 不属于池的对象或者重复签入的对象会被忽略
+     *
+     * @param x
+     */
+    @Override
+    public void checkIn(T x) {
+        tryCheckIn(x);
+    }
+
+    /**
+     * 签入对象，返回是否是一次有效的签入，供StripedPool决定是否唤醒等待的线程
+     *
+     * @param x
+     * @return
+     */
+    boolean tryCheckIn(T x) {
+        if (realseItem(x)) {
+            available.release();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 批量签入对象，有效签入的许可一次性归还
+     *
+     * @param returned
+     */
+    @Override
+    public void checkInAll(Collection<T> returned) {
+        int released = 0;
+        for (T item : returned) {
+            if (realseItem(item)) {
+                released++;
+            }
+        }
+        if (released > 0) {
+            available.release(released);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 关闭对象池，停止泄漏检测
+     */
+    @Override
+    public void close() {
+        PoolMetrics m = metrics;
+        if (m != null) {
+            m.disableLeakDetection();
+        }
+    }
+
+    /**
+     * 开启统计
+     *
+     * @return
+     */
+    public synchronized PoolMetrics enableMetrics() {
+        if (metrics == null) {
+            metrics = new PoolMetrics(size);
+        }
+        return metrics;
+    }
+
+    /**
+     * 获取统计信息，没有开启统计时返回null
+     *
+     * @return
+     */
+    public PoolMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * 获取对象，调用前必须已经获得许可，
+     * 许可保证了当前至少有一个空闲对象还没有被其他线程认领
+     *
+     * @param m     签出开始时的统计信息
+     * @param start 签出开始的时间
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    private T getItem(PoolMetrics m, long start) {
+        ThreadCache cache = threadCache();
+        for (; ; ) {
+            int index = cache.poll();
+            if (index == NONE) {
+                index = pop();
+            }
+            if (index == NONE) {
+                index = steal(cache);
+            }
+            if (index != NONE) {
+                if (m != null) {
+                    m.checkedOut(index, System.nanoTime() - start);
+                }
+                states.set(index, CHECKED_OUT);
+                return (T) items[index];
+            }
+            //对象正在被其他线程签入，稍后重试
+            Thread.yield();
+        }
+    }
+
+    /**
+     * 释放对象
+     *
+     * @param item
+     * @return
+     */
+    private boolean realseItem(T item) {
+        Integer index = indexes.get(item);
+        if (index == null) {
+            return false;
+        }
+        //只有签出状态的对象才能签入，拒绝重复签入
+        if (!states.compareAndSet(index, CHECKED_OUT, FREE)) {
+            return false;
+        }
+        PoolMetrics m = metrics;
+        if (m != null) {
+            m.checkedIn(index);
+        }
+        if (!threadCache().offer(index)) {
+            push(index);
+        }
+        return true;
+    }
+
+    /**
+     * 当前线程对应的缓存，同一个线程总是映射到同一个缓存
+     *
+     * @return
+     */
+    private ThreadCache threadCache() {
+        long id = Thread.currentThread().threadId();
+        return caches[(int) (id ^ (id >>> 32)) & (caches.length - 1)];
+    }
+
+    /**
+     * 从其他缓存中窃取对象，最多扫描一遍固定数量的缓存
+     *
+     * @param self
+     * @return
+     */
+    private int steal(ThreadCache self) {
+        for (ThreadCache cache : caches) {
+            if (cache != self) {
+                int index = cache.poll();
+                if (index != NONE) {
+                    return index;
+                }
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * 缓存的数量：不小于CPU数量两倍的2的幂
+     *
+     * @return
+     */
+    private static int cacheCount() {
+        int n = 2 * Runtime.getRuntime().availableProcessors();
+        return Integer.highestOneBit(n - 1) << 1;
+    }
+
+    private void push(int index) {
+        for (; ; ) {
+            long current = top.get();
+            next[index] = (int) current - 1;
+            if (top.compareAndSet(current, stamp(current, index + 1))) {
+                return;
+            }
+        }
+    }
+
+    private int pop() {
+        for (; ; ) {
+            long current = top.get();
+            int index = (int) current - 1;
+            if (index == NONE) {
+                return NONE;
+            }
+            //next[index]可能已被并发的出入栈修改，此时版本号不同CAS会失败
+            if (top.compareAndSet(current, stamp(current, next[index] + 1))) {
+                return index;
+            }
+        }
+    }
+
+    private static long stamp(long current, int value) {
+        return (((current >>> 32) + 1) << 32) | (value & 0xFFFFFFFFL);
+    }
+
+    /**
+     * 线程缓存
+     * 映射到同一个缓存的线程通过CAS向其中放入对象，所有线程都可以通过getAndSet从中取出对象
+     */
+    private static class ThreadCache {
+
+        private final AtomicIntegerArray slots = new AtomicIntegerArray(THREAD_CACHE_SIZE);
+
+        ThreadCache() {
+            for (int i = 0; i < THREAD_CACHE_SIZE; i++) {
+                slots.set(i, NONE);
+            }
+        }
+
+        boolean offer(int index) {
+            for (int i = 0; i < THREAD_CACHE_SIZE; i++) {
+                if (slots.get(i) == NONE && slots.compareAndSet(i, NONE, index)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        int poll() {
+            for (int i = THREAD_CACHE_SIZE - 1; i >= 0; i--) {
+                if (slots.get(i) != NONE) {
+                    int index = slots.getAndSet(i, NONE);
+                    if (index != NONE) {
+                        return index;
+                    }
+                }
+            }
+            return NONE;
+        }
+    }
+
+}
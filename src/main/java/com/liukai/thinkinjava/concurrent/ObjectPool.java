@@ -0,0 +1,72 @@
+package com.liukai.thinkinjava.concurrent;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对象池
+ * 签出对象在没有可用对象时阻塞，签入一个不属于池或者已经签入的对象会被忽略
+ * 不再使用的对象池应该关闭，释放它占用的后台任务
+ *
+ * @param <T>
+ */
+interface ObjectPool<T> extends AutoCloseable {
+
+    /**
+     * 签出对象，没有可用对象时阻塞
+     *
+     * @return
+     * @throws InterruptedException
+     */
+    T checkOut() throws InterruptedException;
+
+    /**
+     * 尝试签出对象，没有可用对象时立即返回null
+     *
+     * @return
+     */
+    T tryCheckOut();
+
+    /**
+     * 尝试签出对象，最多等待指定的时间，超时返回null
+     *
+     * @param timeout
+     * @param unit
+     * @return
+     * @throws InterruptedException
+     */
+    T tryCheckOut(long timeout, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * 批量签出n个对象，一次性获取n个许可，没有足够的对象时阻塞
+     * n超过池的容量时永远无法满足，而公平的许可会让排在后面的签出也一起阻塞，所以直接拒绝
+     *
+     * @param n
+     * @return
+     * @throws InterruptedException
+     * @throws IllegalArgumentException n小于0或者大于池的容量
+     */
+    List<T> checkOut(int n) throws InterruptedException;
+
+    /**
+     * 签入对象
+     *
+     * @param x
+     */
+    void checkIn(T x);
+
+    /**
+     * 批量签入对象，一次性归还所有有效签入的许可
+     *
+     * @param items
+     */
+    void checkInAll(Collection<T> items);
+
+    /**
+     * 关闭对象池，停止它的后台任务，重复关闭没有影响
+     */
+    @Override
+    void close();
+
+}
@@ -0,0 +1,233 @@
+package com.liukai.thinkinjava.concurrent;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 对象池的统计信息
+ * 记录签出的等待时间和对象的持有时间分布（紧凑精度的ConcurrentHistogram）、当前和峰值的使用量以及签出吞吐量，
+ * 还可以开启泄漏检测，报告持有时间超过阈值的对象是在哪里被签出的。
+ * 所有的记录操作都只使用原子变量和LongAdder，不会在签出签入的路径上增加锁。
+ * 统计信息按对象在池中的位置（slot）记录，由对象池在签出和签入时调用。
+ */
+class PoolMetrics {
+
+    private final int capacity;
+    private final long startTime = System.nanoTime();
+    private final ConcurrentHistogram waitTimes = ConcurrentHistogram.compact();//签出等待时间，纳秒
+    private final ConcurrentHistogram holdTimes = ConcurrentHistogram.compact();//对象持有时间，纳秒
+    private final LongAdder checkOuts = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final AtomicInteger inUse = new AtomicInteger();
+    private final AtomicInteger peakInUse = new AtomicInteger();
+    private final AtomicLongArray checkOutTimes;//每个位置的签出时间，0表示未签出
+    private final AtomicReferenceArray<Throwable> checkOutTraces;//每个位置签出时的调用栈
+    private volatile boolean traceCheckOuts = false;
+    private ScheduledExecutorService leakDetector;
+
+    public PoolMetrics(int capacity) {
+        this.capacity = capacity;
+        this.checkOutTimes = new AtomicLongArray(capacity);
+        this.checkOutTraces = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * 记录一次签出
+     *
+     * @param slot      对象在池中的位置
+     * @param waitNanos 等待许可的时间
+     */
+    public void checkedOut(int slot, long waitNanos) {
+        long now = System.nanoTime();
+        waitTimes.record(waitNanos);
+        checkOuts.increment();
+        checkOutTimes.set(slot, now == 0 ? 1 : now);
+        if (traceCheckOuts) {
+            checkOutTraces.set(slot, new Throwable("checked out by " + Thread.currentThread().getName()));
+        }
+        int current = inUse.incrementAndGet();
+        //只有超过峰值时才需要CAS
+        int peak;
+        while (current > (peak = peakInUse.get())) {
+            if (peakInUse.compareAndSet(peak, current)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 记录一次签入
+     *
+     * @param slot 对象在池中的位置
+     */
+    public void checkedIn(int slot) {
+        long checkOutTime = checkOutTimes.getAndSet(slot, 0);
+        //开启统计之前签出的对象没有记录
+        if (checkOutTime == 0) {
+            return;
+        }
+        holdTimes.record(System.nanoTime() - checkOutTime);
+        if (traceCheckOuts) {
+            checkOutTraces.lazySet(slot, null);
+        }
+        inUse.decrementAndGet();
+    }
+
+    /**
+     * 记录一次签出超时
+     */
+    public void timedOut() {
+        timeouts.increment();
+    }
+
+    public ConcurrentHistogram waitTimes() {
+        return waitTimes;
+    }
+
+    public ConcurrentHistogram holdTimes() {
+        return holdTimes;
+    }
+
+    public int inUse() {
+        return inUse.get();
+    }
+
+    public int peakInUse() {
+        return peakInUse.get();
+    }
+
+    /**
+     * 当前的使用率
+     *
+     * @return
+     */
+    public double utilization() {
+        return capacity == 0 ? 0 : (double) inUse.get() / capacity;
+    }
+
+    public long checkOuts() {
+        return checkOuts.sum();
+    }
+
+    public long timeouts() {
+        return timeouts.sum();
+    }
+
+    /**
+     * 每秒签出的次数
+     *
+     * @return
+     */
+    public double throughput() {
+        long elapsed = System.nanoTime() - startTime;
+        return elapsed <= 0 ? 0 : checkOuts.sum() * 1e9 / elapsed;
+    }
+
+    /**
+     * 开启泄漏检测，后台线程定期检查持有时间超过阈值的对象并通知监听器
+     * 开启后每次签出都会记录调用栈，所以只应该在排查问题时使用
+     *
+     * @param threshold
+     * @param unit
+     * @param listener
+     */
+    public synchronized void enableLeakDetection(long threshold, TimeUnit unit, final LeakListener listener) {
+        if (leakDetector != null) {
+            leakDetector.shutdownNow();
+        }
+        traceCheckOuts = true;
+        final long thresholdNanos = unit.toNanos(threshold);
+        leakDetector = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "PoolMetrics-leak-detector");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        long period = Math.max(thresholdNanos / 2, TimeUnit.MILLISECONDS.toNanos(1));
+        leakDetector.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                detectLeaks(thresholdNanos, listener);
+            }
+        }, period, period, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 关闭泄漏检测
+     */
+    public synchronized void disableLeakDetection() {
+        traceCheckOuts = false;
+        if (leakDetector != null) {
+            leakDetector.shutdownNow();
+            leakDetector = null;
+        }
+    }
+
+    /**
+     * 检查一次持有时间超过阈值的对象，每次签出最多报告一次
+     *
+     * @param thresholdNanos
+     * @param listener
+     * @return 本次报告的泄漏数量
+     */
+    public int detectLeaks(long thresholdNanos, LeakListener listener) {
+        int leaks = 0;
+        long now = System.nanoTime();
+        for (int i = 0; i < capacity; i++) {
+            long checkOutTime = checkOutTimes.get(i);
+            if (checkOutTime == 0 || now - checkOutTime < thresholdNanos) {
+                continue;
+            }
+            Throwable trace = checkOutTraces.get(i);
+            //置空调用栈保证同一次签出只报告一次
+            if (trace != null && checkOutTraces.compareAndSet(i, trace, null)) {
+                listener.leakDetected(i, now - checkOutTime, trace);
+                leaks++;
+            }
+        }
+        return leaks;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("checkOuts: %d, timeouts: %d, throughput: %.1f/s, inUse: %d/%d, peak: %d%n"
+                        + "wait(ns): %s%nhold(ns): %s",
+                checkOuts(), timeouts(), throughput(), inUse(), capacity, peakInUse(), waitTimes, holdTimes);
+    }
+
+    /**
+     * 泄漏监听器
+     */
+    interface LeakListener {
+
+        /**
+         * 发现可能泄漏的对象
+         *
+         * @param slot          对象在池中的位置
+         * @param heldNanos     已经持有的时间
+         * @param checkOutTrace 签出时的调用栈
+         */
+        void leakDetected(int slot, long heldNanos, Throwable checkOutTrace);
+    }
+
+    /**
+     * 打印泄漏信息的监听器
+     */
+    static final LeakListener PRINT_LEAKS = new LeakListener() {
+        @Override
+        public void leakDetected(int slot, long heldNanos, Throwable checkOutTrace) {
+            System.out.println("可能泄漏的对象，位置：" + slot + "，已持有："
+                    + TimeUnit.NANOSECONDS.toMillis(heldNanos) + "ms");
+            checkOutTrace.printStackTrace(System.out);
+        }
+    };
+
+}
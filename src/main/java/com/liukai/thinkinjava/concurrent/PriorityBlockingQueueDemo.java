@@ -1,17 +1,20 @@
 package com.liukai.thinkinjava.concurrent;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Queue;
 import java.util.Random;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 优先级阻塞队列例子
+ * 指定工作线程数量时改用多消费者的PriorityExecutor，例如 PriorityBlockingQueueDemo 4
  * 
  * @author Administrator
  *
@@ -19,7 +22,14 @@ import java.util.concurrent.TimeUnit;
 public class PriorityBlockingQueueDemo {
 
 	public static void main(String[] args) {
-		ExecutorService es = Executors.newCachedThreadPool();
+		ExecutorService es = DemoExecutors.newExecutor();
+		if (args.length > 0) {
+			// 每个优先级一个无锁队列，多个工作线程消费，等待超过1秒的任务提高一级优先级
+			PriorityExecutor executor = new PriorityExecutor(Integer.parseInt(args[0]), 1, TimeUnit.SECONDS);
+			es.execute(new PrioritizedTaskProducer(executor));// 开启生产者线程
+			es.shutdown();
+			return;
+		}
 		PriorityBlockingQueue<Runnable> queue = new PriorityBlockingQueue<>();
 		es.execute(new PrioritizedTaskProducer(queue, es));// 开启生产者线程
 		es.execute(new PrioritizedTaskConsumer(queue));// 开启消费者线程
@@ -36,33 +46,48 @@ public class PriorityBlockingQueueDemo {
 class PrioritizedTaskProducer implements Runnable {
 
 	private Random random = new Random(47);
-	private Queue<Runnable> queue;
+	private Executor queue;// 放入任务的队列或者执行器
 	private ExecutorService es;
 
-	public PrioritizedTaskProducer(Queue<Runnable> queue, ExecutorService es) {
-		this.queue = queue;
+	public PrioritizedTaskProducer(final Queue<Runnable> queue, ExecutorService es) {
+		this.queue = new Executor() {
+			@Override
+			public void execute(Runnable task) {
+				queue.add(task);
+			}
+		};
 		this.es = es;
 	}
 
+	/**
+	 * 直接交给优先级执行器，终结哨兵执行时关闭执行器
+	 * 
+	 * @param executor
+	 */
+	public PrioritizedTaskProducer(PriorityExecutor executor) {
+		this.queue = executor;
+		this.es = executor;
+	}
+
 	@Override
 	public void run() {
 		// 存放20个随机的优先级任务
 		for (int i = 0; i < 20; i++) {
-			queue.add(new PrioritizedTask(random.nextInt(10)));
+			queue.execute(new PrioritizedTask(random.nextInt(10)));
 			Thread.yield();
 		}
 		try {
 			// 存放10个优先级最高的优先级任务
 			for (int i = 0; i < 10; i++) {
 				TimeUnit.MILLISECONDS.sleep(250);
-				queue.add(new PrioritizedTask(10));
+				queue.execute(new PrioritizedTask(10));
 			}
 			// 存放10个优先级由小到大优先级任务
 			for (int i = 0; i < 10; i++) {
-				queue.add(new PrioritizedTask(i));
+				queue.execute(new PrioritizedTask(i));
 			}
 			// 存放优先级最低的终结线程的任务
-			queue.add(new PrioritizedTask.EndSentinel(es));
+			queue.execute(new PrioritizedTask.EndSentinel(es));
 		} catch (InterruptedException e) {
 		}
 		System.out.println("任务都已经存放完毕...");
@@ -106,16 +131,21 @@ class PrioritizedTaskConsumer implements Runnable {
 class PrioritizedTask implements Runnable, Comparable<PrioritizedTask> {
 
 	private Random random = new Random(47);
-	private static int count = 0;
-	private final int id = ++count;
+	private static AtomicInteger count = new AtomicInteger();
+	private final int id = count.incrementAndGet();
 	private final int priority;// 优先级
-	protected static List<PrioritizedTask> sequence = new ArrayList<>();// 记录保存的顺序
+	// 记录保存的顺序，任务可能在多个线程中创建，所以使用同步的列表
+	protected static List<PrioritizedTask> sequence = Collections.synchronizedList(new ArrayList<PrioritizedTask>());
 
 	public PrioritizedTask(int priority) {
 		this.priority = priority;
 		sequence.add(this);
 	}
 
+	public int getPriority() {
+		return priority;
+	}
+
 	@Override
 	public int compareTo(PrioritizedTask task) {
 		return priority > task.priority ? -1 : (priority < task.priority ? 1 : 0);
@@ -157,10 +187,12 @@ class PrioritizedTask implements Runnable, Comparable<PrioritizedTask> {
 
 		@Override
 		public void run() {
-			for (PrioritizedTask pt : sequence) {
-				System.out.println("按照任务的插入顺序输出：" + pt.summary());
+			synchronized (sequence) {
+				for (PrioritizedTask pt : sequence) {
+					System.out.println("按照任务的插入顺序输出：" + pt.summary());
+				}
+				System.out.println("sequence的数量：" + sequence.size());
 			}
-			System.out.println("sequence的数量：" + sequence.size());
 			System.out.println(this + " 执行了shutdownNow()方法");
 			es.shutdownNow();
 		}
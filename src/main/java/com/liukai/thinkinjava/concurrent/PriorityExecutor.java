@@ -0,0 +1,366 @@
+package com.liukai.thinkinjava.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 多消费者的优先级执行器
+ * PriorityBlockingQueue是一个加全局锁的二叉堆，放入和取出都是O(log n)，而且只有一个消费者线程。
+ * 任务的优先级只有0到MAX_PRIORITY这几个小整数，所以每个优先级用一个无锁队列，
+ * 放入时直接进入对应的队列，取出时从最高的优先级开始查看各个队列的队首，都是O(1)操作，多个工作线程同时取任务。
+ * 空闲的工作线程阻塞在一个计数信号量上，许可数等于排队的任务数。
+ * 防止饥饿：开启老化后，任务每等待agingNanos就把优先级提高一级，低优先级的任务等待足够久后会排到高优先级的任务前面。
+ * submit()把任务包装成FutureTask，包装时记下PrioritizedTask的优先级，所以通过submit()提交的任务也按它的优先级执行。
+ */
+class PriorityExecutor extends AbstractExecutorService {
+
+    static final int MAX_PRIORITY = 10;
+    static final int NORM_PRIORITY = 5;
+
+    private final ConcurrentLinkedQueue<Entry>[] levels;
+    private final Semaphore available = new Semaphore(0);//排队的任务数
+    private final AtomicInteger pending = new AtomicInteger();//已经接受但还没有被取走的任务，包括正在入队的
+    private final long agingNanos;
+    private final Thread[] workers;
+    private final CountDownLatch terminated;
+    private final LongAdder[] executed;//每个优先级执行的任务数量
+    private final LongAdder aged = new LongAdder();//因为老化而先于更高优先级执行的任务数量
+    private volatile boolean shutdown;
+    private volatile boolean stopped;
+
+    /**
+     * @param workers    工作线程数量
+     * @param aging      任务每等待这么长时间优先级提高一级，0表示不老化，严格按优先级执行
+     * @param unit
+     */
+    PriorityExecutor(int workers, long aging, TimeUnit unit) {
+        this(workers, aging, unit, Executors.defaultThreadFactory());
+    }
+
+    PriorityExecutor(int workers, long aging, TimeUnit unit, ThreadFactory threadFactory) {
+        if (workers <= 0 || aging < 0) {
+            throw new IllegalArgumentException("workers: " + workers + ", aging: " + aging);
+        }
+        @SuppressWarnings("unchecked")
+        ConcurrentLinkedQueue<Entry>[] levels = (ConcurrentLinkedQueue<Entry>[]) new ConcurrentLinkedQueue<?>[MAX_PRIORITY + 1];
+        this.levels = levels;
+        this.executed = new LongAdder[MAX_PRIORITY + 1];
+        for (int i = 0; i <= MAX_PRIORITY; i++) {
+            levels[i] = new ConcurrentLinkedQueue<>();
+            executed[i] = new LongAdder();
+        }
+        this.agingNanos = unit.toNanos(aging);
+        this.workers = new Thread[workers];
+        this.terminated = new CountDownLatch(workers);
+        for (int i = 0; i < workers; i++) {
+            this.workers[i] = threadFactory.newThread(new Worker());
+        }
+        for (Thread worker : this.workers) {
+            worker.start();
+        }
+    }
+
+    /**
+     * 按任务自己的优先级执行，PrioritizedTask和submit()包装的PrioritizedTask使用它的优先级，其他任务使用NORM_PRIORITY
+     *
+     * @param task
+     */
+    @Override
+    public void execute(Runnable task) {
+        execute(priorityOf(task), task);
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+        return new PrioritizedFuture<>(priorityOf(runnable), runnable, value);
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+        return new PrioritizedFuture<>(NORM_PRIORITY, callable);
+    }
+
+    private static int priorityOf(Runnable task) {
+        if (task instanceof PrioritizedTask) {
+            return ((PrioritizedTask) task).getPriority();
+        }
+        if (task instanceof PrioritizedFuture) {
+            return ((PrioritizedFuture<?>) task).priority;
+        }
+        return NORM_PRIORITY;
+    }
+
+    /**
+     * 以指定的优先级执行任务，超出范围的优先级按最低或者最高处理
+     *
+     * @param priority 0到MAX_PRIORITY，越大越优先
+     * @param task
+     */
+    void execute(int priority, Runnable task) {
+        if (task == null) {
+            throw new NullPointerException();
+        }
+        int level = Math.max(0, Math.min(MAX_PRIORITY, priority));
+        //先计数再检查关闭标记，工作线程看到pending为0时不会再有任务入队
+        pending.incrementAndGet();
+        if (shutdown) {
+            pending.decrementAndGet();
+            available.release();//唤醒可能在等待入队完成的工作线程
+            throw new RejectedExecutionException("shutdown");
+        }
+        levels[level].offer(new Entry(task, level, agingNanos > 0 ? System.nanoTime() : 0));
+        available.release();
+    }
+
+    /**
+     * 取出最高的非空队列的队首
+     *
+     * @return 所有队列都为空时返回null
+     */
+    private Entry poll() {
+        for (int level = MAX_PRIORITY; level >= 0; level--) {
+            Entry entry = levels[level].poll();
+            if (entry != null) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 工作线程：每个许可对应一个排队的任务
+     */
+    private class Worker implements Runnable {
+
+        private long nextAgingScan;//下一次按有效优先级选择任务的时间
+
+        /**
+         * 取出下一个任务
+         * 按有效优先级选择需要查看所有队列的队首，所以每个工作线程每隔agingNanos / 4才这样选择一次，
+         * 其余时间按严格的优先级选择，老化的任务最多晚agingNanos / 4被选中
+         *
+         * @return 所有队列都为空时返回null
+         */
+        private Entry next() {
+            if (agingNanos == 0) {
+                return poll();
+            }
+            long now = System.nanoTime();
+            if (now - nextAgingScan < 0) {
+                return poll();
+            }
+            return pollAged(now);
+        }
+
+        /**
+         * 取出有效优先级最高的队首
+         *
+         * @param now
+         * @return 所有队列都为空时返回null
+         */
+        private Entry pollAged(long now) {
+            while (true) {
+                int best = -1;
+                long bestPriority = -1;
+                int highest = -1;//最高的非空队列
+                for (int level = MAX_PRIORITY; level >= 0; level--) {
+                    Entry head = levels[level].peek();
+                    if (head == null) {
+                        continue;
+                    }
+                    if (highest < 0) {
+                        highest = level;
+                    }
+                    //等待的时间越长有效优先级越高，相同时优先级高的队列优先
+                    long priority = level + (now - head.enqueued) / agingNanos;
+                    if (priority > bestPriority) {
+                        best = level;
+                        bestPriority = priority;
+                    }
+                }
+                if (best < 0) {
+                    return null;
+                }
+                Entry entry = levels[best].poll();
+                if (entry != null) {
+                    //选中了老化的任务时可能还有其他老化的任务，下一次继续按有效优先级选择
+                    if (best < highest) {
+                        aged.increment();
+                        nextAgingScan = now;
+                    } else {
+                        nextAgingScan = now + agingNanos / 4;
+                    }
+                    return entry;
+                }
+                //队首被其他工作线程取走，重新选择
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!stopped) {
+                    try {
+                        available.acquire();
+                    } catch (InterruptedException e) {
+                        if (stopped) {
+                            break;
+                        }
+                        continue;
+                    }
+                    Entry entry = next();
+                    if (entry == null) {
+                        //只有关闭后才会拿到没有对应任务的许可
+                        available.release();
+                        if (pending.get() == 0) {
+                            break;
+                        }
+                        Thread.yield();
+                        continue;
+                    }
+                    pending.decrementAndGet();
+                    executed[entry.level].increment();
+                    try {
+                        entry.task.run();
+                    } catch (Throwable e) {
+                        //包括Error在内的异常都只结束这个任务，工作线程继续执行，线程池不会缩小
+                        Thread t = Thread.currentThread();
+                        t.getUncaughtExceptionHandler().uncaughtException(t, e);
+                    }
+                }
+            } finally {
+                terminated.countDown();
+            }
+        }
+    }
+
+    /**
+     * 不再接受新任务，已经排队的任务执行完后工作线程结束
+     */
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        //多出的一个许可在工作线程之间传递，没有任务时每个工作线程拿到它后放回并结束
+        available.release();
+    }
+
+    /**
+     * 中断工作线程，返回还没有执行的任务
+     *
+     * @return
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        shutdown = true;
+        stopped = true;
+        List<Runnable> remaining = new ArrayList<>();
+        for (ConcurrentLinkedQueue<Entry> level : levels) {
+            Entry entry;
+            while ((entry = level.poll()) != null) {
+                pending.decrementAndGet();
+                remaining.add(entry.task);
+            }
+        }
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        return remaining;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return terminated.getCount() == 0;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return terminated.await(timeout, unit);
+    }
+
+    /**
+     * 排队的任务数量
+     *
+     * @return
+     */
+    int queued() {
+        int queued = 0;
+        for (ConcurrentLinkedQueue<Entry> level : levels) {
+            queued += level.size();
+        }
+        return queued;
+    }
+
+    /**
+     * 指定优先级已经执行的任务数量
+     *
+     * @param priority
+     * @return
+     */
+    long executed(int priority) {
+        return executed[priority].sum();
+    }
+
+    /**
+     * 因为老化而先于更高优先级的任务执行的任务数量
+     *
+     * @return
+     */
+    long aged() {
+        return aged.sum();
+    }
+
+    /**
+     * submit()创建的FutureTask，记住原来任务的优先级
+     *
+     * @param <T>
+     */
+    private static class PrioritizedFuture<T> extends FutureTask<T> {
+
+        final int priority;
+
+        PrioritizedFuture(int priority, Runnable runnable, T value) {
+            super(runnable, value);
+            this.priority = priority;
+        }
+
+        PrioritizedFuture(int priority, Callable<T> callable) {
+            super(callable);
+            this.priority = priority;
+        }
+    }
+
+    /**
+     * 队列中的任务
+     */
+    private static class Entry {
+
+        final Runnable task;
+        final int level;
+        final long enqueued;//入队时间，不老化时为0
+
+        Entry(Runnable task, int level, long enqueued) {
+            this.task = task;
+            this.level = level;
+            this.enqueued = enqueued;
+        }
+    }
+
+}
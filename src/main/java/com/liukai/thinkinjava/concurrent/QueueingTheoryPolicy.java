@@ -0,0 +1,102 @@
+package com.liukai.thinkinjava.concurrent;
+
+/**
+ * 基于M/M/c排队模型的出纳员调整策略
+ * 用指数加权移动平均平滑每个周期测得的到达率λ和单个出纳员的服务率μ，
+ * 选择满足下面两个条件的最少出纳员数量c：
+ * 1. 稳态下排队时间的分位数不超过目标值，M/M/c中 P(W > t) = C(c, λ/μ) * e^-(cμ-λ)t，C是Erlang C公式；
+ * 2. 当前积压的顾客能在目标时间内消化完，即 排队人数 / (cμ - λ) 不超过目标值。
+ * 一次可以添加或者移除多个出纳员。还没有测到服务率时使用默认规则。
+ */
+class QueueingTheoryPolicy implements TellerScalingPolicy {
+
+    private final double targetWait;//目标排队时间，毫秒
+    private final double quantile;//目标分位数，例如0.99
+    private final double alpha;//平滑系数，越大越重视最近的观测
+    private final int maxTellers;
+
+    private double arrivalRate = Double.NaN;//平滑后的到达率，每毫秒
+    private double serviceRate = Double.NaN;//平滑后的单个出纳员服务率，每毫秒
+
+    QueueingTheoryPolicy() {
+        this(1000, 0.99, 0.3, 64);
+    }
+
+    /**
+     * @param targetWait 目标排队时间，毫秒
+     * @param quantile   排队时间不超过目标值的概率
+     * @param alpha      平滑系数，(0, 1]
+     * @param maxTellers 出纳员数量的上限
+     */
+    QueueingTheoryPolicy(double targetWait, double quantile, double alpha, int maxTellers) {
+        this.targetWait = targetWait;
+        this.quantile = quantile;
+        this.alpha = alpha;
+        this.maxTellers = maxTellers;
+    }
+
+    @Override
+    public int targetTellers(Observation o) {
+        if (o.period > 0) {
+            arrivalRate = smooth(arrivalRate, o.arrivalRate());
+        }
+        double rate = o.serviceRate();
+        if (!Double.isNaN(rate)) {
+            serviceRate = smooth(serviceRate, rate);
+        }
+        if (Double.isNaN(serviceRate)) {
+            return DEFAULT.targetTellers(o);
+        }
+
+        double load = arrivalRate / serviceRate;//以出纳员为单位的负载，即λ/μ
+        for (int c = Math.max(1, (int) Math.floor(load) + 1); c < maxTellers; c++) {
+            double drainRate = c * serviceRate - arrivalRate;
+            if (o.lineSize / drainRate <= targetWait && waitQuantile(c, load, drainRate, quantile) <= targetWait) {
+                return c;
+            }
+        }
+        return maxTellers;
+    }
+
+    private double smooth(double average, double sample) {
+        return Double.isNaN(average) ? sample : average + alpha * (sample - average);
+    }
+
+    /**
+     * M/M/c中排队时间的分位数
+     *
+     * @param c         出纳员数量
+     * @param load      λ/μ，必须小于c
+     * @param drainRate cμ - λ
+     * @param quantile
+     * @return
+     */
+    static double waitQuantile(int c, double load, double drainRate, double quantile) {
+        double waitProbability = erlangC(c, load);
+        if (waitProbability <= 1 - quantile) {
+            return 0;
+        }
+        return Math.log(waitProbability / (1 - quantile)) / drainRate;
+    }
+
+    /**
+     * Erlang C公式：M/M/c中到达的顾客需要排队的概率，先用递推公式计算Erlang B，再换算成Erlang C
+     *
+     * @param c    出纳员数量
+     * @param load λ/μ，必须小于c
+     * @return
+     */
+    static double erlangC(int c, double load) {
+        double b = 1;
+        for (int k = 1; k <= c; k++) {
+            b = load * b / (k + load * b);
+        }
+        return c * b / (c - load * (1 - b));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("M/M/c(p%.0f<=%.0fms)", quantile * 100, targetWait);
+    }
+
+}
@@ -0,0 +1,68 @@
+package com.liukai.thinkinjava.concurrent;
+
+import java.util.SplittableRandom;
+
+/**
+ * 可复现的独立随机数流
+ * 多个线程共享一个java.util.Random时，每次生成随机数都要CAS同一个种子，任务越多竞争越激烈。
+ * 这里每个任务从主种子和自己的流编号推导出一个独立的SplittableRandom，任务之间不共享任何状态，
+ * 而且只要主种子和流编号相同，每个任务得到的随机数序列就相同，与线程调度无关。
+ * 主种子默认为47，可以通过系统属性 -Dthinkinjava.seed 指定。
+ * <p>
+ * SplittableRandom不是线程安全的，每个流只能由一个任务使用（同一时刻只在一个线程中运行）。
+ */
+final class RandomStreams {
+
+    static final String SEED_PROPERTY = "thinkinjava.seed";
+    private static final long DEFAULT_SEED = 47;
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private RandomStreams() {
+    }
+
+    /**
+     * 主种子
+     *
+     * @return
+     */
+    static long masterSeed() {
+        return Long.getLong(SEED_PROPERTY, DEFAULT_SEED);
+    }
+
+    /**
+     * 由主种子推导出的第stream个流
+     *
+     * @param owner  使用随机数的类，不同的类使用不同的流
+     * @param stream 流编号，例如任务的id
+     * @return
+     */
+    static SplittableRandom stream(Class<?> owner, long stream) {
+        return stream(seed(masterSeed(), owner.getName().hashCode()), stream);
+    }
+
+    /**
+     * 由指定的种子推导出的第stream个流
+     *
+     * @param seed
+     * @param stream
+     * @return
+     */
+    static SplittableRandom stream(long seed, long stream) {
+        return new SplittableRandom(seed(seed, stream));
+    }
+
+    /**
+     * 由种子和流编号推导出流的种子（SplitMix64的混合函数），相邻的编号得到互不相关的种子
+     *
+     * @param seed
+     * @param stream
+     * @return
+     */
+    static long seed(long seed, long stream) {
+        long z = seed + (stream + 1) * GOLDEN_GAMMA;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+}
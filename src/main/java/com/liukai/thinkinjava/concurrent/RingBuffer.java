@@ -0,0 +1,448 @@
+package com.liukai.thinkinjava.concurrent;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * 单生产者多消费者的环形缓冲区（Disruptor的做法）
+ * Exchanger要求生产者和消费者同时到达，消费者慢的时候生产者只能等待。
+ * 这里槽位数组在创建时分配，生产者按序号依次写入槽位，写入后发布游标（cursor），
+ * 每个消费者有自己的序号，读到游标之前的所有槽位，处理完后发布自己的序号，
+ * 生产者只在追上最慢的消费者（缓冲区满）时等待。每个消费者都会收到所有的元素。
+ * 序号只由一个线程写入，不需要CAS，等待时按等待策略自旋、让出CPU或者休眠。
+ * 游标、消费者的序号和生产者私有的计数器都独占缓存行，槽位数组的两端也有填充。
+ *
+ * @param <T>
+ */
+class RingBuffer<T> {
+
+    private static final int BUFFER_PAD = 16;//槽位数组两端的填充，至少64字节
+
+    /**
+     * 生产者和消费者没有可用的槽位时的等待策略
+     */
+    enum WaitStrategy {
+        /**
+         * 一直自旋，延迟最低，但一直占用一个CPU，线程多于CPU时很慢
+         */
+        BUSY_SPIN {
+            @Override
+            int idle(int counter) {
+                Thread.onSpinWait();
+                return counter;
+            }
+        },
+        /**
+         * 自旋一段时间后让出CPU
+         */
+        YIELD {
+            @Override
+            int idle(int counter) {
+                if (counter < SPIN_TRIES) {
+                    Thread.onSpinWait();
+                    return counter + 1;
+                }
+                Thread.yield();
+                return counter;
+            }
+        },
+        /**
+         * 自旋、让出CPU一段时间后休眠，空闲时几乎不占用CPU，延迟最高
+         */
+        PARK {
+            @Override
+            int idle(int counter) {
+                if (counter < SPIN_TRIES) {
+                    Thread.onSpinWait();
+                } else if (counter < SPIN_TRIES + YIELD_TRIES) {
+                    Thread.yield();
+                } else {
+                    LockSupport.parkNanos(PARK_NANOS);
+                    return counter;
+                }
+                return counter + 1;
+            }
+        };
+
+        private static final int SPIN_TRIES = 100;
+        private static final int YIELD_TRIES = 100;
+        private static final long PARK_NANOS = 1000;
+
+        /**
+         * 等待一次
+         *
+         * @param counter 本次等待已经进行的次数，从0开始
+         * @return 下一次的计数
+         */
+        abstract int idle(int counter);
+    }
+
+    private final Object[] entries;
+    private final int mask;
+    private final WaitStrategy waitStrategy;
+    private final Sequence cursor = new Sequence();//已经发布的最大序号
+    private final Sequence claimed = new Sequence();//生产者已经申请的最大序号，只由生产者读写
+    private final Sequence gateCache = new Sequence();//上一次读到的最慢消费者的序号，只由生产者读写
+    private volatile Reader<T>[] readers;
+
+    /**
+     * @param capacity     容量，必须是2的幂
+     * @param waitStrategy
+     */
+    RingBuffer(int capacity, WaitStrategy waitStrategy) {
+        this(capacity, null, waitStrategy);
+    }
+
+    /**
+     * @param capacity     容量，必须是2的幂
+     * @param factory      预先创建每个槽位的对象，生产者通过get(sequence)修改后发布，不再分配对象；为null时槽位为空
+     * @param waitStrategy
+     */
+    RingBuffer(int capacity, Supplier<T> factory, WaitStrategy waitStrategy) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity: " + capacity);
+        }
+        this.entries = new Object[capacity + 2 * BUFFER_PAD];
+        this.mask = capacity - 1;
+        this.waitStrategy = waitStrategy;
+        this.readers = emptyReaders();
+        if (factory != null) {
+            for (int i = 0; i < capacity; i++) {
+                entries[BUFFER_PAD + i] = factory.get();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int items = args.length > 0 ? Integer.parseInt(args[0]) : 20000000;
+        for (WaitStrategy waitStrategy : new WaitStrategy[]{WaitStrategy.YIELD, WaitStrategy.PARK}) {
+            for (int readers : new int[]{1, 2, 4}) {
+                RingBuffer<Object> ring = new RingBuffer<>(1024, waitStrategy);
+                long elapsed = run(ring, readers, items, new Object());
+                System.out.printf("%s %d个消费者：每秒%.0f次传递%n", waitStrategy, readers, items * 1e9 / elapsed);
+            }
+        }
+    }
+
+    /**
+     * 一个生产者通过环形缓冲区向指定数量的消费者传递同一个元素
+     *
+     * @param ring
+     * @param readers
+     * @param items
+     * @param item
+     * @return 耗时，纳秒
+     * @throws InterruptedException
+     */
+    static <T> long run(final RingBuffer<T> ring, int readers, final int items, final T item)
+            throws InterruptedException {
+        ExecutorService es = DemoExecutors.newExecutor();
+        final Consumer<T> sink = new Consumer<T>() {
+            @Override
+            public void accept(T t) {
+                //只传递，不处理
+            }
+        };
+        long start = System.nanoTime();
+        //消费者在生产者开始之前创建，不会错过元素
+        for (int i = 0; i < readers; i++) {
+            final Reader<T> reader = ring.newReader();
+            es.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (long n = 0; n < items; ) {
+                            n += reader.drainTo(sink);
+                        }
+                    } catch (InterruptedException e) {
+                        //结束
+                    } finally {
+                        reader.close();
+                    }
+                }
+            });
+        }
+        es.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int n = 0; n < items; n++) {
+                        ring.put(item);
+                    }
+                } catch (InterruptedException e) {
+                    //结束
+                }
+            }
+        });
+        es.shutdown();
+        es.awaitTermination(1, TimeUnit.HOURS);
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * 生产者申请下一个槽位，缓冲区满（最慢的消费者还没有读取这个槽位上一轮的元素）时按等待策略等待
+     *
+     * @return 槽位的序号
+     * @throws InterruptedException
+     */
+    long next() throws InterruptedException {
+        long next = claimed.getPlain() + 1;
+        long wrapPoint = next - (mask + 1);
+        //只有在缓存的消费者序号不够用时才读取所有消费者的序号
+        if (wrapPoint > gateCache.getPlain()) {
+            long min;
+            int counter = 0;
+            while (wrapPoint > (min = minimumReaderSequence(next - 1))) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                counter = waitStrategy.idle(counter);
+            }
+            gateCache.setPlain(min);
+        }
+        claimed.setPlain(next);
+        return next;
+    }
+
+    /**
+     * 发布序号，之前写入槽位的内容对消费者可见
+     *
+     * @param sequence next()返回的序号
+     */
+    void publish(long sequence) {
+        cursor.setRelease(sequence);
+    }
+
+    /**
+     * 生产者写入一个元素并发布
+     *
+     * @param item
+     * @throws InterruptedException
+     */
+    void put(T item) throws InterruptedException {
+        long sequence = next();
+        entries[index(sequence)] = item;
+        publish(sequence);
+    }
+
+    /**
+     * 序号对应的槽位中的对象，生产者在发布之前可以修改预先创建的对象
+     *
+     * @param sequence
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    T get(long sequence) {
+        return (T) entries[index(sequence)];
+    }
+
+    private int index(long sequence) {
+        return BUFFER_PAD + (int) (sequence & mask);
+    }
+
+    private long minimumReaderSequence(long defaultValue) {
+        long min = defaultValue;
+        for (Reader<T> reader : readers) {
+            min = Math.min(min, reader.sequence.get());
+        }
+        return min;
+    }
+
+    /**
+     * 创建一个消费者，从下一个发布的元素开始读取，生产者不会覆盖消费者还没有读取的槽位
+     *
+     * @return
+     */
+    synchronized Reader<T> newReader() {
+        Reader<T> reader = new Reader<>(this, cursor.get());
+        Reader<T>[] current = readers;
+        Reader<T>[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = reader;
+        readers = updated;
+        return reader;
+    }
+
+    private synchronized void remove(Reader<T> reader) {
+        Reader<T>[] current = readers;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == reader) {
+                Reader<T>[] updated = Arrays.copyOf(current, current.length - 1);
+                System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                readers = updated;
+                return;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Reader<T>[] emptyReaders() {
+        return (Reader<T>[]) new Reader<?>[0];
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * 已经发布的最大序号
+     *
+     * @return
+     */
+    long cursor() {
+        return cursor.get();
+    }
+
+    /**
+     * 消费者，只能由一个任务使用
+     *
+     * @param <T>
+     */
+    static class Reader<T> {
+
+        private final RingBuffer<T> ring;
+        private final Sequence sequence;//已经处理完的最大序号
+
+        private Reader(RingBuffer<T> ring, long sequence) {
+            this.ring = ring;
+            this.sequence = new Sequence(sequence);
+        }
+
+        /**
+         * 等待至少一个元素发布，然后把所有已经发布的元素按顺序交给sink，处理完后才释放这些槽位
+         *
+         * @param sink
+         * @return 处理的元素数量
+         * @throws InterruptedException
+         */
+        int drainTo(Consumer<? super T> sink) throws InterruptedException {
+            long next = sequence.getPlain() + 1;
+            long available = waitFor(next);
+            for (long s = next; s <= available; s++) {
+                sink.accept(ring.get(s));
+            }
+            sequence.setRelease(available);
+            return (int) (available - next + 1);
+        }
+
+        /**
+         * 取出下一个元素
+         *
+         * @return
+         * @throws InterruptedException
+         */
+        T take() throws InterruptedException {
+            long next = sequence.getPlain() + 1;
+            waitFor(next);
+            T item = ring.get(next);
+            sequence.setRelease(next);
+            return item;
+        }
+
+        /**
+         * 序号屏障：等待生产者发布到指定的序号
+         *
+         * @param sequence
+         * @return 已经发布的最大序号
+         * @throws InterruptedException
+         */
+        private long waitFor(long sequence) throws InterruptedException {
+            long available;
+            int counter = 0;
+            while ((available = ring.cursor.get()) < sequence) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                counter = ring.waitStrategy.idle(counter);
+            }
+            return available;
+        }
+
+        /**
+         * 已经处理完的最大序号
+         *
+         * @return
+         */
+        long sequence() {
+            return sequence.get();
+        }
+
+        /**
+         * 不再读取，生产者不再等待这个消费者
+         */
+        void close() {
+            ring.remove(this);
+        }
+    }
+
+}
+
+/**
+ * 通过环形缓冲区发布对象的生产者任务，与ExchangeProducer的角色相同
+ *
+ * @param <T>
+ */
+class RingBufferProducer<T> implements Runnable {
+
+    private RingBuffer<T> ring;
+    private Class<T> clazz;
+
+    RingBufferProducer(Class<T> clazz, RingBuffer<T> ring) {
+        this.ring = ring;
+        this.clazz = clazz;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!Thread.interrupted()) {
+                try {
+                    ring.put(clazz.getDeclaredConstructor().newInstance());
+                } catch (ReflectiveOperationException e) {
+                    System.out.println("类创建失败：" + e.getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            System.out.println(Thread.currentThread().getName() + "：当前线程被中断");
+        }
+    }
+}
+
+/**
+ * 从环形缓冲区批量读取对象的消费者任务，与ExchangerConsumer的角色相同，多个消费者都会收到所有的对象
+ *
+ * @param <T>
+ */
+class RingBufferConsumer<T> implements Runnable {
+
+    private RingBuffer.Reader<T> reader;
+    private volatile T value;
+
+    RingBufferConsumer(RingBuffer.Reader<T> reader) {
+        this.reader = reader;
+    }
+
+    @Override
+    public void run() {
+        Consumer<T> sink = new Consumer<T>() {
+            @Override
+            public void accept(T x) {
+                value = x;
+            }
+        };
+        try {
+            while (!Thread.interrupted()) {
+                int n = reader.drainTo(sink);
+                System.out.println("消费者线程：读取" + n + "个对象，最后一个为：" + value);
+            }
+        } catch (InterruptedException e) {
+            System.out.println(Thread.currentThread().getName() + "：当前线程被中断");
+        } finally {
+            reader.close();
+        }
+        System.out.println("最后一个对象为：" + value);
+    }
+}
@@ -0,0 +1,276 @@
+package com.liukai.thinkinjava.concurrent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 可扩展的赛马
+ * HorseRace中每匹马一个线程，栅栏动作在所有马都阻塞时输出每匹马的跑道，跑道字符串的长度与步数成正比。
+ * 这里所有马的步数保存在一个int数组中，马被分成若干组，每组由一个任务负责，每个回合推进组内所有的马。
+ * 任务之间用分层的Phaser同步：每个叶子Phaser最多TIER个参与者，叶子作为一个参与者注册到上一层，
+ * 每个Phaser上只有少量线程竞争，而不是所有任务竞争一个栅栏。
+ * 栅栏动作（根Phaser的onAdvance）只检查是否有马到达终点，不分配对象也不输出；
+ * 到达终点的马由各个任务在推进时记录，输出排行榜由单独的线程定期读取步数数组完成。
+ */
+public class ScalableHorseRace {
+
+    private static final int TIER = 16;//每个Phaser最多的参与者
+    private static final int NO_WINNER = Integer.MAX_VALUE;
+
+    private final int[] strides;//每匹马的步数
+    private final int tasks;
+    private final int finishLine;
+    private final long seed;
+    private final AtomicInteger winner = new AtomicInteger(NO_WINNER);//本回合到达终点的编号最小的马
+    private volatile long rounds;//已经完成的回合数
+    private volatile long maxRounds;
+
+    /**
+     * @param horses     马的数量
+     * @param tasks      任务数量，每个任务负责horses / tasks匹马
+     * @param finishLine 终点
+     * @param seed       随机数种子，相同的种子得到相同的比赛结果，与线程调度无关
+     */
+    public ScalableHorseRace(int horses, int tasks, int finishLine, long seed) {
+        if (tasks <= 0 || tasks > horses) {
+            throw new IllegalArgumentException("horses: " + horses + ", tasks: " + tasks);
+        }
+        this.strides = new int[horses];
+        this.tasks = tasks;
+        this.finishLine = finishLine;
+        this.seed = seed;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int horses = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int tasks = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int finishLine = args.length > 2 ? Integer.parseInt(args[2]) : 1000000;
+
+        final ScalableHorseRace race = new ScalableHorseRace(horses, tasks, finishLine, 47);
+        ExecutorService es = DemoExecutors.newExecutor();
+        Thread reporter = new Thread(race.new Reporter(1000, 3));
+        reporter.setDaemon(true);
+        reporter.start();
+        long start = System.nanoTime();
+        Result result = race.run(es, Long.MAX_VALUE);
+        long elapsed = System.nanoTime() - start;
+        reporter.interrupt();
+        es.shutdown();
+        System.out.println(result);
+        System.out.printf("%d匹马，%d个任务，%d个回合，耗时%dms，每秒%.0f个回合，每秒推进%.0f匹马%n", horses, tasks,
+                result.rounds, elapsed / 1000000, result.rounds * 1e9 / elapsed,
+                result.rounds * (double) horses * 1e9 / elapsed);
+    }
+
+    /**
+     * 运行一场比赛，直到有马到达终点或者达到最大回合数
+     *
+     * @param es        运行任务的线程池，至少能同时运行tasks个任务
+     * @param maxRounds 最大回合数
+     * @return
+     * @throws Exception
+     */
+    public Result run(ExecutorService es, long maxRounds) throws Exception {
+        Arrays.fill(strides, 0);
+        winner.set(NO_WINNER);
+        rounds = 0;
+        this.maxRounds = maxRounds;
+
+        final Phaser root = new Phaser() {
+            /**
+             * 栅栏动作：只检查是否有马到达终点，返回true时所有Phaser终止
+             */
+            @Override
+            protected boolean onAdvance(int phase, int registeredParties) {
+                long completed = rounds + 1;
+                rounds = completed;
+                return winner.get() != NO_WINNER || completed >= ScalableHorseRace.this.maxRounds
+                        || registeredParties == 0;
+            }
+        };
+        Phaser[] leaves = tier(root, (tasks + TIER - 1) / TIER);
+        //所有任务开始之前注册，避免先开始的任务独自推进回合
+        for (int i = 0; i < tasks; i++) {
+            leaves[i / TIER].register();
+        }
+        List<Future<?>> futures = new ArrayList<>(tasks);
+        int horses = strides.length;
+        for (int i = 0; i < tasks; i++) {
+            //前horses % tasks个任务多负责一匹马
+            int from = i * (horses / tasks) + Math.min(i, horses % tasks);
+            int to = from + horses / tasks + (i < horses % tasks ? 1 : 0);
+            futures.add(es.submit(new Team(leaves[i / TIER], from, to, RandomStreams.stream(seed, i))));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        return new Result(winner.get() == NO_WINNER ? -1 : winner.get(), rounds, strides.clone());
+    }
+
+    /**
+     * 创建一层Phaser，每个上层Phaser最多TIER个子Phaser，数量太多时在中间再加一层。
+     * 子Phaser创建时没有参与者，第一次有参与者注册时才作为一个参与者注册到上层。
+     * 第i个任务注册到最下层的第i / TIER个Phaser上
+     *
+     * @param root
+     * @param count 这一层Phaser的数量
+     * @return
+     */
+    private static Phaser[] tier(Phaser root, int count) {
+        Phaser[] phasers = new Phaser[count];
+        Phaser[] parents = count <= TIER ? null : tier(root, (count + TIER - 1) / TIER);
+        for (int i = 0; i < count; i++) {
+            phasers[i] = new Phaser(parents == null ? root : parents[i / TIER]);
+        }
+        return phasers;
+    }
+
+    public int horses() {
+        return strides.length;
+    }
+
+    public long rounds() {
+        return rounds;
+    }
+
+    /**
+     * 一组马
+     * 组内的马在一个任务中依次推进，每个任务有自己的随机数流，不共享Random
+     */
+    private class Team implements Runnable {
+
+        private final Phaser phaser;
+        private final int from;
+        private final int to;
+        private final SplittableRandom random;
+
+        Team(Phaser phaser, int from, int to, SplittableRandom random) {
+            this.phaser = phaser;
+            this.from = from;
+            this.to = to;
+            this.random = random;
+        }
+
+        @Override
+        public void run() {
+            int[] strides = ScalableHorseRace.this.strides;
+            while (!phaser.isTerminated()) {
+                for (int i = from; i < to; i++) {
+                    int s = strides[i] += random.nextInt(3);
+                    if (s >= finishLine) {
+                        won(i);
+                    }
+                }
+                if (phaser.arriveAndAwaitAdvance() < 0) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * 记录到达终点的马，同一回合有多匹马到达终点时编号最小的获胜
+         *
+         * @param horse
+         */
+        private void won(int horse) {
+            int current;
+            while (horse < (current = winner.get()) && !winner.compareAndSet(current, horse)) {
+                //重试
+            }
+        }
+    }
+
+    /**
+     * 定期输出排行榜的任务，在比赛线程之外读取步数数组，读到的是近似的快照
+     */
+    class Reporter implements Runnable {
+
+        private final long interval;//输出间隔，毫秒
+        private final int top;//输出前几名
+        private final int[] leaders;
+        private final StringBuilder line = new StringBuilder();
+
+        Reporter(long interval, int top) {
+            this.interval = interval;
+            this.top = top;
+            this.leaders = new int[top];
+        }
+
+        @Override
+        public void run() {
+            long lastRounds = 0;
+            try {
+                while (!Thread.interrupted()) {
+                    TimeUnit.MILLISECONDS.sleep(interval);
+                    long rounds = ScalableHorseRace.this.rounds;
+                    report(rounds, (rounds - lastRounds) * 1000 / interval);
+                    lastRounds = rounds;
+                }
+            } catch (InterruptedException e) {
+                //比赛结束
+            }
+        }
+
+        private void report(long rounds, long roundsPerSecond) {
+            int n = findLeaders();
+            line.setLength(0);
+            line.append("回合 ").append(rounds).append("，每秒 ").append(roundsPerSecond).append(" 个回合，领先：");
+            for (int i = 0; i < n; i++) {
+                line.append(" Horse ").append(leaders[i]).append('(').append(strides[leaders[i]]).append(')');
+            }
+            System.out.println(line);
+        }
+
+        /**
+         * 找出步数最多的top匹马，插入排序，不分配对象
+         *
+         * @return 找到的数量
+         */
+        private int findLeaders() {
+            int n = 0;
+            for (int horse = 0; horse < strides.length; horse++) {
+                int s = strides[horse];
+                if (n == top && s <= strides[leaders[n - 1]]) {
+                    continue;
+                }
+                int i = n < top ? n++ : n - 1;
+                while (i > 0 && strides[leaders[i - 1]] < s) {
+                    leaders[i] = leaders[i - 1];
+                    i--;
+                }
+                leaders[i] = horse;
+            }
+            return n;
+        }
+    }
+
+    /**
+     * 比赛结果
+     */
+    static class Result {
+
+        final int winner;//获胜的马，没有马到达终点时为-1
+        final long rounds;
+        final int[] strides;
+
+        Result(int winner, long rounds, int[] strides) {
+            this.winner = winner;
+            this.rounds = rounds;
+            this.strides = strides;
+        }
+
+        @Override
+        public String toString() {
+            return winner < 0 ? "没有马到达终点，回合：" + rounds
+                    : "Horse " + winner + " won! 步数：" + strides[winner] + "，回合：" + rounds;
+        }
+    }
+
+}
@@ -1,8 +1,10 @@
 package com.liukai.thinkinjava.concurrent;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.*;
+import java.util.function.Supplier;
 
 /**
  * 计数信号量允许n个任务同时访问这个资源。还可以将信号量看做是使用资源的“许可证”
@@ -15,9 +17,11 @@ public class SemaphoreDemo {
         //创建对象池
         int size = 20;
         final Pool<Fat> pool = new Pool<>(Fat.class, size);
+        PoolMetrics metrics = pool.enableMetrics();
+        metrics.enableLeakDetection(5, TimeUnit.SECONDS, PoolMetrics.PRINT_LEAKS);
 
         //创建签出任务并执行
-        ExecutorService es = Executors.newCachedThreadPool();
+        ExecutorService es = DemoExecutors.newExecutor();
         for (int i = 0; i < size; i++) {
             es.execute(new CheckOutTask<>(pool));
         }
@@ -45,17 +49,21 @@ public class SemaphoreDemo {
         });
         TimeUnit.SECONDS.sleep(2);
         blocked.cancel(true);//打断其调用
+
+        //限时签出，超时后返回null而不是一直阻塞
+        System.out.println("tryCheckOut() returned " + pool.tryCheckOut(100, TimeUnit.MILLISECONDS));
         System.out.println("checking in objects in " + list);
 
-        //从对象池中签入
-        for (Fat fat : list) {
-            pool.checkIn(fat);
-        }
+        //从对象池中批量签入
+        pool.checkInAll(list);
         //从对象池中再次签入
         for (Fat fat : list) {
             pool.checkIn(fat);
         }
 
+        System.out.println(metrics);
+        metrics.disableLeakDetection();
+
         //中断所有线程
         es.shutdownNow();
     }
@@ -72,9 +80,9 @@ class CheckOutTask<T> implements Runnable {
 
     private static int counter = 0;
     private final int id = counter++;
-    private Pool<T> pool;
+    private ObjectPool<T> pool;
 
-    public CheckOutTask(Pool<T> pool) {
+    public CheckOutTask(ObjectPool<T> pool) {
         this.pool = pool;
     }
 
@@ -129,25 +137,35 @@ class Fat {
  *
  * @param <T>
  */
-class Pool<T> {
+class Pool<T> implements ObjectPool<T> {
 
     private int size;
     private List<T> items = new ArrayList<>();
     private volatile boolean[] checkOut;
     private Semaphore available;//计数信号量
+    private volatile PoolMetrics metrics;//统计信息，默认不开启
+
+    public Pool(final Class<T> classObject, int size) {
+        this(new Supplier<T>() {
+            @Override
+            public T get() {
+                try {
+                    //确保T的具有公共的无参构造器
+                    return classObject.getDeclaredConstructor().newInstance();
+                } catch (ReflectiveOperationException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }, size);
+    }
 
-    public Pool(Class<T> classObject, int size) {
+    public Pool(Supplier<T> factory, int size) {
         this.available = new Semaphore(size, true);
         this.size = size;
         this.checkOut = new boolean[size];
         //初始化对象池可以被签出的对象
         for (int i = 0; i < size; i++) {
-            try {
-                //确保T的具有公共的无参构造器
-                items.add(i, classObject.newInstance());
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            }
+            items.add(i, factory.get());
         }
     }
 
@@ -157,9 +175,66 @@ class Pool<T> {
      * @return
      * @throws InterruptedException
      */
+    @Override
     public T checkOut() throws InterruptedException {
+        PoolMetrics m = metrics;
+        long start = m != null ? System.nanoTime() : 0;
         available.acquire();
-        return getItem();
+        return getItem(m, start);
+    }
+
+    /**
+     * 尝试签出对象，没有可用对象时返回null
+     *
+     * @return
+     */
+    @Override
+    public T tryCheckOut() {
+        PoolMetrics m = metrics;
+        long start = m != null ? System.nanoTime() : 0;
+        if (!available.tryAcquire()) {
+            return null;
+        }
+        return getItem(m, start);
+    }
+
+    /**
+     * 尝试签出对象，超时返回null
+     *
+     * @param timeout
+     * @param unit
+     * @return
+     * @throws InterruptedException
+     */
+    @Override
+    public T tryCheckOut(long timeout, TimeUnit unit) throws InterruptedException {
+        PoolMetrics m = metrics;
+        long start = m != null ? System.nanoTime() : 0;
+        if (!available.tryAcquire(timeout, unit)) {
+            if (m != null) {
+                m.timedOut();
+            }
+            return null;
+        }
+        return getItem(m, start);
+    }
+
+    /**
+     * 批量签出对象
+     *
+     * @param n 不能大于池的大小
+     * @return
+     * @throws InterruptedException
+     */
+    @Override
+    public List<T> checkOut(int n) throws InterruptedException {
+        if (n < 0 || n > size) {
+            throw new IllegalArgumentException("n: " + n + ", capacity: " + size);
+        }
+        PoolMetrics m = metrics;
+        long start = m != null ? System.nanoTime() : 0;
+        available.acquire(n);
+        return getItems(n, m, start);
     }
 
     /**
@@ -167,28 +242,100 @@ class Pool<T> {
      *
      * @param x
      */
+    @Override
     public void checkIn(T x) {
         if (realseItem(x)) {
             available.release();
         }
     }
 
+    /**
+     * 批量签入对象
+     *
+     * @param returned
+     */
+    @Override
+    public void checkInAll(Collection<T> returned) {
+        int released = realseItems(returned);
+        if (released > 0) {
+            available.release(released);
+        }
+    }
+
+    /**
+     * 关闭对象池，停止泄漏检测
+     */
+    @Override
+    public void close() {
+        PoolMetrics m = metrics;
+        if (m != null) {
+            m.disableLeakDetection();
+        }
+    }
+
+    /**
+     * 开启统计
+     *
+     * @return
+     */
+    public synchronized PoolMetrics enableMetrics() {
+        if (metrics == null) {
+            metrics = new PoolMetrics(size);
+        }
+        return metrics;
+    }
+
+    /**
+     * 获取统计信息，没有开启统计时返回null
+     *
+     * @return
+     */
+    public PoolMetrics metrics() {
+        return metrics;
+    }
 
     /**
      * 获取对象
      *
+     * @param m     签出开始时的统计信息
+     * @param start 签出开始的时间
      * @return
      */
-    private synchronized T getItem() {
+    private synchronized T getItem(PoolMetrics m, long start) {
         for (int i = 0; i < size; i++) {
             if (!checkOut[i]) {
                 checkOut[i] = true;
+                if (m != null) {
+                    m.checkedOut(i, System.nanoTime() - start);
+                }
                 return items.get(i);
             }
         }
         return null;
     }
 
+    /**
+     * 一次性获取n个对象
+     *
+     * @param n
+     * @param m
+     * @param start
+     * @return
+     */
+    private synchronized List<T> getItems(int n, PoolMetrics m, long start) {
+        List<T> result = new ArrayList<>(n);
+        for (int i = 0; i < size && result.size() < n; i++) {
+            if (!checkOut[i]) {
+                checkOut[i] = true;
+                if (m != null) {
+                    m.checkedOut(i, System.nanoTime() - start);
+                }
+                result.add(items.get(i));
+            }
+        }
+        return result;
+    }
+
     /**
      * 释放对象
      *
@@ -202,9 +349,29 @@ class Pool<T> {
         }
         if (checkOut[index]) {
             checkOut[index] = false;
+            PoolMetrics m = metrics;
+            if (m != null) {
+                m.checkedIn(index);
+            }
             return true;
         }
         return false;
     }
 
+    /**
+     * 一次性释放多个对象
+     *
+     * @param returned
+     * @return 成功释放的对象数量
+     */
+    private synchronized int realseItems(Collection<T> returned) {
+        int released = 0;
+        for (T item : returned) {
+            if (realseItem(item)) {
+                released++;
+            }
+        }
+        return released;
+    }
+
 }
@@ -0,0 +1,66 @@
+package com.liukai.thinkinjava.concurrent;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 独占缓存行的序号
+ * 生产者和消费者各自频繁写入自己的序号，如果两个序号（或者序号与只读的字段）在同一个缓存行中，
+ * 一方的写入会让另一方的缓存行失效（伪共享）。这里把值放在一个long数组的中间，
+ * 前后各有至少64字节不使用的元素，值所在的缓存行只有这一个会被写入的变量。
+ */
+class Sequence {
+
+    static final long INITIAL = -1;
+    private static final int PAD = 8;//8个long，64字节
+    private static final int INDEX = PAD;
+
+    private final AtomicLongArray values = new AtomicLongArray(2 * PAD + 1);//值前后各PAD个元素
+
+    Sequence() {
+        this(INITIAL);
+    }
+
+    Sequence(long initial) {
+        values.set(INDEX, initial);
+    }
+
+    long get() {
+        return values.get(INDEX);
+    }
+
+    /**
+     * 只由拥有序号的线程读取时使用，不需要内存屏障
+     *
+     * @return
+     */
+    long getPlain() {
+        return values.getPlain(INDEX);
+    }
+
+    void setPlain(long value) {
+        values.setPlain(INDEX, value);
+    }
+
+    /**
+     * 发布序号：之前的写入（例如写入槽位的元素）对读到这个值的线程可见，比volatile写开销小
+     *
+     * @param value
+     */
+    void setRelease(long value) {
+        values.setRelease(INDEX, value);
+    }
+
+    void set(long value) {
+        values.set(INDEX, value);
+    }
+
+    boolean compareAndSet(long expect, long update) {
+        return values.compareAndSet(INDEX, expect, update);
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(get());
+    }
+
+}
@@ -0,0 +1,475 @@
+package com.liukai.thinkinjava.concurrent;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 分片的顾客队列
+ * 模拟银行的多个窗口（或者多个网点）：顾客队列被分成N个独立的有界队列，每个队列有自己的锁，
+ * 顾客到达时按放置策略选择一个队列排队，出纳员有自己的主队列，主队列为空时从相邻的队列窃取顾客。
+ * 生成顾客任务和出纳员的竞争被分散到各个队列上，吞吐量随队列数量增加。
+ * 每个队列的长度另外用原子计数器记录，选择队列时不需要获取队列的锁。
+ * 所有能取的队列都为空时，出纳员登记在主队列的等待条件上阻塞，顾客入队后唤醒能从这个队列取走顾客的出纳员，
+ * 也就是主队列距离不超过stealDistance的出纳员，空闲的出纳员不需要定时醒来重新扫描。
+ */
+class ShardedCustomerLine {
+
+    private static final int PAD = 16;//长度计数器之间的间隔，避免相邻队列的计数器在同一个缓存行中
+
+    /**
+     * 顾客选择队列的策略
+     */
+    enum Placement {
+        /**
+         * 轮流选择
+         */
+        ROUND_ROBIN,
+        /**
+         * 选择最短的队列，需要查看所有队列的长度
+         */
+        JOIN_SHORTEST_QUEUE,
+        /**
+         * 随机选择两个队列，排在较短的那个中，只查看两个队列就能得到接近最短队列的效果
+         */
+        POWER_OF_TWO_CHOICES
+    }
+
+    private final CustomerLine[] lines;
+    private final Placement placement;
+    private final int stealDistance;//出纳员向两边窃取的队列数量
+    private final AtomicIntegerArray sizes;//每个队列的长度
+    private final AtomicInteger next = new AtomicInteger();//轮流选择的下一个队列
+    private final LineStats[] stats;
+    private final Waiters[] waiters;//以每个队列为主队列的等待中的出纳员
+
+    /**
+     * @param lineCount     队列数量
+     * @param maxLineSize   每个队列的最大长度
+     * @param placement     顾客选择队列的策略
+     * @param stealDistance 出纳员向两边窃取的队列数量，0表示不窃取，大于等于lineCount / 2时可以从所有队列窃取
+     */
+    public ShardedCustomerLine(int lineCount, int maxLineSize, Placement placement, int stealDistance) {
+        if (lineCount <= 0) {
+            throw new IllegalArgumentException("lineCount: " + lineCount);
+        }
+        this.lines = new CustomerLine[lineCount];
+        this.stats = new LineStats[lineCount];
+        this.waiters = new Waiters[lineCount];
+        for (int i = 0; i < lineCount; i++) {
+            lines[i] = new CustomerLine(maxLineSize);
+            stats[i] = new LineStats();
+            waiters[i] = new Waiters();
+        }
+        this.placement = placement;
+        this.stealDistance = Math.min(stealDistance, lineCount / 2);
+        this.sizes = new AtomicIntegerArray(lineCount * PAD);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int tellers = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int customers = args.length > 1 ? Integer.parseInt(args[1]) : 2000000;
+        for (Placement placement : Placement.values()) {
+            for (int lineCount : new int[]{1, 2, 4, 8}) {
+                ShardedCustomerLine line = new ShardedCustomerLine(lineCount, 50, placement, 1);
+                long elapsed = run(line, tellers, tellers, customers);
+                System.out.printf("%s %d个队列：每秒%.0f个顾客%n    %s%n", placement, lineCount,
+                        customers * 1e9 / elapsed, line.stats());
+            }
+        }
+    }
+
+    /**
+     * 多个生成顾客任务和多个出纳员通过队列传递指定数量的顾客，服务时间为0
+     *
+     * @param line
+     * @param generators
+     * @param tellers
+     * @param customers
+     * @return 耗时，纳秒
+     * @throws InterruptedException
+     */
+    static long run(final ShardedCustomerLine line, int generators, int tellers, int customers)
+            throws InterruptedException {
+        ExecutorService es = DemoExecutors.newExecutor();
+        final AtomicInteger toGenerate = new AtomicInteger(customers);
+        final AtomicInteger toServe = new AtomicInteger(customers);
+        long start = System.nanoTime();
+        for (int i = 0; i < generators; i++) {
+            es.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (toGenerate.getAndDecrement() > 0) {
+                            //每次放入新的顾客，入队时间记录在顾客上，同一个顾客不能被多个线程同时放入
+                            line.put(new Customer(0));
+                        }
+                    } catch (InterruptedException e) {
+                        //结束
+                    }
+                }
+            });
+        }
+        for (int i = 0; i < tellers; i++) {
+            final int home = i % line.lineCount();
+            es.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (toServe.get() > 0) {
+                            if (line.poll(home, 10, TimeUnit.MILLISECONDS) != null) {
+                                toServe.decrementAndGet();
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        //结束
+                    }
+                }
+            });
+        }
+        es.shutdown();
+        es.awaitTermination(1, TimeUnit.HOURS);
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * 顾客按放置策略选择一个队列排队，队列已满时阻塞
+     *
+     * @param customer
+     * @return 顾客所在的队列
+     * @throws InterruptedException
+     */
+    public int put(Customer customer) throws InterruptedException {
+        int line = choose();
+        //先增加计数器，保证计数器不会小于0，阻塞在满队列上的顾客也计入队列长度
+        sizes.incrementAndGet(line * PAD);
+        try {
+            lines[line].put(customer);
+        } catch (InterruptedException e) {
+            sizes.decrementAndGet(line * PAD);
+            throw e;
+        }
+        stats[line].puts.increment();
+        customerArrived(line);
+        return line;
+    }
+
+    /**
+     * 顾客按放置策略选择一个队列排队，队列已满时最多等待指定的时间
+     *
+     * @param customer
+     * @param timeout
+     * @param unit
+     * @return 顾客所在的队列，超时返回-1
+     * @throws InterruptedException
+     */
+    public int offer(Customer customer, long timeout, TimeUnit unit) throws InterruptedException {
+        int line = choose();
+        sizes.incrementAndGet(line * PAD);
+        boolean added = false;
+        try {
+            added = lines[line].offer(customer, timeout, unit);
+        } finally {
+            if (!added) {
+                sizes.decrementAndGet(line * PAD);
+            }
+        }
+        if (!added) {
+            return -1;
+        }
+        stats[line].puts.increment();
+        customerArrived(line);
+        return line;
+    }
+
+    /**
+     * 出纳员从主队列取走一个顾客，主队列为空时从相邻的队列窃取，都为空时阻塞
+     *
+     * @param home 出纳员的主队列
+     * @return
+     * @throws InterruptedException
+     */
+    public Customer take(int home) throws InterruptedException {
+        Customer customer = tryTake(home);
+        while (customer == null) {
+            awaitCustomer(home, Long.MAX_VALUE);
+            customer = tryTake(home);
+        }
+        return customer;
+    }
+
+    /**
+     * 出纳员从主队列或者相邻的队列取走一个顾客，最多等待指定的时间
+     *
+     * @param home
+     * @param timeout
+     * @param unit
+     * @return 超时返回null
+     * @throws InterruptedException
+     */
+    public Customer poll(int home, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        Customer customer = tryTake(home);
+        while (customer == null) {
+            if (nanos <= 0) {
+                return null;
+            }
+            nanos = awaitCustomer(home, nanos);
+            customer = tryTake(home);
+        }
+        return customer;
+    }
+
+    /**
+     * 不阻塞地从主队列取走一个顾客，主队列为空时依次尝试距离为1、2...stealDistance的相邻队列
+     *
+     * @param home
+     * @return 所有队列都为空时返回null
+     */
+    public Customer tryTake(int home) {
+        Customer customer = lines[home].poll();
+        if (customer != null) {
+            taken(home, home);
+            return customer;
+        }
+        for (int d = 1; d <= stealDistance; d++) {
+            int left = (home - d + lines.length) % lines.length;
+            int right = (home + d) % lines.length;
+            //只有在计数器显示有顾客时才去获取相邻队列的锁
+            if (sizes.get(left * PAD) > 0 && (customer = lines[left].poll()) != null) {
+                taken(left, home);
+                return customer;
+            }
+            if (right != left && sizes.get(right * PAD) > 0 && (customer = lines[right].poll()) != null) {
+                taken(right, home);
+                return customer;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 在主队列的等待条件上等待顾客入队
+     * 先登记再查看计数器：入队的线程先增加计数器再读取登记的数量，
+     * 所以要么这里看到新的顾客不再等待，要么入队的线程看到登记并唤醒这个出纳员
+     *
+     * @param home
+     * @param nanos 最多等待的时间，Long.MAX_VALUE表示一直等待
+     * @return 剩余的等待时间
+     * @throws InterruptedException
+     */
+    private long awaitCustomer(int home, long nanos) throws InterruptedException {
+        Waiters w = waiters[home];
+        w.lock.lockInterruptibly();
+        try {
+            w.count++;
+            try {
+                if (reachableCustomers(home)) {
+                    return nanos;
+                }
+                if (nanos == Long.MAX_VALUE) {
+                    w.arrived.await();
+                    return nanos;
+                }
+                return w.arrived.awaitNanos(nanos);
+            } finally {
+                w.count--;
+            }
+        } finally {
+            w.lock.unlock();
+        }
+    }
+
+    /**
+     * 主队列为home的出纳员能取的队列中是否有顾客
+     *
+     * @param home
+     * @return
+     */
+    private boolean reachableCustomers(int home) {
+        for (int d = -stealDistance; d <= stealDistance; d++) {
+            if (sizes.get(Math.floorMod(home + d, lines.length) * PAD) > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 顾客进入队列后唤醒能从这个队列取走顾客的出纳员，没有出纳员等待时只读取登记的数量
+     *
+     * @param line
+     */
+    private void customerArrived(int line) {
+        int reach = Math.min(2 * stealDistance + 1, lines.length);
+        for (int i = 0; i < reach; i++) {
+            Waiters w = waiters[Math.floorMod(line - stealDistance + i, lines.length)];
+            if (w.count > 0) {
+                w.lock.lock();
+                try {
+                    w.arrived.signalAll();
+                } finally {
+                    w.lock.unlock();
+                }
+            }
+        }
+    }
+
+    private void taken(int line, int home) {
+        sizes.decrementAndGet(line * PAD);
+        stats[line].takes.increment();
+        if (line != home) {
+            stats[line].steals.increment();
+        }
+    }
+
+    /**
+     * 按放置策略选择一个队列
+     *
+     * @return
+     */
+    private int choose() {
+        int n = lines.length;
+        if (n == 1) {
+            return 0;
+        }
+        switch (placement) {
+            case JOIN_SHORTEST_QUEUE:
+                //从随机位置开始扫描，长度相同时不总是选择第一个队列
+                int start = ThreadLocalRandom.current().nextInt(n);
+                int best = start;
+                int bestSize = sizes.get(start * PAD);
+                for (int i = 1; i < n && bestSize > 0; i++) {
+                    int line = (start + i) % n;
+                    int size = sizes.get(line * PAD);
+                    if (size < bestSize) {
+                        best = line;
+                        bestSize = size;
+                    }
+                }
+                return best;
+            case POWER_OF_TWO_CHOICES:
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                int a = random.nextInt(n);
+                int b = random.nextInt(n - 1);
+                if (b >= a) {
+                    b++;
+                }
+                return sizes.get(b * PAD) < sizes.get(a * PAD) ? b : a;
+            default:
+                return (next.getAndIncrement() & Integer.MAX_VALUE) % n;
+        }
+    }
+
+    public int lineCount() {
+        return lines.length;
+    }
+
+    /**
+     * 指定队列的长度
+     *
+     * @param line
+     * @return
+     */
+    public int size(int line) {
+        return sizes.get(line * PAD);
+    }
+
+    /**
+     * 所有队列的总长度
+     *
+     * @return
+     */
+    public int size() {
+        int total = 0;
+        for (int i = 0; i < lines.length; i++) {
+            total += sizes.get(i * PAD);
+        }
+        return total;
+    }
+
+    /**
+     * 所有队列的汇总统计
+     *
+     * @return
+     */
+    public Stats stats() {
+        Stats result = new Stats(lines.length);
+        for (int i = 0; i < lines.length; i++) {
+            long puts = stats[i].puts.sum();
+            result.puts += puts;
+            result.takes += stats[i].takes.sum();
+            result.steals += stats[i].steals.sum();
+            result.size += sizes.get(i * PAD);
+            result.maxPuts = Math.max(result.maxPuts, puts);
+        }
+        return result;
+    }
+
+    /**
+     * 单个队列的计数器
+     */
+    private static class LineStats {
+        final LongAdder puts = new LongAdder();
+        final LongAdder takes = new LongAdder();
+        final LongAdder steals = new LongAdder();//被其他队列的出纳员取走的顾客
+    }
+
+    /**
+     * 以一个队列为主队列的等待中的出纳员，只在所有能取的队列都为空时才会被写入
+     */
+    private static class Waiters {
+
+        final Lock lock = new ReentrantLock();
+        final Condition arrived = lock.newCondition();
+        volatile int count;//登记的出纳员数量，只在持有lock时修改
+    }
+
+    /**
+     * 汇总统计的快照
+     */
+    static class Stats {
+
+        final int lines;
+        long puts;
+        long takes;
+        long steals;
+        int size;
+        long maxPuts;//排队顾客最多的队列
+
+        Stats(int lines) {
+            this.lines = lines;
+        }
+
+        /**
+         * 被窃取的顾客占取走的顾客的比例
+         *
+         * @return
+         */
+        double stealRatio() {
+            return takes == 0 ? 0 : (double) steals / takes;
+        }
+
+        /**
+         * 负载不均衡程度：排队顾客最多的队列与平均值的比值，1表示完全均衡
+         *
+         * @return
+         */
+        double imbalance() {
+            return puts == 0 ? 1 : maxPuts * (double) lines / puts;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("队列：%d，排队：%d，取走：%d，窃取比例：%.3f，不均衡度：%.3f，当前长度：%d",
+                    lines, puts, takes, stealRatio(), imbalance(), size);
+        }
+    }
+
+}
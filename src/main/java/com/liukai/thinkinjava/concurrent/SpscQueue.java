@@ -0,0 +1,101 @@
+package com.liukai.thinkinjava.concurrent;
+
+/**
+ * 有界的单生产者单消费者无锁队列
+ * 只有一个线程写入尾序号，一个线程写入头序号，不需要CAS：
+ * 生产者写入槽位后以release方式发布尾序号，消费者读到新的尾序号时一定能看到槽位中的元素；
+ * 消费者取出元素后以同样的方式发布头序号，生产者读到新的头序号后才会覆盖这个槽位。
+ * 生产者缓存上一次读到的头序号，消费者缓存上一次读到的尾序号，只有缓存的值不够用时才读取对方的序号，
+ * 队列既不满也不空时两个线程不会读写同一个缓存行。序号和缓存都独占缓存行，槽位数组的两端也有填充。
+ * 只能由一个线程调用offer()，一个线程调用poll()，size()可以由任何线程调用。
+ *
+ * @param <T>
+ */
+class SpscQueue<T> {
+
+    private static final int BUFFER_PAD = 16;//槽位数组两端的填充，至少64字节
+
+    private final Object[] buffer;
+    private final int mask;
+    private final Sequence head = new Sequence(0);//下一个读取的序号，只由消费者写入
+    private final Sequence tail = new Sequence(0);//下一个写入的序号，只由生产者写入
+    private final Sequence headCache = new Sequence(0);//生产者上一次读到的头序号
+    private final Sequence tailCache = new Sequence(0);//消费者上一次读到的尾序号
+
+    /**
+     * @param capacity 容量，必须是2的幂
+     */
+    SpscQueue(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity: " + capacity);
+        }
+        this.buffer = new Object[capacity + 2 * BUFFER_PAD];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * 放入元素，只由生产者调用
+     *
+     * @param item 不能为null
+     * @return 队列已满时返回false
+     */
+    boolean offer(T item) {
+        if (item == null) {
+            throw new NullPointerException();
+        }
+        long t = tail.getPlain();
+        if (t - headCache.getPlain() > mask) {
+            long h = head.get();
+            headCache.setPlain(h);
+            if (t - h > mask) {
+                return false;
+            }
+        }
+        buffer[BUFFER_PAD + (int) (t & mask)] = item;
+        tail.setRelease(t + 1);
+        return true;
+    }
+
+    /**
+     * 取出元素，只由消费者调用
+     *
+     * @return 队列为空时返回null
+     */
+    @SuppressWarnings("unchecked")
+    T poll() {
+        long h = head.getPlain();
+        if (h >= tailCache.getPlain()) {
+            long t = tail.get();
+            tailCache.setPlain(t);
+            if (h >= t) {
+                return null;
+            }
+        }
+        int index = BUFFER_PAD + (int) (h & mask);
+        T item = (T) buffer[index];
+        buffer[index] = null;//不再引用已经取出的元素
+        head.setRelease(h + 1);
+        return item;
+    }
+
+    /**
+     * 队列中元素的数量，由其他线程调用时只是一个近似值
+     *
+     * @return
+     */
+    int size() {
+        //先读头序号，尾序号不会小于它
+        long h = head.get();
+        long t = tail.get();
+        return (int) Math.max(0, Math.min(t - h, mask + 1));
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+}
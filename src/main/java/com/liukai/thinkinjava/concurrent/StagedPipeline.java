@@ -0,0 +1,476 @@
+package com.liukai.thinkinjava.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+/**
+ * 多阶段流水线
+ * WaxOMatic中一辆车在打蜡和抛光两个任务之间通过锁和条件来回交接，每次交接都要唤醒对方。
+ * 这里每个阶段有自己的工作线程，元素依次经过所有阶段，相邻阶段之间通过有界的单生产者单消费者无锁队列传递：
+ * 一个阶段有多个工作线程时，上一阶段的每个工作线程到这个阶段的每个工作线程都有一个专用的队列，
+ * 生产者轮流放入各个下游队列，消费者轮流取出各个上游队列，每个队列仍然只有一个生产者和一个消费者。
+ * 下游的队列都满时生产者等待（背压），上游的队列都空时消费者等待，等待时按RingBuffer的等待策略自旋、让出CPU或者休眠。
+ * 每个阶段统计处理的元素数量、吞吐量、入口队列的深度、等待输入的空闲时间和等待下游的阻塞时间，
+ * 瓶颈阶段的空闲时间最少，它上游的阶段阻塞时间多，下游的阶段空闲时间多。
+ * 一个阶段有多个工作线程时元素离开这个阶段的顺序可能与进入的顺序不同。
+ *
+ * @param <T>
+ */
+class StagedPipeline<T> {
+
+    private static final int PROCESSED = 0;
+    private static final int IDLE_NANOS = 1;
+    private static final int BLOCKED_NANOS = 2;
+
+    /**
+     * 流水线的一个阶段
+     *
+     * @param <T>
+     */
+    interface Stage<T> {
+
+        /**
+         * 处理一个元素，同一个阶段有多个工作线程时会被并发调用
+         *
+         * @param item
+         */
+        void process(T item);
+    }
+
+    private final List<? extends Stage<T>> stages;
+    private final int workersPerStage;
+    private final RingBuffer.WaitStrategy waitStrategy;
+    private final Consumer<? super T> sink;
+    private final SpscQueue<T>[] sources;//提交线程到第一个阶段的每个工作线程
+    private final Worker[][] workers;
+    private final Thread[] threads;
+    private final CountDownLatch terminated;
+    private final AtomicInteger running;
+    private final long startTime = System.nanoTime();
+    private volatile long endTime;
+    private volatile boolean closed;
+    private volatile boolean stopped;
+    private int nextSource;//只由提交线程读写
+
+    /**
+     * @param stages          各个阶段，按顺序执行
+     * @param workersPerStage 每个阶段的工作线程数量
+     * @param queueCapacity   每个队列的容量，必须是2的幂
+     * @param waitStrategy
+     * @param sink            接收离开最后一个阶段的元素，可以为null，最后一个阶段有多个工作线程时会被并发调用
+     */
+    StagedPipeline(List<? extends Stage<T>> stages, int workersPerStage, int queueCapacity,
+                   RingBuffer.WaitStrategy waitStrategy, Consumer<? super T> sink) {
+        this(stages, workersPerStage, queueCapacity, waitStrategy, sink, Executors.defaultThreadFactory());
+    }
+
+    StagedPipeline(List<? extends Stage<T>> stages, int workersPerStage, int queueCapacity,
+                   RingBuffer.WaitStrategy waitStrategy, Consumer<? super T> sink, ThreadFactory threadFactory) {
+        if (stages.isEmpty() || workersPerStage <= 0) {
+            throw new IllegalArgumentException("stages: " + stages.size() + ", workers: " + workersPerStage);
+        }
+        this.stages = new ArrayList<>(stages);
+        this.workersPerStage = workersPerStage;
+        this.waitStrategy = waitStrategy;
+        this.sink = sink;
+        this.sources = queues(workersPerStage);
+        @SuppressWarnings("unchecked")
+        Worker[][] workers = (Worker[][]) new StagedPipeline<?>.Worker[stages.size()][workersPerStage];
+        this.workers = workers;
+        for (int i = 0; i < workersPerStage; i++) {
+            sources[i] = new SpscQueue<>(queueCapacity);
+        }
+        for (int s = 0; s < stages.size(); s++) {
+            for (int w = 0; w < workersPerStage; w++) {
+                int upstream = s == 0 ? 1 : workersPerStage;
+                workers[s][w] = new Worker(s, StagedPipeline.<T>queues(upstream),
+                        s == stages.size() - 1 ? null : StagedPipeline.<T>queues(workersPerStage));
+            }
+        }
+        //连接相邻的阶段：上游第u个工作线程的第w个出口就是下游第w个工作线程的第u个入口
+        for (int w = 0; w < workersPerStage; w++) {
+            workers[0][w].inbound[0] = sources[w];
+        }
+        for (int s = 1; s < stages.size(); s++) {
+            for (int u = 0; u < workersPerStage; u++) {
+                for (int w = 0; w < workersPerStage; w++) {
+                    SpscQueue<T> queue = new SpscQueue<>(queueCapacity);
+                    workers[s - 1][u].outbound[w] = queue;
+                    workers[s][w].inbound[u] = queue;
+                }
+            }
+        }
+        int total = stages.size() * workersPerStage;
+        this.threads = new Thread[total];
+        this.terminated = new CountDownLatch(total);
+        this.running = new AtomicInteger(total);
+        for (int s = 0; s < stages.size(); s++) {
+            for (int w = 0; w < workersPerStage; w++) {
+                threads[s * workersPerStage + w] = threadFactory.newThread(workers[s][w]);
+            }
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> SpscQueue<T>[] queues(int n) {
+        return (SpscQueue<T>[]) new SpscQueue<?>[n];
+    }
+
+    /**
+     * 一个提交线程把所有元素送过流水线
+     *
+     * @param pipeline
+     * @param items
+     * @return 耗时，纳秒
+     * @throws InterruptedException
+     */
+    static <T> long run(StagedPipeline<T> pipeline, Iterable<? extends T> items) throws InterruptedException {
+        long start = System.nanoTime();
+        for (T item : items) {
+            pipeline.submit(item);
+        }
+        pipeline.close();
+        pipeline.awaitTermination(1, TimeUnit.HOURS);
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * 把元素交给第一个阶段，第一个阶段的队列都满时等待，只能由一个线程调用
+     * 流水线因为工作线程意外退出而停止时抛出IllegalStateException
+     *
+     * @param item
+     * @throws InterruptedException
+     */
+    void submit(T item) throws InterruptedException {
+        if (closed) {
+            throw new IllegalStateException("closed");
+        }
+        int counter = 0;
+        while (true) {
+            for (int i = 0; i < sources.length; i++) {
+                SpscQueue<T> queue = sources[nextSource];
+                nextSource = nextSource + 1 == sources.length ? 0 : nextSource + 1;
+                if (queue.offer(item)) {
+                    return;
+                }
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (stopped) {
+                throw new IllegalStateException("stopped");
+            }
+            counter = waitStrategy.idle(counter);
+        }
+    }
+
+    /**
+     * 不再提交元素，已经提交的元素经过所有阶段后工作线程结束，由提交线程调用
+     */
+    void close() {
+        closed = true;
+    }
+
+    /**
+     * 中断工作线程，队列中的元素被丢弃
+     */
+    void shutdownNow() {
+        closed = true;
+        stopped = true;
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+    }
+
+    boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return terminated.await(timeout, unit);
+    }
+
+    boolean isTerminated() {
+        return terminated.getCount() == 0;
+    }
+
+    int stages() {
+        return stages.size();
+    }
+
+    /**
+     * 一个阶段的统计信息
+     *
+     * @param stage
+     * @return 快照
+     */
+    StageStats stats(int stage) {
+        long processed = 0;
+        long idleNanos = 0;
+        long blockedNanos = 0;
+        int queueDepth = 0;
+        for (Worker worker : workers[stage]) {
+            processed += worker.counters.get(PROCESSED);
+            idleNanos += worker.counters.get(IDLE_NANOS);
+            blockedNanos += worker.counters.get(BLOCKED_NANOS);
+            for (SpscQueue<T> queue : worker.inbound) {
+                queueDepth += queue.size();
+            }
+        }
+        long end = endTime;
+        long elapsed = (end == 0 ? System.nanoTime() : end) - startTime;
+        return new StageStats(stage, stages.get(stage).toString(), workersPerStage, processed, elapsed, queueDepth,
+                idleNanos, blockedNanos);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int s = 0; s < stages.size(); s++) {
+            sb.append(s == 0 ? "" : String.format("%n")).append(stats(s));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 一个阶段的工作线程
+     */
+    private class Worker implements Runnable {
+
+        final Stage<T> stage;
+        final boolean first;
+        final Worker[] upstream;//上一阶段的工作线程，第一个阶段为null
+        final SpscQueue<T>[] inbound;
+        final SpscQueue<T>[] outbound;//最后一个阶段为null
+        final AtomicLongArray counters = new AtomicLongArray(3);//只由这个工作线程写入
+        volatile boolean finished;
+        private int nextIn;
+        private int nextOut;
+        private long processed;
+
+        Worker(int stage, SpscQueue<T>[] inbound, SpscQueue<T>[] outbound) {
+            this.stage = stages.get(stage);
+            this.first = stage == 0;
+            this.upstream = first ? null : workers[stage - 1];
+            this.inbound = inbound;
+            this.outbound = outbound;
+        }
+
+        /**
+         * 上游不会再放入元素
+         * 上游在最后一次放入之后才设置结束标记，先看到标记再取不到元素说明队列已经取完了
+         *
+         * @return
+         */
+        private boolean upstreamFinished() {
+            if (first) {
+                return closed;
+            }
+            for (Worker worker : upstream) {
+                if (!worker.finished) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * 轮流查看每个入口队列
+         *
+         * @return 所有队列都为空时返回null
+         */
+        private T poll() {
+            for (int i = 0; i < inbound.length; i++) {
+                SpscQueue<T> queue = inbound[nextIn];
+                nextIn = nextIn + 1 == inbound.length ? 0 : nextIn + 1;
+                T item = queue.poll();
+                if (item != null) {
+                    return item;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * 交给下一个阶段，下游的队列都满时等待
+         *
+         * @param item
+         * @return 被中断时返回false
+         */
+        private boolean forward(T item) {
+            if (outbound == null) {
+                if (sink != null) {
+                    sink.accept(item);
+                }
+                return true;
+            }
+            int counter = 0;
+            long blockedSince = 0;
+            while (true) {
+                for (int i = 0; i < outbound.length; i++) {
+                    SpscQueue<T> queue = outbound[nextOut];
+                    nextOut = nextOut + 1 == outbound.length ? 0 : nextOut + 1;
+                    if (queue.offer(item)) {
+                        if (blockedSince != 0) {
+                            add(BLOCKED_NANOS, System.nanoTime() - blockedSince);
+                        }
+                        return true;
+                    }
+                }
+                if (stopped) {
+                    return false;
+                }
+                if (blockedSince == 0) {
+                    blockedSince = System.nanoTime();
+                }
+                counter = waitStrategy.idle(counter);
+            }
+        }
+
+        private void add(int counter, long delta) {
+            counters.setRelease(counter, counters.getPlain(counter) + delta);
+        }
+
+        @Override
+        public void run() {
+            int counter = 0;
+            long idleSince = 0;
+            boolean normal = false;
+            try {
+                while (!stopped) {
+                    boolean done = upstreamFinished();
+                    T item = poll();
+                    if (item == null) {
+                        if (done) {
+                            break;
+                        }
+                        if (idleSince == 0) {
+                            idleSince = System.nanoTime();
+                        }
+                        counter = waitStrategy.idle(counter);
+                        continue;
+                    }
+                    if (idleSince != 0) {
+                        add(IDLE_NANOS, System.nanoTime() - idleSince);
+                        idleSince = 0;
+                        counter = 0;
+                    }
+                    try {
+                        stage.process(item);
+                    } catch (Throwable e) {
+                        //包括Error在内的异常都只丢弃这个元素，工作线程继续处理
+                        Thread t = Thread.currentThread();
+                        t.getUncaughtExceptionHandler().uncaughtException(t, e);
+                        continue;
+                    }
+                    counters.setRelease(PROCESSED, ++processed);
+                    if (!forward(item)) {
+                        break;
+                    }
+                }
+                normal = true;
+            } finally {
+                if (idleSince != 0) {
+                    add(IDLE_NANOS, System.nanoTime() - idleSince);
+                }
+                if (!normal) {
+                    //sink抛出异常等意外退出时停止整个流水线，否则上游会一直等待这个工作线程的入口队列
+                    stopped = true;
+                }
+                finished = true;
+                if (running.decrementAndGet() == 0) {
+                    endTime = System.nanoTime();
+                }
+                terminated.countDown();
+            }
+        }
+    }
+
+    /**
+     * 一个阶段的统计信息
+     */
+    static class StageStats {
+
+        private final int stage;
+        private final String name;
+        private final int workers;
+        private final long processed;
+        private final long elapsedNanos;
+        private final int queueDepth;
+        private final long idleNanos;
+        private final long blockedNanos;
+
+        StageStats(int stage, String name, int workers, long processed, long elapsedNanos, int queueDepth,
+                   long idleNanos, long blockedNanos) {
+            this.stage = stage;
+            this.name = name;
+            this.workers = workers;
+            this.processed = processed;
+            this.elapsedNanos = elapsedNanos;
+            this.queueDepth = queueDepth;
+            this.idleNanos = idleNanos;
+            this.blockedNanos = blockedNanos;
+        }
+
+        long processed() {
+            return processed;
+        }
+
+        /**
+         * 每秒处理的元素数量
+         *
+         * @return
+         */
+        double throughput() {
+            return elapsedNanos <= 0 ? 0 : processed * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * 入口队列中等待的元素数量
+         *
+         * @return
+         */
+        int queueDepth() {
+            return queueDepth;
+        }
+
+        long idleNanos() {
+            return idleNanos;
+        }
+
+        long blockedNanos() {
+            return blockedNanos;
+        }
+
+        /**
+         * 工作线程等待输入的时间占比
+         *
+         * @return
+         */
+        double idleRatio() {
+            return elapsedNanos <= 0 ? 0 : (double) idleNanos / elapsedNanos / workers;
+        }
+
+        /**
+         * 工作线程等待下游的时间占比
+         *
+         * @return
+         */
+        double blockedRatio() {
+            return elapsedNanos <= 0 ? 0 : (double) blockedNanos / elapsedNanos / workers;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("阶段 %d %s：处理 %d，每秒 %.0f，队列 %d，空闲 %.1f%%，阻塞 %.1f%%", stage, name,
+                    processed, throughput(), queueDepth, idleRatio() * 100, blockedRatio() * 100);
+        }
+    }
+
+}
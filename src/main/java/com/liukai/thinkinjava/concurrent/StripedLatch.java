@@ -0,0 +1,163 @@
+package com.liukai.thinkinjava.concurrent;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 分段计数的倒计时门闩
+ * CountDownLatch只有一个计数，所有线程的countDown()都CAS同一个变量，线程多时大部分CAS失败重试；
+ * 计数归零时所有在await()中阻塞的线程依次被唤醒，每个等待者都要占用一个线程。
+ * 这里把计数分成若干段（类似LongAdder），每段独占缓存行，线程按自己的id选择一段，用原子减法递减，不会失败重试，
+ * 自己的段减完后再去减其他段；某一段减到0时才递减根上剩余的段数，根上的竞争次数只有段数那么多（两层的合并树）。
+ * 计数归零时完成一个CompletableFuture，等待者可以用onComplete()登记回调而不占用线程，
+ * 仍然可以用await()阻塞等待。继承CountDownLatch并覆盖了它所有的公共方法，可以直接替换CountDownLatch。
+ * 计数归零之前getCount()只是一个近似值。
+ */
+class StripedLatch extends CountDownLatch {
+
+    private static final int PAD = 16;//每段之间间隔16个long，128字节，相邻的两个缓存行预取时也不会共享
+
+    private final AtomicLongArray stripes;//第i段的剩余计数在下标(i + 1) * PAD，小于等于0表示已经减完
+    private final int stripeCount;
+    private final AtomicInteger remainingStripes;//还没有减完的段数
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+
+    /**
+     * 段数为CPU数量的两倍
+     *
+     * @param count
+     */
+    StripedLatch(int count) {
+        this(count, 2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param count   计数，不能为负数
+     * @param stripes 段数，超过计数时按计数分段
+     */
+    StripedLatch(int count, int stripes) {
+        super(0);
+        if (count < 0 || stripes <= 0) {
+            throw new IllegalArgumentException("count: " + count + ", stripes: " + stripes);
+        }
+        this.stripeCount = Math.max(1, Math.min(stripes, count));
+        this.stripes = new AtomicLongArray((stripeCount + 2) * PAD);
+        //计数平均分到各段，余数分给前面的段
+        for (int i = 0; i < stripeCount; i++) {
+            this.stripes.set((i + 1) * PAD, count / stripeCount + (i < count % stripeCount ? 1 : 0));
+        }
+        this.remainingStripes = new AtomicInteger(count == 0 ? 0 : stripeCount);
+        if (count == 0) {
+            completion.complete(null);
+        }
+    }
+
+    /**
+     * 递减计数，计数已经为0时什么也不做
+     * 从当前线程对应的段开始，找到第一个没有减完的段
+     */
+    @Override
+    public void countDown() {
+        int start = (int) ((RandomStreams.seed(0, Thread.currentThread().threadId()) >>> 1) % stripeCount);
+        for (int k = 0; k < stripeCount; k++) {
+            int i = start + k < stripeCount ? start + k : start + k - stripeCount;
+            int index = (i + 1) * PAD;
+            //先读再减，已经减完的段不写入，不会让其他线程的缓存行失效
+            if (stripes.get(index) <= 0) {
+                continue;
+            }
+            long previous = stripes.getAndDecrement(index);
+            if (previous > 0) {
+                if (previous == 1 && remainingStripes.decrementAndGet() == 0) {
+                    completion.complete(null);
+                }
+                return;
+            }
+            //与其他线程竞争最后一个计数失败，继续找下一段
+        }
+    }
+
+    /**
+     * 剩余的计数
+     *
+     * @return
+     */
+    @Override
+    public long getCount() {
+        if (completion.isDone()) {
+            return 0;
+        }
+        long count = 0;
+        for (int i = 0; i < stripeCount; i++) {
+            count += Math.max(0, stripes.get((i + 1) * PAD));
+        }
+        return count;
+    }
+
+    @Override
+    public void await() throws InterruptedException {
+        try {
+            completion.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);//不会异常完成
+        }
+    }
+
+    @Override
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        try {
+            completion.get(timeout, unit);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 计数归零时在最后一次countDown()的线程中执行，已经归零时立即在当前线程中执行
+     * 回调较多或者较慢时应该使用onComplete(action, executor)
+     *
+     * @param action
+     */
+    void onComplete(Runnable action) {
+        completion.thenRun(action);
+    }
+
+    /**
+     * 计数归零时交给executor执行
+     *
+     * @param action
+     * @param executor
+     */
+    void onComplete(Runnable action, Executor executor) {
+        completion.thenRunAsync(action, executor);
+    }
+
+    /**
+     * 计数归零时完成的CompletableFuture，可以继续组合其他异步操作
+     *
+     * @return 副本，调用者完成它不会影响门闩
+     */
+    CompletableFuture<Void> completion() {
+        return completion.copy();
+    }
+
+    int stripes() {
+        return stripeCount;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getName() + '@' + Integer.toHexString(hashCode()) + "[Count = " + getCount()
+                + ", stripes = " + stripeCount + "]";
+    }
+
+}
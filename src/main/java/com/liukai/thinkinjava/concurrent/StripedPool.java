@@ -0,0 +1,294 @@
+package com.liukai.thinkinjava.concurrent;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * 分片对象池
+ * 对象被分到N个分片中，每个分片都是一个LockFreePool，有自己的许可，整个池没有共享的计数器，
+ * 线程优先从自己的主分片签出对象，只有主分片为空时才从其他分片窃取。
+ * 这样许可、空闲栈和线程缓存上的竞争都被分散到各个分片上。
+ * 所有分片都没有可用对象时，签出的线程登记在主分片的等待队列上阻塞，签入时唤醒登记过的线程，而不是轮询各个分片；
+ * 池没有耗尽时没有线程登记，签入只读取各个分片的等待数量，不写共享的数据。
+ * 批量签出按固定的分片顺序凑齐n个对象，凑不齐时全部归还再等待，不会持有一部分对象等待其他批量签出持有的对象。
+ *
+ * @param <T>
+ */
+class StripedPool<T> implements ObjectPool<T> {
+
+    private final int size;
+    private final LockFreePool<T>[] shards;
+    private final Waiters[] waiters;//每个分片上等待签入的线程
+    private final Map<T, Integer> shardOf;//对象所属的分片，构造完成后只读
+    private final AtomicInteger nextHome = new AtomicInteger();
+    private final ThreadLocal<Integer> home = new ThreadLocal<Integer>() {
+        @Override
+        protected Integer initialValue() {
+            //按线程到达的顺序轮流分配主分片，比用线程id取模分布更均匀
+            return Math.floorMod(nextHome.getAndIncrement(), shards.length);
+        }
+    };
+
+    public StripedPool(Supplier<T> factory, int size) {
+        this(factory, size, Runtime.getRuntime().availableProcessors());
+    }
+
+    public StripedPool(final Supplier<T> factory, int size, int shardCount) {
+        //每个分片至少有一个对象
+        shardCount = Math.max(1, Math.min(size, shardCount));
+        @SuppressWarnings("unchecked")
+        LockFreePool<T>[] shards = (LockFreePool<T>[]) new LockFreePool<?>[shardCount];
+        this.shards = shards;
+        this.waiters = new Waiters[shardCount];
+        this.size = size;
+        this.shardOf = new IdentityHashMap<>(size);
+        for (int i = 0; i < shardCount; i++) {
+            //前size % shardCount个分片多分一个对象
+            int shardSize = size / shardCount + (i < size % shardCount ? 1 : 0);
+            final int shard = i;
+            shards[i] = new LockFreePool<>(new Supplier<T>() {
+                @Override
+                public T get() {
+                    T item = factory.get();
+                    shardOf.put(item, shard);
+                    return item;
+                }
+            }, shardSize);
+            waiters[i] = new Waiters();
+        }
+    }
+
+    /**
+     * 签出对象，优先使用主分片，所有分片都为空时等待签入
+     *
+     * @return
+     * @throws InterruptedException
+     */
+    @Override
+    public T checkOut() throws InterruptedException {
+        int home = this.home.get();
+        for (; ; ) {
+            T item = steal(home);
+            if (item != null) {
+                return item;
+            }
+            awaitCheckIn(home, 1, Long.MAX_VALUE);
+        }
+    }
+
+    /**
+     * 尝试签出对象，所有分片都没有可用对象时返回null
+     *
+     * @return
+     */
+    @Override
+    public T tryCheckOut() {
+        return steal(home.get());
+    }
+
+    /**
+     * 尝试签出对象，超时返回null
+     *
+     * @param timeout
+     * @param unit
+     * @return
+     * @throws InterruptedException
+     */
+    @Override
+    public T tryCheckOut(long timeout, TimeUnit unit) throws InterruptedException {
+        int home = this.home.get();
+        long nanos = unit.toNanos(timeout);
+        for (; ; ) {
+            T item = steal(home);
+            if (item != null || nanos <= 0) {
+                return item;
+            }
+            nanos = awaitCheckIn(home, 1, nanos);
+        }
+    }
+
+    /**
+     * 批量签出对象，按固定的分片顺序从各个分片凑齐n个对象，凑不齐时全部归还并等待签入
+     * 所有批量签出都按同一个顺序获取，而且等待时不持有对象，多个批量签出不会互相等待
+     *
+     * @param n 不能大于池的大小
+     * @return
+     * @throws InterruptedException
+     */
+    @Override
+    public List<T> checkOut(int n) throws InterruptedException {
+        if (n < 0 || n > size) {
+            throw new IllegalArgumentException("n: " + n + ", capacity: " + size);
+        }
+        int home = this.home.get();
+        List<T> result = new ArrayList<>(n);
+        for (; ; ) {
+            for (int i = 0; i < shards.length && result.size() < n; i++) {
+                shards[i].tryCheckOut(n - result.size(), result);
+            }
+            if (result.size() == n) {
+                return result;
+            }
+            checkInAll(result);
+            result.clear();
+            awaitCheckIn(home, n, Long.MAX_VALUE);
+        }
+    }
+
+    /**
+     * 签入对象到它所属的分片，有线程在等待时唤醒它们
+     * 不属于池的对象或者重复签入的对象会被忽略
+     *
+     * @param x
+     */
+    @Override
+    public void checkIn(T x) {
+        if (realseItem(x)) {
+            signalWaiters();
+        }
+    }
+
+    /**
+     * 批量签入对象，所有对象签入之后才唤醒等待的线程
+     *
+     * @param returned
+     */
+    @Override
+    public void checkInAll(Collection<T> returned) {
+        boolean released = false;
+        for (T item : returned) {
+            released |= realseItem(item);
+        }
+        if (released) {
+            signalWaiters();
+        }
+    }
+
+    /**
+     * 关闭所有分片
+     */
+    @Override
+    public void close() {
+        for (LockFreePool<T> shard : shards) {
+            shard.close();
+        }
+    }
+
+    public int shardCount() {
+        return shards.length;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 登记到主分片的等待队列上，等待下一次签入
+     * 先登记再检查各个分片的许可：签入的线程先归还许可再读取等待数量，
+     * 所以要么这里看到归还的许可不再等待，要么签入的线程看到登记并唤醒这个线程
+     *
+     * @param home
+     * @param needed 需要的空闲对象数量
+     * @param nanos  最多等待的时间，Long.MAX_VALUE表示一直等待
+     * @return 剩余的等待时间
+     * @throws InterruptedException
+     */
+    private long awaitCheckIn(int home, int needed, long nanos) throws InterruptedException {
+        Waiters w = waiters[home];
+        w.lock.lockInterruptibly();
+        try {
+            w.count++;
+            try {
+                if (availablePermits() >= needed) {
+                    return nanos;
+                }
+                if (nanos == Long.MAX_VALUE) {
+                    w.checkedIn.await();
+                    return nanos;
+                }
+                return w.checkedIn.awaitNanos(nanos);
+            } finally {
+                w.count--;
+            }
+        } finally {
+            w.lock.unlock();
+        }
+    }
+
+    /**
+     * 唤醒所有分片上等待的线程，没有线程等待时只读取各个分片的等待数量
+     * 唤醒的线程会重新从各个分片签出，没有签到的线程继续等待
+     */
+    private void signalWaiters() {
+        for (Waiters w : waiters) {
+            if (w.count > 0) {
+                w.lock.lock();
+                try {
+                    w.checkedIn.signalAll();
+                } finally {
+                    w.lock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * 所有分片还没有被认领的空闲对象数量，各个分片的数量不是同一时刻读到的，只用于决定是否等待
+     *
+     * @return
+     */
+    private int availablePermits() {
+        int permits = 0;
+        for (LockFreePool<T> shard : shards) {
+            permits += shard.availablePermits();
+        }
+        return permits;
+    }
+
+    /**
+     * 签入对象到它所属的分片
+     *
+     * @param item
+     * @return 是否是一次有效的签入
+     */
+    private boolean realseItem(T item) {
+        Integer shard = shardOf.get(item);
+        return shard != null && shards[shard].tryCheckIn(item);
+    }
+
+    /**
+     * 从主分片开始依次尝试每个分片
+     *
+     * @param home
+     * @return
+     */
+    private T steal(int home) {
+        for (int i = 0; i < shards.length; i++) {
+            T item = shards[(home + i) % shards.length].tryCheckOut();
+            if (item != null) {
+                return item;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 一个分片上等待签入的线程，只有池耗尽时才会被写入
+     */
+    private static class Waiters {
+
+        final Lock lock = new ReentrantLock();
+        final Condition checkedIn = lock.newCondition();
+        volatile int count;//登记的线程数量，只在持有lock时修改
+    }
+
+}
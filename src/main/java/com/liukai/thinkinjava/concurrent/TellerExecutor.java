@@ -0,0 +1,435 @@
+package com.liukai.thinkinjava.concurrent;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 工作窃取的出纳员执行器
+ * BankTellerSimulation中每个出纳员独占一个线程，阻塞在顾客队列上，被重新分配后在自己的监视器上wait()。
+ * 这里出纳员是逻辑上的工作者，复用固定大小的ForkJoinPool中的线程：
+ * 每个出纳员有自己的本地顾客队列，有顾客时才被提交到线程池中运行，服务完自己队列中的顾客后从其他出纳员的队列尾部窃取顾客，
+ * 没有顾客时回到空闲队列，不占用任何线程。服务时间不是让线程休眠，而是由定时器在服务结束时把出纳员重新提交到线程池。
+ * 出纳员被重新分配时把本地队列中的顾客交给其他出纳员，然后停下来，没有wait/notify。
+ * 这样十万个出纳员也只需要与核数相当的线程。
+ */
+class TellerExecutor {
+
+    private static final int QUANTUM = 64;//出纳员每次运行最多服务的顾客数量，之后让出线程
+    private static final int STEAL_ATTEMPTS = 4;//每次窃取尝试的出纳员数量
+
+    //出纳员的状态
+    private static final int IDLE = 0;//没有顾客，在空闲队列中等待
+    private static final int RUNNING = 1;//已提交到线程池或者正在服务顾客
+    private static final int PARKED = 2;//被重新分配做其他事情
+
+    private final ForkJoinPool pool;
+    private final ScheduledExecutorService timer;//服务时间的定时器，服务时间为0时为null
+    private final long nanosPerMilli;//服务时间每毫秒对应的实际纳秒数，0表示不等待
+    private final BankTellerTelemetry telemetry;
+    private final Semaphore lineCapacity;//顾客队列的剩余容量，队列满时提交顾客阻塞
+    private final AtomicInteger lineSize = new AtomicInteger();//所有出纳员本地队列中的顾客数量
+    private final Queue<LogicalTeller> idleTellers = new ConcurrentLinkedQueue<>();
+    private final List<LogicalTeller> workingTellers = new ArrayList<>();//工作中的出纳员，只由管理器修改
+    private final Deque<LogicalTeller> tellersDoingOtherThings = new ArrayDeque<>();//做其他事情的出纳员，只由管理器修改
+    private int tellerCount;//创建的出纳员数量
+    private volatile LogicalTeller[] working = new LogicalTeller[0];//工作中出纳员的快照，用于分配顾客和窃取
+
+    /**
+     * @param parallelism   线程池的线程数量
+     * @param maxLineSize   顾客队列的最大长度
+     * @param nanosPerMilli 服务时间每毫秒对应的实际纳秒数，1000000表示实时，0表示不等待
+     * @param telemetry
+     */
+    TellerExecutor(int parallelism, int maxLineSize, long nanosPerMilli, BankTellerTelemetry telemetry) {
+        this.pool = new ForkJoinPool(parallelism, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        this.nanosPerMilli = nanosPerMilli;
+        this.telemetry = telemetry;
+        this.lineCapacity = new Semaphore(maxLineSize);
+        this.timer = nanosPerMilli == 0 ? null : Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "TellerExecutor-timer");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        setWorkingTellers(1);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int tellers = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        long customers = args.length > 1 ? Long.parseLong(args[1]) : 10000000L;
+        int parallelism = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        //实时仿真：与BankTellerSimulation相同的顾客到达和服务时间，出纳员数量由调整策略决定
+        BankTellerTelemetry telemetry = new BankTellerTelemetry();
+        final TellerExecutor executor = new TellerExecutor(parallelism, 50, TimeUnit.MILLISECONDS.toNanos(1), telemetry);
+        Thread manager = new Thread(executor.new Manager(1000, new EwmaTrendPolicy()));
+        Thread reporter = new Thread(new BankTellerTelemetry.Reporter(telemetry, 1000, System.out,
+                BankTellerTelemetry.Format.CSV));
+        manager.start();
+        reporter.start();
+        Random random = new Random(47);
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < end) {
+            TimeUnit.MILLISECONDS.sleep(random.nextInt(300));
+            executor.submit(new Customer(random.nextInt(1000)));
+        }
+        manager.interrupt();
+        reporter.interrupt();
+        reporter.join();
+        executor.shutdown();
+
+        //规模测试：大量出纳员服务大量顾客，服务时间不等待，只有parallelism个线程
+        telemetry = new BankTellerTelemetry();
+        TellerExecutor scale = new TellerExecutor(parallelism, 10000, 0, telemetry);
+        scale.setWorkingTellers(tellers);
+        long start = System.nanoTime();
+        for (long i = 0; i < customers; i++) {
+            scale.submit(new Customer(random.nextInt(1000)));
+        }
+        while (telemetry.customersServed() < customers) {
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%d个出纳员，%d个线程，服务了%d个顾客，耗时%dms，每秒%.0f个顾客，活动线程数：%d%n",
+                tellers, parallelism, telemetry.customersServed(), elapsed / 1000000,
+                telemetry.customersServed() * 1e9 / elapsed, Thread.activeCount());
+        scale.shutdown();
+    }
+
+    /**
+     * 顾客进入队列，队列已满时阻塞
+     * 与CustomerLine一样，拿到队列中的位置之后才记录入队时间，等待空位的时间不计入排队时间
+     *
+     * @param customer
+     * @throws InterruptedException
+     */
+    public void submit(Customer customer) throws InterruptedException {
+        lineCapacity.acquire();
+        customer.enqueued();
+        telemetry.customerQueued(lineSize.incrementAndGet());
+        dispatch(customer);
+    }
+
+    /**
+     * 把顾客分配给一个出纳员：优先分配给空闲的出纳员，否则随机选两个工作中的出纳员，放到队列较短的那个中
+     *
+     * @param customer
+     */
+    private void dispatch(Customer customer) {
+        LogicalTeller teller;
+        while ((teller = idleTellers.poll()) != null) {
+            if (teller.state.compareAndSet(IDLE, RUNNING)) {
+                teller.push(customer);
+                pool.execute(teller);
+                return;
+            }
+        }
+        LogicalTeller[] working = this.working;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        teller = working[random.nextInt(working.length)];
+        LogicalTeller other = working[random.nextInt(working.length)];
+        if (other.queueSize.get() < teller.queueSize.get()) {
+            teller = other;
+        }
+        teller.push(customer);
+        if (teller.state.get() == IDLE && teller.state.compareAndSet(IDLE, RUNNING)) {
+            pool.execute(teller);
+        } else if (teller.state.get() == PARKED) {
+            //出纳员刚刚被重新分配，把顾客交给其他出纳员
+            teller.handOff();
+        }
+    }
+
+    /**
+     * 当前排队的顾客数量
+     *
+     * @return
+     */
+    public int lineSize() {
+        return lineSize.get();
+    }
+
+    /**
+     * 工作中的出纳员数量
+     *
+     * @return
+     */
+    public int workingTellers() {
+        return working.length;
+    }
+
+    /**
+     * 调整工作中的出纳员数量，优先让做其他事情的出纳员回来服务顾客，不够时再创建新的出纳员；
+     * 减少时重新分配服务顾客最少的出纳员。只能由一个线程（管理器）调用
+     *
+     * @param target 至少为1
+     */
+    public void setWorkingTellers(int target) {
+        target = Math.max(1, target);
+        while (workingTellers.size() < target) {
+            LogicalTeller teller = tellersDoingOtherThings.poll();
+            if (teller == null) {
+                teller = new LogicalTeller(tellerCount++);
+                idleTellers.add(teller);
+            } else {
+                teller.serveCustomerLine();
+            }
+            workingTellers.add(teller);
+        }
+        if (workingTellers.size() > target) {
+            //按服务的顾客数量排序，先重新分配服务顾客最少的出纳员，与TellerManager的优先级队列相同
+            Collections.sort(workingTellers, new Comparator<LogicalTeller>() {
+                @Override
+                public int compare(LogicalTeller a, LogicalTeller b) {
+                    return Long.compare(a.customersServed, b.customersServed);
+                }
+            });
+            List<LogicalTeller> reassigned = workingTellers.subList(0, workingTellers.size() - target);
+            for (LogicalTeller teller : reassigned) {
+                teller.doSomethingElse();
+                tellersDoingOtherThings.push(teller);
+            }
+            reassigned.clear();
+        }
+        working = workingTellers.toArray(new LogicalTeller[0]);
+    }
+
+    public void shutdown() {
+        pool.shutdownNow();
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+    }
+
+    /**
+     * 从其他工作中的出纳员的队列尾部窃取一个顾客
+     *
+     * @param thief
+     * @return 没有窃取到时返回null
+     */
+    private Customer steal(LogicalTeller thief) {
+        LogicalTeller[] working = this.working;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < STEAL_ATTEMPTS; i++) {
+            LogicalTeller victim = working[random.nextInt(working.length)];
+            if (victim != thief) {
+                Customer customer = victim.pollLast();
+                if (customer != null) {
+                    return customer;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 逻辑出纳员
+     * 同一时刻最多在一个线程中运行：只有把状态从IDLE改为RUNNING的线程才能把它提交到线程池
+     */
+    class LogicalTeller implements Runnable {
+
+        private final int id;
+        private final ConcurrentLinkedDeque<Customer> customers = new ConcurrentLinkedDeque<>();//本地顾客队列
+        private final AtomicInteger queueSize = new AtomicInteger();
+        private final AtomicInteger state = new AtomicInteger(IDLE);
+        private volatile boolean servingCustomerLine = true;
+        private volatile long customersServed;//只由运行中的出纳员修改
+        private Customer current;//正在服务的顾客
+        private final Runnable serviceDone = new Runnable() {
+            @Override
+            public void run() {
+                finish(current);
+                current = null;
+                pool.execute(LogicalTeller.this);
+            }
+        };
+
+        LogicalTeller(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < QUANTUM; i++) {
+                if (!servingCustomerLine) {
+                    park();
+                    return;
+                }
+                Customer customer = pollFirst();
+                if (customer == null) {
+                    customer = steal(this);
+                }
+                if (customer == null) {
+                    idle();
+                    return;
+                }
+                lineCapacity.release();
+                lineSize.decrementAndGet();
+                telemetry.serviceStarted(customer);
+                if (nanosPerMilli > 0 && customer.getServiceTime() > 0) {
+                    //服务期间不占用线程，服务结束时由定时器重新提交
+                    current = customer;
+                    timer.schedule(serviceDone, customer.getServiceTime() * nanosPerMilli, TimeUnit.NANOSECONDS);
+                    return;
+                }
+                finish(customer);
+            }
+            //让出线程给其他出纳员
+            pool.execute(this);
+        }
+
+        private void finish(Customer customer) {
+            customersServed++;
+            telemetry.serviceFinished(customer.getServiceTime() * TimeUnit.MILLISECONDS.toNanos(1));
+        }
+
+        /**
+         * 没有顾客时回到空闲队列，再检查一次本地队列，避免丢失在状态改变之前放入的顾客
+         */
+        private void idle() {
+            state.set(IDLE);
+            if (!servingCustomerLine) {
+                if (state.compareAndSet(IDLE, PARKED)) {
+                    handOff();
+                }
+                return;
+            }
+            idleTellers.add(this);
+            if (queueSize.get() > 0 && state.compareAndSet(IDLE, RUNNING)) {
+                pool.execute(this);
+            }
+        }
+
+        /**
+         * 停下来做其他事情，把本地队列中的顾客交给其他出纳员
+         */
+        private void park() {
+            state.set(PARKED);
+            handOff();
+            //管理器可能在设置状态之前又让出纳员回来服务顾客
+            if (servingCustomerLine && state.compareAndSet(PARKED, RUNNING)) {
+                pool.execute(this);
+            }
+        }
+
+        private void handOff() {
+            Customer customer;
+            while ((customer = pollFirst()) != null) {
+                dispatch(customer);
+            }
+        }
+
+        void push(Customer customer) {
+            queueSize.incrementAndGet();
+            customers.addLast(customer);
+        }
+
+        Customer pollFirst() {
+            Customer customer = customers.pollFirst();
+            if (customer != null) {
+                queueSize.decrementAndGet();
+            }
+            return customer;
+        }
+
+        Customer pollLast() {
+            Customer customer = customers.pollLast();
+            if (customer != null) {
+                queueSize.decrementAndGet();
+            }
+            return customer;
+        }
+
+        /**
+         * 做其他的事情，正在服务的顾客服务完后停下来
+         */
+        void doSomethingElse() {
+            customersServed = 0;
+            servingCustomerLine = false;
+            if (state.compareAndSet(IDLE, PARKED)) {
+                handOff();
+            }
+        }
+
+        /**
+         * 回来服务顾客
+         */
+        void serveCustomerLine() {
+            servingCustomerLine = true;
+            if (state.compareAndSet(PARKED, RUNNING)) {
+                pool.execute(this);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Teller: " + id;
+        }
+    }
+
+    /**
+     * 出纳员管理器，定期根据调整策略调整工作中的出纳员数量
+     */
+    class Manager implements Runnable {
+
+        private final int adjustmentPeriod;
+        private final TellerScalingPolicy scalingPolicy;
+
+        Manager(int adjustmentPeriod, TellerScalingPolicy scalingPolicy) {
+            this.adjustmentPeriod = adjustmentPeriod;
+            this.scalingPolicy = scalingPolicy;
+        }
+
+        @Override
+        public void run() {
+            long lastAdjustment = System.nanoTime();
+            long lastArrived = 0;
+            long lastServed = 0;
+            long lastBusyNanos = 0;
+            try {
+                while (!Thread.interrupted()) {
+                    TimeUnit.MILLISECONDS.sleep(adjustmentPeriod);
+                    long now = System.nanoTime();
+                    long arrived = telemetry.customersArrived();
+                    long served = telemetry.customersServed();
+                    long busyNanos = telemetry.busyNanos();
+                    int target = scalingPolicy.targetTellers(new TellerScalingPolicy.Observation(
+                            TimeUnit.NANOSECONDS.toMillis(now - lastAdjustment), lineSize(), workingTellers(),
+                            arrived - lastArrived, served - lastServed, (busyNanos - lastBusyNanos) / 1e6));
+                    lastAdjustment = now;
+                    lastArrived = arrived;
+                    lastServed = served;
+                    lastBusyNanos = busyNanos;
+                    int before = workingTellers();
+                    setWorkingTellers(target);
+                    for (int i = Math.abs(workingTellers() - before); i > 0; i--) {
+                        telemetry.tellerAdjusted();
+                    }
+                    telemetry.workingTellers(workingTellers());
+                }
+            } catch (InterruptedException e) {
+                System.out.println("出纳员管理器任务被中断");
+            }
+            System.out.println("出纳员管理器任务终止");
+        }
+    }
+
+}
@@ -0,0 +1,84 @@
+package com.liukai.thinkinjava.concurrent;
+
+/**
+ * 出纳员数量的调整策略
+ * 出纳员管理器在每个调整周期结束时把这个周期的观测数据交给策略，策略返回下一个周期需要的出纳员数量，
+ * 管理器一次添加或者移除若干个出纳员以达到这个数量。
+ * 策略可以有状态（例如平滑后的到达率），每个管理器（每次仿真）使用自己的策略实例。
+ */
+interface TellerScalingPolicy {
+
+    /**
+     * 原来的规则：每个出纳员平均排队的顾客多于2个时添加一个出纳员，少于2个时移除一个，没有顾客排队时只保留一个
+     */
+    TellerScalingPolicy DEFAULT = new TellerScalingPolicy() {
+        @Override
+        public int targetTellers(Observation o) {
+            int working = o.workingTellers;
+            if (o.lineSize / working > 2) {
+                return working + 1;
+            }
+            if (o.lineSize == 0) {
+                return 1;
+            }
+            if (working > 1 && o.lineSize / working < 2) {
+                return working - 1;
+            }
+            return working;
+        }
+
+        @Override
+        public String toString() {
+            return "default";
+        }
+    };
+
+    /**
+     * 计算下一个周期需要的出纳员数量
+     *
+     * @param o 这个周期的观测数据
+     * @return 需要的出纳员数量，小于1时按1处理
+     */
+    int targetTellers(Observation o);
+
+    /**
+     * 一个调整周期的观测数据，时间单位都是毫秒
+     */
+    class Observation {
+
+        final long period;//距离上一次调整的时间
+        final int lineSize;//当前排队的顾客数量
+        final int workingTellers;//当前工作中的出纳员数量
+        final long arrivals;//这个周期到达的顾客数量
+        final long served;//这个周期服务完的顾客数量
+        final double busyTime;//这个周期服务完的顾客的服务时间之和
+
+        Observation(long period, int lineSize, int workingTellers, long arrivals, long served, double busyTime) {
+            this.period = period;
+            this.lineSize = lineSize;
+            this.workingTellers = workingTellers;
+            this.arrivals = arrivals;
+            this.served = served;
+            this.busyTime = busyTime;
+        }
+
+        /**
+         * 这个周期的到达率，每毫秒到达的顾客数量
+         *
+         * @return
+         */
+        double arrivalRate() {
+            return period == 0 ? 0 : (double) arrivals / period;
+        }
+
+        /**
+         * 这个周期一个出纳员的服务率，每毫秒服务的顾客数量，没有服务完的顾客时返回NaN
+         *
+         * @return
+         */
+        double serviceRate() {
+            return busyTime <= 0 ? Double.NaN : served / busyTime;
+        }
+    }
+
+}
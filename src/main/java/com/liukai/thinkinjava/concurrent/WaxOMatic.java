@@ -1,18 +1,77 @@
 package com.liukai.thinkinjava.concurrent;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 
+/**
+ * 打蜡抛光
+ * 参数line [阶段数] [车辆数] [每个阶段的线程数]：打蜡和抛光交替作为StagedPipeline的各个阶段，
+ * 多辆车流过这条流水线，结束时打印每个阶段的吞吐量、队列深度、空闲和阻塞时间；
+ * 参数adaptive：小汽车使用自适应的自旋-让出-休眠信号代替锁和条件
+ * 
+ * @author Administrator
+ *
+ */
 public class WaxOMatic {
 
 	public static void main(String[] args) throws InterruptedException {
-		Car car = new Car();
-		ExecutorService es = Executors.newCachedThreadPool();
+		if (args.length > 0 && args[0].equals("line")) {
+			line(args.length > 1 ? Integer.parseInt(args[1]) : 4, args.length > 2 ? Integer.parseInt(args[2]) : 1000000,
+					args.length > 3 ? Integer.parseInt(args[3]) : 1);
+			return;
+		}
+		Car car = new Car(args.length > 0 && args[0].equals("adaptive") ? Car.Signalling.ADAPTIVE
+				: Car.Signalling.CONDITION);
+		ContentionMonitor monitor = new ContentionMonitor();
+		car.watch(monitor, "小汽车");
+		monitor.start(10, TimeUnit.MILLISECONDS, ContentionMonitor.PRINT_DEADLOCKS);
+		ExecutorService es = DemoExecutors.newExecutor();
 		es.execute(new WaxOn(car));
 		es.execute(new WaxOff(car));
 		TimeUnit.SECONDS.sleep(1);
+		monitor.stop();
 		es.shutdownNow();
+		for (ContentionMonitor.Contention contention : monitor.topContended(5)) {
+			System.out.println(contention);
+		}
+	}
+
+	/**
+	 * 多辆车流过打蜡、抛光交替的流水线
+	 * 
+	 * @param stages
+	 * @param cars
+	 * @param workers
+	 * @throws InterruptedException
+	 */
+	static void line(int stages, int cars, int workers) throws InterruptedException {
+		List<StagedPipeline.Stage<Car>> line = new ArrayList<>();
+		for (int i = 0; i < stages; i++) {
+			line.add(i % 2 == 0 ? new WaxOn() : new WaxOff());
+		}
+		List<Car> items = new ArrayList<>();
+		for (int i = 0; i < cars; i++) {
+			items.add(new Car());
+		}
+		final AtomicLong finished = new AtomicLong();
+		StagedPipeline<Car> pipeline = new StagedPipeline<>(line, workers, 1024, RingBuffer.WaitStrategy.YIELD,
+				new Consumer<Car>() {
+					@Override
+					public void accept(Car car) {
+						finished.incrementAndGet();
+					}
+				});
+		long elapsed = StagedPipeline.run(pipeline, items);
+		System.out.printf("%d个阶段，%d辆车，每秒%.0f辆%n", stages, finished.get(), finished.get() * 1e9 / elapsed);
+		System.out.println(pipeline);
 	}
 }
 
@@ -22,14 +81,26 @@ public class WaxOMatic {
  * @author Administrator
  *
  */
-class WaxOff implements Runnable {
+class WaxOff implements Runnable, StagedPipeline.Stage<Car> {
 
 	private Car car;
 
+	/**
+	 * 作为流水线的阶段，处理流过的每一辆车
+	 */
+	public WaxOff() {
+		this(null);
+	}
+
 	public WaxOff(Car car) {
 		this.car = car;
 	}
 
+	@Override
+	public void process(Car car) {
+		car.buffed();
+	}
+
 	@Override
 	public void run() {
 		try {
@@ -57,14 +128,26 @@ class WaxOff implements Runnable {
  * @author Administrator
  *
  */
-class WaxOn implements Runnable {
+class WaxOn implements Runnable, StagedPipeline.Stage<Car> {
 
 	private Car car;
 
+	/**
+	 * 作为流水线的阶段，处理流过的每一辆车
+	 */
+	public WaxOn() {
+		this(null);
+	}
+
 	public WaxOn(Car car) {
 		this.car = car;
 	}
 
+	@Override
+	public void process(Car car) {
+		car.waxed();
+	}
+
 	@Override
 	public void run() {
 		try {
@@ -88,28 +171,93 @@ class WaxOn implements Runnable {
 
 /**
  * 小汽车。 功能有：打蜡、抛光
+ * 使用显式的Lock和Condition代替synchronized和wait()，虚拟线程在Condition上等待时不会占住载体线程。
+ * 打蜡和抛光分别使用各自的条件，只唤醒等待对方的任务。
+ * ADAPTIVE模式不使用锁，状态是volatile的，等待的任务通过AdaptiveSignal先自旋再休眠，
+ * 对方很快完成时不需要内核唤醒，一次来回在亚微秒级。每个条件只能有一个任务等待。
  * 
  * @author Administrator
  *
  */
 class Car {
 
-	private boolean waxOn = false;// 打蜡状态
+	/**
+	 * 打蜡和抛光之间的通知方式
+	 */
+	enum Signalling {
+		/**
+		 * 锁和条件
+		 */
+		CONDITION,
+		/**
+		 * 自旋、让出CPU、休眠，阈值根据等待时间调整
+		 */
+		ADAPTIVE
+	}
+
+	private final Lock lock = new ReentrantLock();
+	private final Condition waxedCondition = lock.newCondition();// 已打蜡
+	private final Condition buffedCondition = lock.newCondition();// 已抛光
+	private volatile boolean waxOn = false;// 打蜡状态
+	private final AdaptiveSignal waxedSignal;// ADAPTIVE模式下的已打蜡信号，否则为null
+	private final AdaptiveSignal buffedSignal;
+	private final BooleanSupplier isWaxed = new BooleanSupplier() {
+		@Override
+		public boolean getAsBoolean() {
+			return waxOn;
+		}
+	};
+	private final BooleanSupplier isBuffed = new BooleanSupplier() {
+		@Override
+		public boolean getAsBoolean() {
+			return !waxOn;
+		}
+	};
+
+	public Car() {
+		this(Signalling.CONDITION);
+	}
+
+	public Car(Signalling signalling) {
+		boolean adaptive = signalling == Signalling.ADAPTIVE;
+		this.waxedSignal = adaptive ? new AdaptiveSignal() : null;
+		this.buffedSignal = adaptive ? new AdaptiveSignal() : null;
+	}
 
 	/**
 	 * 打蜡
 	 */
-	public synchronized void waxed() {
-		waxOn = true;
-		this.notifyAll();
+	public void waxed() {
+		if (waxedSignal != null) {
+			waxOn = true;
+			waxedSignal.signal();
+			return;
+		}
+		lock.lock();
+		try {
+			waxOn = true;
+			waxedCondition.signalAll();
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	/**
 	 * 抛光
 	 */
-	public synchronized void buffed() {
-		waxOn = false;
-		this.notifyAll();
+	public void buffed() {
+		if (buffedSignal != null) {
+			waxOn = false;
+			buffedSignal.signal();
+			return;
+		}
+		lock.lock();
+		try {
+			waxOn = false;
+			buffedCondition.signalAll();
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	/**
@@ -117,10 +265,19 @@ class Car {
 	 * 
 	 * @throws InterruptedException
 	 */
-	public synchronized void waitForWaxing() throws InterruptedException {
-		// while (waxOn == false) {
-		if (waxOn == false) {
-			this.wait();
+	public void waitForWaxing() throws InterruptedException {
+		if (waxedSignal != null) {
+			waxedSignal.await(isWaxed);
+			return;
+		}
+		lock.lock();
+		try {
+			// Condition允许虚假唤醒，必须在循环中检查条件
+			while (waxOn == false) {
+				waxedCondition.await();
+			}
+		} finally {
+			lock.unlock();
 		}
 	}
 
@@ -129,11 +286,47 @@ class Car {
 	 * 
 	 * @throws InterruptedException
 	 */
-	public synchronized void waitForBuffing() throws InterruptedException {
-		// while (waxOn == true) {
-		if (waxOn == true) {
-			this.wait();
+	public void waitForBuffing() throws InterruptedException {
+		if (buffedSignal != null) {
+			buffedSignal.await(isBuffed);
+			return;
 		}
+		lock.lock();
+		try {
+			while (waxOn == true) {
+				buffedCondition.await();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * 向监视器登记打蜡和抛光两个条件的名称
+	 * 
+	 * @param monitor
+	 * @param name
+	 */
+	void watch(ContentionMonitor monitor, String name) {
+		monitor.watch(name + " 等待打蜡", waxedCondition);
+		monitor.watch(name + " 等待抛光", buffedCondition);
+		if (waxedSignal != null) {
+			monitor.watch(name + " 等待打蜡", waxedSignal);
+			monitor.watch(name + " 等待抛光", buffedSignal);
+		}
+	}
+
+	/**
+	 * ADAPTIVE模式下等待打蜡的信号，用于查看自旋、让出和休眠的次数
+	 * 
+	 * @return CONDITION模式下为null
+	 */
+	AdaptiveSignal waxedSignal() {
+		return waxedSignal;
+	}
+
+	AdaptiveSignal buffedSignal() {
+		return buffedSignal;
 	}
 
 }
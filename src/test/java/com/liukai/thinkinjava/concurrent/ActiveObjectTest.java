@@ -0,0 +1,105 @@
+package com.liukai.thinkinjava.concurrent;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 活动对象测试类
+ */
+public class ActiveObjectTest {
+
+    @Test
+    public void requestsRunOneAtATimeInBatches() throws Exception {
+        ActiveObject active = new ActiveObject(1000, ActiveObject.Overflow.BLOCK, 64);
+        final int[] counter = {0};//只由活动对象的线程修改，不需要同步
+        List<CompletableFuture<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            results.add(active.call(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return counter[0]++;
+                }
+            }));
+        }
+        active.shutdown().get(10, TimeUnit.SECONDS);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, results.get(i).get().intValue());
+        }
+        assertEquals(1000, active.processed());
+        assertTrue(active.batches() < 1000);
+        //关闭后拒绝新请求
+        assertRejected(active.call(constant(0)));
+    }
+
+    @Test
+    public void fullMailboxRejectsOrDropsOldest() throws Exception {
+        for (ActiveObject.Overflow overflow : new ActiveObject.Overflow[]{
+                ActiveObject.Overflow.REJECT, ActiveObject.Overflow.DROP_OLDEST}) {
+            ActiveObject active = new ActiveObject(2, overflow, 8);
+            //第一个请求阻塞活动对象的线程，后面的请求留在邮箱中
+            final CountDownLatch started = new CountDownLatch(1);
+            final CountDownLatch release = new CountDownLatch(1);
+            CompletableFuture<Integer> blocker = active.call(new Callable<Integer>() {
+                @Override
+                public Integer call() throws InterruptedException {
+                    started.countDown();
+                    release.await();
+                    return -1;
+                }
+            });
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            CompletableFuture<Integer> first = active.call(constant(1));
+            CompletableFuture<Integer> second = active.call(constant(2));
+            CompletableFuture<Integer> third = active.call(constant(3));
+            assertEquals(2, active.mailboxSize());
+            release.countDown();
+            active.shutdown().get(10, TimeUnit.SECONDS);
+            assertEquals(-1, blocker.get().intValue());
+            assertEquals(2, second.get().intValue());
+            if (overflow == ActiveObject.Overflow.REJECT) {
+                assertEquals(1, first.get().intValue());
+                assertRejected(third);
+            } else {
+                assertTrue(first.isCancelled() || first.isCompletedExceptionally());
+                try {
+                    first.get();
+                    fail();
+                } catch (CancellationException | ExecutionException e) {
+                    //被丢弃
+                }
+                assertEquals(3, third.get().intValue());
+                assertEquals(1, active.dropped());
+            }
+        }
+    }
+
+    private static Callable<Integer> constant(final int value) {
+        return new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return value;
+            }
+        };
+    }
+
+    private static void assertRejected(CompletableFuture<?> future) throws InterruptedException {
+        try {
+            future.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+    }
+
+}
@@ -0,0 +1,106 @@
+package com.liukai.thinkinjava.concurrent;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * 活动对象运行时测试类
+ */
+public class ActorRuntimeTest {
+
+    @Test
+    public void actorsProcessOneMessageAtATime() throws Exception {
+        ActorRuntime runtime = new ActorRuntime(4, 8, true);
+        final AtomicBoolean overlapped = new AtomicBoolean();
+        List<ActiveObject> actors = new ArrayList<>();
+        List<CompletableFuture<Integer>> last = new ArrayList<>();
+        for (int a = 0; a < 2000; a++) {
+            ActiveObject actor = runtime.newActor(100, ActiveObject.Overflow.BLOCK);
+            final AtomicInteger running = new AtomicInteger();
+            final int[] count = {0};
+            Callable<Integer> task = new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    if (running.incrementAndGet() != 1) {
+                        overlapped.set(true);
+                    }
+                    int result = ++count[0];
+                    running.decrementAndGet();
+                    return result;
+                }
+            };
+            CompletableFuture<Integer> result = null;
+            for (int i = 0; i < 100; i++) {
+                result = actor.call(task);
+            }
+            actors.add(actor);
+            last.add(result);
+        }
+        for (CompletableFuture<Integer> result : last) {
+            assertEquals(100, result.get(10, TimeUnit.SECONDS).intValue());
+        }
+        assertFalse(overlapped.get());
+        for (ActiveObject actor : actors) {
+            assertEquals(100, actor.metrics().processed());
+            assertTrue(actor.metrics().peakMailboxSize() > 0);
+            //每次调度最多处理8个消息
+            assertTrue(actor.batches() >= 100 / 8);
+        }
+        assertEquals(2000, runtime.actorCount());
+        runtime.shutdown().get(10, TimeUnit.SECONDS);
+        assertTrue(runtime.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void terminatedActorsAreReleased() throws Exception {
+        ActorRuntime runtime = new ActorRuntime(2, 8, false);
+        ActiveObject kept = runtime.newActor(10, ActiveObject.Overflow.BLOCK);
+        for (int a = 0; a < 100; a++) {
+            ActiveObject actor = runtime.newActor(10, ActiveObject.Overflow.BLOCK);
+            actor.call(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return 1;
+                }
+            });
+            actor.shutdown().get(10, TimeUnit.SECONDS);
+        }
+        //结束的活动对象不再被运行时引用，移除的回调可能在get()返回之后才执行完
+        for (int i = 0; i < 1000 && runtime.actorCount() > 1; i++) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertEquals(1, runtime.actorCount());
+        assertFalse(kept.terminated().isDone());
+        runtime.shutdown().get(10, TimeUnit.SECONDS);
+        assertTrue(runtime.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(0, runtime.actorCount());
+    }
+
+    @Test
+    public void metricsRecordLatency() throws Exception {
+        ActorMetrics metrics = new ActorMetrics();
+        metrics.processed(0, 500, 1000);
+        metrics.processed(0, 1000, 3000);
+        metrics.queued(3);
+        metrics.queued(1);
+        assertEquals(2, metrics.processed());
+        assertEquals(3, metrics.peakMailboxSize());
+        assertEquals(2000, metrics.meanLatency(), 0);
+        assertEquals(1250, metrics.meanServiceTime(), 0);
+        assertEquals(3000, metrics.maxLatency());
+        //1000在[512, 1024)的桶中，百分位数返回桶的上界，但不超过最大值
+        assertEquals(1023, metrics.latencyPercentile(50));
+        assertEquals(3000, metrics.latencyPercentile(99));
+        assertEquals(2, metrics.latencies().count());
+    }
+
+}
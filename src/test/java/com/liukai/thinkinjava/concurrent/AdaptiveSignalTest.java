@@ -0,0 +1,88 @@
+package com.liukai.thinkinjava.concurrent;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+
+/**
+ * 自适应信号测试类
+ */
+public class AdaptiveSignalTest {
+
+    @Test
+    public void adaptiveCarPingPong() throws InterruptedException {
+        final Car car = new Car(Car.Signalling.ADAPTIVE);
+        final int rounds = 100000;
+        Thread buffer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < rounds; i++) {
+                        car.waitForWaxing();
+                        car.buffed();
+                    }
+                } catch (InterruptedException e) {
+                    //结束
+                }
+            }
+        });
+        buffer.start();
+        for (int i = 0; i < rounds; i++) {
+            car.waxed();
+            car.waitForBuffing();
+        }
+        buffer.join(10000);
+        assertFalse(buffer.isAlive());
+        AdaptiveSignal waxed = car.waxedSignal();
+        assertTrue(waxed.spinWakeups() + waxed.yieldWakeups() + waxed.parkWakeups() > 0);
+    }
+
+    @Test
+    public void longWaitsParkAndShortenSpinning() throws InterruptedException {
+        final AdaptiveSignal signal = new AdaptiveSignal();
+        final AtomicBoolean ready = new AtomicBoolean();
+        final AtomicInteger woken = new AtomicInteger();
+        final BooleanSupplier isReady = new BooleanSupplier() {
+            @Override
+            public boolean getAsBoolean() {
+                return ready.get();
+            }
+        };
+        final AtomicBoolean interrupted = new AtomicBoolean();
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        signal.await(isReady);
+                        ready.set(false);
+                        woken.incrementAndGet();
+                    }
+                } catch (InterruptedException e) {
+                    interrupted.set(true);
+                }
+            }
+        });
+        waiter.start();
+        for (int i = 1; i <= 5; i++) {
+            //等待时间远超过自旋时间，等待的线程休眠后被唤醒
+            TimeUnit.MILLISECONDS.sleep(5);
+            ready.set(true);
+            signal.signal();
+            while (woken.get() < i) {
+                Thread.yield();
+            }
+        }
+        assertTrue(signal.parkWakeups() > 0);
+        assertEquals(AdaptiveSignal.MIN_SPIN_NANOS, signal.spinNanos());
+        waiter.interrupt();
+        waiter.join(10000);
+        assertTrue(interrupted.get());
+    }
+
+}
@@ -0,0 +1,52 @@
+package com.liukai.thinkinjava.concurrent;
+
+import org.junit.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * 离散事件银行出纳员仿真测试类
+ */
+public class BankTellerEventSimulationTest {
+
+    @Test
+    public void sameSeedSameResult() {
+        BankTellerEventSimulation.SimulationResult first = new BankTellerEventSimulation(47).runCustomers(100000);
+        BankTellerEventSimulation.SimulationResult second = new BankTellerEventSimulation(47).runCustomers(100000);
+        assertEquals(first, second);
+        assertEquals(100000, first.customersServed);
+
+        BankTellerEventSimulation.SimulationResult other = new BankTellerEventSimulation(48).runCustomers(100000);
+        assertFalse(first.equals(other));
+    }
+
+    @Test
+    public void virtualTimeAdvances() {
+        BankTellerEventSimulation.SimulationResult result = new BankTellerEventSimulation(47).runFor(60000);
+        assertEquals(60000, result.virtualTime);
+        //平均每150ms到达一个顾客
+        assertTrue(result.customersArrived > 300 && result.customersArrived < 500);
+        assertTrue(result.customersServed <= result.customersArrived);
+        assertTrue(result.maxLineSize <= 50);
+        assertTrue(result.maxTellers > 1);
+    }
+
+    @Test
+    public void sweepIndependentOfParallelism() throws Exception {
+        ForkJoinPool single = new ForkJoinPool(1);
+        ForkJoinPool parallel = new ForkJoinPool(4);
+        BankTellerSweep.SweepResult first = BankTellerSweep.sweep(single, BankTellerEventSimulation.Config.DEFAULT,
+                16, 60000, 47);
+        BankTellerSweep.SweepResult second = BankTellerSweep.sweep(parallel, BankTellerEventSimulation.Config.DEFAULT,
+                16, 60000, 47);
+        single.shutdown();
+        parallel.shutdown();
+        assertEquals(16, first.replications);
+        assertEquals(first.customersServed, second.customersServed);
+        assertEquals(first.waitTimes, second.waitTimes);
+        assertEquals(first.lineSizes, second.lineSizes);
+    }
+
+}
@@ -0,0 +1,159 @@
+package com.liukai.thinkinjava.concurrent;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.Assert.*;
+
+/**
+ * 死锁和锁竞争监视器测试类
+ */
+public class ContentionMonitorTest {
+
+    /**
+     * 采样直到确认死锁
+     *
+     * @param monitor
+     * @return
+     * @throws InterruptedException
+     */
+    private static ContentionMonitor.Deadlock awaitDeadlock(ContentionMonitor monitor) throws InterruptedException {
+        for (int i = 0; i < 500; i++) {
+            List<ContentionMonitor.Deadlock> deadlocks = monitor.sample();
+            if (!deadlocks.isEmpty()) {
+                assertEquals(1, deadlocks.size());
+                return deadlocks.get(0);
+            }
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        fail("没有发现死锁");
+        return null;
+    }
+
+    @Test
+    public void detectsLockOrderingDeadlock() throws InterruptedException {
+        final ReentrantLock first = new ReentrantLock();
+        final ReentrantLock second = new ReentrantLock();
+        final CountDownLatch holding = new CountDownLatch(2);
+        Thread a = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                lockBoth(first, second, holding);
+            }
+        });
+        Thread b = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                lockBoth(second, first, holding);
+            }
+        });
+        a.start();
+        b.start();
+        ContentionMonitor monitor = new ContentionMonitor();
+        try {
+            ContentionMonitor.Deadlock deadlock = awaitDeadlock(monitor);
+            assertEquals(2, deadlock.threadIds().length);
+            assertTrue(deadlock.threadNames().contains(a.getName()));
+            assertTrue(deadlock.threadNames().contains(b.getName()));
+            assertTrue(deadlock.stack(0).length > 0);
+            //同一个死锁只报告一次
+            assertTrue(monitor.sample().isEmpty());
+            assertTrue(monitor.topContended(1).get(0).blockedNanos() > 0);
+        } finally {
+            a.interrupt();
+            b.interrupt();
+            a.join();
+            b.join();
+        }
+    }
+
+    /**
+     * 拿着一把锁等待另一把锁
+     */
+    private static void lockBoth(ReentrantLock held, ReentrantLock wanted, CountDownLatch holding) {
+        held.lock();
+        try {
+            holding.countDown();
+            holding.await();
+            wanted.lockInterruptibly();
+            wanted.unlock();
+        } catch (InterruptedException e) {
+            //测试结束
+        } finally {
+            held.unlock();
+        }
+    }
+
+    @Test
+    public void detectsDeadlockOnWatchedResources() throws InterruptedException {
+        ContentionMonitor monitor = new ContentionMonitor();
+        final Chopstick left = new Chopstick();
+        final Chopstick right = new Chopstick();
+        left.watch(monitor, "左边的筷子");
+        right.watch(monitor, "右边的筷子");
+        final CountDownLatch holding = new CountDownLatch(2);
+        Thread a = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                takeBoth(left, right, holding);
+            }
+        });
+        Thread b = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                takeBoth(right, left, holding);
+            }
+        });
+        a.start();
+        b.start();
+        try {
+            //筷子只是一个标记，JVM自己发现不了这个死锁
+            ContentionMonitor.Deadlock deadlock = awaitDeadlock(monitor);
+            assertTrue(deadlock.locks().contains("左边的筷子"));
+            assertTrue(deadlock.locks().contains("右边的筷子"));
+            List<ContentionMonitor.Contention> top = monitor.topContended(2);
+            assertEquals(2, top.size());
+            assertTrue(top.get(0).name().endsWith("的筷子"));
+            assertEquals(1, top.get(0).maxBlockedThreads());
+        } finally {
+            a.interrupt();
+            b.interrupt();
+            a.join();
+            b.join();
+        }
+    }
+
+    /**
+     * 拿着一根筷子等待另一根筷子
+     */
+    private static void takeBoth(Chopstick held, Chopstick wanted, CountDownLatch holding) {
+        try {
+            held.take();
+            holding.countDown();
+            holding.await();
+            wanted.take();
+        } catch (InterruptedException e) {
+            //测试结束
+        }
+    }
+
+    @Test
+    public void finishedTellersAreUnwatched() throws InterruptedException {
+        ContentionMonitor monitor = new ContentionMonitor();
+        Teller teller = new Teller(new CustomerLine(1), new BankTellerTelemetry());
+        teller.watch(monitor);
+        assertEquals(1, monitor.watchedCount());
+        Thread thread = new Thread(teller);
+        thread.start();
+        //出纳员在空的顾客队列上等待，被中断后结束
+        thread.interrupt();
+        thread.join(10000);
+        assertFalse(thread.isAlive());
+        assertEquals(0, monitor.watchedCount());
+    }
+
+}
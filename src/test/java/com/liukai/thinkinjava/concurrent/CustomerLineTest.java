@@ -0,0 +1,100 @@
+package com.liukai.thinkinjava.concurrent;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 顾客队列测试类
+ */
+public class CustomerLineTest {
+
+    /**
+     * 在后台线程中放入顾客，队列已满时阻塞
+     *
+     * @param line
+     * @param customer
+     * @return
+     */
+    private static Thread blockedPut(final CustomerLine line, final Customer customer) throws InterruptedException {
+        Thread generator = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    line.put(customer);
+                } catch (InterruptedException e) {
+                    //结束
+                }
+            }
+        });
+        generator.start();
+        //队列已满，生成者阻塞在put()上
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertTrue(generator.isAlive());
+        return generator;
+    }
+
+    @Test
+    public void enqueueTimeExcludesBlockedPut() throws InterruptedException {
+        CustomerLine line = new CustomerLine(1);
+        Customer first = new Customer(0);
+        line.put(first);
+        Customer second = new Customer(0);
+        Thread generator = blockedPut(line, second);
+        long beforeTake = System.nanoTime();
+        assertSame(first, line.take());
+        generator.join(10000);
+        assertFalse(generator.isAlive());
+        //入队时间是空出位置之后，而不是创建顾客或者开始阻塞的时间
+        assertTrue(second.getEnqueueTime() - beforeTake >= 0);
+        assertSame(second, line.take());
+
+        //限时的offer()也在入队时记录时间
+        line.put(first);
+        long beforeOffer = System.nanoTime();
+        assertFalse(line.offer(second, 10, TimeUnit.MILLISECONDS));
+        line.clear();
+        assertTrue(line.offer(second, 10, TimeUnit.MILLISECONDS));
+        assertTrue(second.getEnqueueTime() - beforeOffer >= TimeUnit.MILLISECONDS.toNanos(10));
+    }
+
+    @Test
+    public void everyRemovalWakesBlockedProducers() throws InterruptedException {
+        CustomerLine line = new CustomerLine(2);
+        List<Customer> removed = new ArrayList<>();
+        for (int round = 0; round < 4; round++) {
+            Customer a = new Customer(0);
+            Customer b = new Customer(1);
+            line.put(a);
+            line.put(b);
+            Thread generator = blockedPut(line, new Customer(2));
+            switch (round) {
+                case 0:
+                    assertTrue(line.remove(a));
+                    break;
+                case 1:
+                    line.clear();
+                    break;
+                case 2:
+                    Iterator<Customer> it = line.iterator();
+                    it.next();
+                    it.remove();
+                    break;
+                default:
+                    assertTrue(line.removeIf(c -> c.getServiceTime() == 1));
+                    break;
+            }
+            generator.join(10000);
+            assertFalse("round " + round, generator.isAlive());
+            line.drainTo(removed);
+            assertEquals(0, line.size());
+        }
+        assertEquals(2, line.remainingCapacity());
+    }
+
+}
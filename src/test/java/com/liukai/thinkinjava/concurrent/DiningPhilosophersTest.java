@@ -0,0 +1,39 @@
+package com.liukai.thinkinjava.concurrent;
+
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 哲学家就餐引擎测试类
+ */
+public class DiningPhilosophersTest {
+
+    @Test
+    public void everyStrategyFeedsEveryPhilosopher() throws InterruptedException {
+        for (DiningPhilosophers.Strategy strategy : DiningPhilosophers.Strategy.values()) {
+            DiningPhilosophers table = new DiningPhilosophers(50, strategy, TimeUnit.MICROSECONDS.toNanos(50),
+                    TimeUnit.MICROSECONDS.toNanos(50));
+            ExecutorService es = Executors.newCachedThreadPool();
+            DiningPhilosophers.Result result = table.run(es, 500, TimeUnit.MILLISECONDS);
+            es.shutdown();
+            assertTrue(es.awaitTermination(10, TimeUnit.SECONDS));
+            assertEquals(strategy.name(), 0, result.starved());
+            assertTrue(strategy.name(), result.fairness() > 0.5);
+        }
+    }
+
+    @Test
+    public void fairnessIndex() {
+        DiningPhilosophers.Result equal = new DiningPhilosophers.Result(new long[]{5, 5, 5, 5}, new long[4], 1);
+        assertEquals(1.0, equal.fairness(), 1e-9);
+        DiningPhilosophers.Result single = new DiningPhilosophers.Result(new long[]{8, 0, 0, 0}, new long[4], 1);
+        assertEquals(0.25, single.fairness(), 1e-9);
+        assertEquals(3, single.starved());
+    }
+
+}
@@ -0,0 +1,89 @@
+package com.liukai.thinkinjava.concurrent;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+
+/**
+ * 双缓冲流水线测试类
+ */
+public class DoubleBufferPipelineTest {
+
+    @Test
+    public void everyPairReceivesAllItemsInOrder() throws Exception {
+        final DoubleBufferPipeline<Integer> pipeline = new DoubleBufferPipeline<>(3, 16);
+        ExecutorService es = Executors.newCachedThreadPool();
+        List<Future<?>> producers = new ArrayList<>();
+        List<Future<List<Integer>>> results = new ArrayList<>();
+        for (int i = 0; i < pipeline.pairs(); i++) {
+            final DoubleBufferPipeline.Channel<Integer> channel = pipeline.channel(i);
+            //1000不是16的倍数，最后一个缓冲区没有填满
+            producers.add(es.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int n = 0; n < 1000; n++) {
+                            channel.put(n);
+                        }
+                        channel.close();
+                    } catch (InterruptedException e) {
+                        //结束
+                    }
+                }
+            }));
+            results.add(es.submit(() -> {
+                final List<Integer> received = new ArrayList<>();
+                Consumer<Integer> sink = new Consumer<Integer>() {
+                    @Override
+                    public void accept(Integer n) {
+                        received.add(n);
+                    }
+                };
+                while (channel.drainTo(sink) >= 0) {
+                    //继续交换
+                }
+                return received;
+            }));
+        }
+        for (int i = 0; i < results.size(); i++) {
+            List<Integer> received = results.get(i).get(10, TimeUnit.SECONDS);
+            assertEquals(1000, received.size());
+            for (int n = 0; n < 1000; n++) {
+                assertEquals(n, received.get(n).intValue());
+            }
+            //每个满的缓冲区一次交换，加上关闭时的一次；生产者在交换返回后才计数
+            producers.get(i).get(10, TimeUnit.SECONDS);
+            assertEquals(1000 / 16 + 1, pipeline.channel(i).exchanges());
+        }
+        es.shutdown();
+    }
+
+    @Test
+    public void drainedBufferIsEmptyAndReused() {
+        ExchangeBuffer<String> buffer = new ExchangeBuffer<>(2);
+        assertTrue(buffer.add("a"));
+        assertTrue(buffer.add("b"));
+        assertTrue(buffer.isFull());
+        assertFalse(buffer.add("c"));
+        final StringBuilder drained = new StringBuilder();
+        assertEquals(2, buffer.drainTo(new Consumer<String>() {
+            @Override
+            public void accept(String s) {
+                drained.append(s);
+            }
+        }));
+        assertEquals("ab", drained.toString());
+        assertTrue(buffer.isEmpty());
+        assertTrue(buffer.add("c"));
+        assertEquals("c", buffer.get(0));
+    }
+
+}
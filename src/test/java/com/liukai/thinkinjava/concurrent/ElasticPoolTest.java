@@ -0,0 +1,86 @@
+package com.liukai.thinkinjava.concurrent;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+/**
+ * 弹性对象池测试类
+ */
+public class ElasticPoolTest {
+
+    private static final Supplier<Fat> FAT_FACTORY = new Supplier<Fat>() {
+        @Override
+        public Fat get() {
+            return new Fat();
+        }
+    };
+
+    @Test
+    public void createOnDemand() throws InterruptedException {
+        ElasticPool<Fat> pool = new ElasticPool<>(FAT_FACTORY, 0, 4, 1, TimeUnit.MINUTES);
+        assertEquals(0, pool.size());
+        Fat fat = pool.checkOut();
+        assertEquals(1, pool.size());
+        pool.checkIn(fat);
+        assertSame(fat, pool.checkOut());
+        assertEquals(1, pool.size());
+
+        pool.checkOut(3);
+        assertEquals(4, pool.size());
+        assertNull(pool.tryCheckOut());
+        pool.close();
+    }
+
+    @Test
+    public void rejectBatchLargerThanMax() throws InterruptedException {
+        ElasticPool<Fat> pool = new ElasticPool<>(FAT_FACTORY, 0, 4, 1, TimeUnit.MINUTES);
+        try {
+            pool.checkOut(5);
+            fail();
+        } catch (IllegalArgumentException e) {
+            //超过max的批量签出永远无法满足
+        }
+        assertEquals(0, pool.size());
+        assertEquals(4, pool.checkOut(4).size());
+        pool.close();
+    }
+
+    @Test
+    public void equalItemsAreTrackedSeparately() throws InterruptedException {
+        ElasticPool<String> pool = new ElasticPool<>(new Supplier<String>() {
+            @Override
+            public String get() {
+                //相等但不是同一个对象
+                return new String("item");
+            }
+        }, 0, 2, 1, TimeUnit.MINUTES);
+        List<String> list = pool.checkOut(2);
+        assertNotSame(list.get(0), list.get(1));
+        pool.checkIn(list.get(0));
+        pool.checkIn(list.get(1));
+        assertEquals(2, pool.idleSize());
+        assertEquals(2, pool.checkOut(2).size());
+        pool.close();
+    }
+
+    @Test
+    public void evictIdleItems() throws InterruptedException {
+        ElasticPool<Fat> pool = new ElasticPool<>(FAT_FACTORY, 1, 4, 20, TimeUnit.MILLISECONDS);
+        List<Fat> list = pool.checkOut(4);
+        pool.checkInAll(list);
+        pool.checkInAll(list);
+        assertEquals(4, pool.idleSize());
+        for (int i = 0; i < 50 && pool.size() > 1; i++) {
+            TimeUnit.MILLISECONDS.sleep(20);
+        }
+        assertEquals(1, pool.size());
+        assertEquals(1, pool.idleSize());
+        pool.close();
+    }
+
+}
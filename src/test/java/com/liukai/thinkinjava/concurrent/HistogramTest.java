@@ -0,0 +1,65 @@
+package com.liukai.thinkinjava.concurrent;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 直方图测试类
+ */
+public class HistogramTest {
+
+    @Test
+    public void compactBucketsArePowersOfTwo() {
+        assertEquals(64, Histogram.bucketCount(Histogram.COMPACT));
+        assertEquals(0, Histogram.bucketOf(0, Histogram.COMPACT));
+        assertEquals(1, Histogram.bucketOf(1, Histogram.COMPACT));
+        assertEquals(2, Histogram.bucketOf(2, Histogram.COMPACT));
+        assertEquals(2, Histogram.bucketOf(3, Histogram.COMPACT));
+        assertEquals(12, Histogram.bucketOf(4095, Histogram.COMPACT));
+        assertEquals(63, Histogram.bucketOf(Long.MAX_VALUE, Histogram.COMPACT));
+        assertEquals(Histogram.bucketCount(Histogram.PRECISE) - 1, Histogram.bucketOf(Long.MAX_VALUE, Histogram.PRECISE));
+
+        Histogram h = new Histogram(Histogram.COMPACT);
+        for (int i = 0; i < 99; i++) {
+            h.record(1000);
+        }
+        h.record(3000);
+        //1000所在的桶是[512, 1023]，百分位数返回桶的上界
+        assertEquals(1023, h.percentile(50));
+        assertEquals(3000, h.percentile(100));
+    }
+
+    @Test
+    public void concurrentSnapshotKeepsPrecision() throws InterruptedException {
+        final ConcurrentHistogram concurrent = ConcurrentHistogram.compact();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        concurrent.record(i);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40000, concurrent.count());
+        assertEquals(9999, concurrent.max());
+        Histogram snapshot = concurrent.snapshot();
+        assertEquals(Histogram.COMPACT, snapshot.precision());
+        assertEquals(40000, snapshot.count());
+        assertEquals(snapshot, new Histogram(Histogram.COMPACT).merge(snapshot));
+        try {
+            new Histogram().merge(snapshot);
+            fail("精度不同的直方图不能合并");
+        } catch (IllegalArgumentException e) {
+            //桶的划分不同
+        }
+    }
+
+}
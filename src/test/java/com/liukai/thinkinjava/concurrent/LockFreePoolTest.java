@@ -0,0 +1,181 @@
+package com.liukai.thinkinjava.concurrent;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * 无锁对象池测试类
+ */
+public class LockFreePoolTest {
+
+    @Test
+    public void checkOutAllItems() throws InterruptedException {
+        LockFreePool<Fat> pool = new LockFreePool<>(Fat.class, 10);
+        List<Fat> list = new ArrayList<>();
+        for (int i = 0; i < pool.size(); i++) {
+            Fat fat = pool.checkOut();
+            assertFalse(list.contains(fat));
+            list.add(fat);
+        }
+    }
+
+    @Test
+    public void rejectDoubleCheckIn() throws Exception {
+        final LockFreePool<Fat> pool = new LockFreePool<>(Fat.class, 2);
+        Fat a = pool.checkOut();
+        pool.checkOut();
+        pool.checkIn(a);
+        pool.checkIn(a);
+        pool.checkIn(new Fat());
+        assertSame(a, pool.checkOut());
+
+        ExecutorService es = Executors.newSingleThreadExecutor();
+        Future<Fat> blocked = es.submit((Callable<Fat>) pool::checkOut);
+        try {
+            blocked.get(200, TimeUnit.MILLISECONDS);
+            fail("重复签入的对象被签出了两次");
+        } catch (TimeoutException e) {
+            //没有可用的对象，签出被阻塞
+        } finally {
+            es.shutdownNow();
+        }
+    }
+
+    @Test
+    public void tryAndBatchCheckOut() throws InterruptedException {
+        LockFreePool<Fat> pool = new LockFreePool<>(Fat.class, 4);
+        List<Fat> batch = pool.checkOut(3);
+        assertEquals(3, batch.size());
+        Fat last = pool.tryCheckOut();
+        assertNotNull(last);
+        assertNull(pool.tryCheckOut());
+        assertNull(pool.tryCheckOut(50, TimeUnit.MILLISECONDS));
+
+        pool.checkInAll(batch);
+        pool.checkInAll(batch);
+        assertEquals(3, pool.checkOut(3).size());
+        assertNull(pool.tryCheckOut());
+    }
+
+    @Test
+    public void rejectBatchLargerThanPool() throws InterruptedException {
+        List<ObjectPool<Fat>> pools = new ArrayList<>();
+        pools.add(new LockFreePool<>(Fat.class, 4));
+        pools.add(new Pool<>(Fat.class, 4));
+        for (ObjectPool<Fat> pool : pools) {
+            for (int n : new int[]{-1, 5}) {
+                try {
+                    pool.checkOut(n);
+                    fail("n = " + n);
+                } catch (IllegalArgumentException e) {
+                    //永远无法满足的批量签出直接拒绝，而不是一直阻塞
+                }
+            }
+            assertEquals(4, pool.checkOut(4).size());
+            assertNull(pool.tryCheckOut());
+        }
+    }
+
+    @Test
+    public void metricsAndLeakDetection() throws InterruptedException {
+        LockFreePool<Fat> pool = new LockFreePool<>(Fat.class, 4);
+        PoolMetrics metrics = pool.enableMetrics();
+        final List<Integer> leaks = new ArrayList<>();
+        metrics.enableLeakDetection(10, TimeUnit.MILLISECONDS, new PoolMetrics.LeakListener() {
+            @Override
+            public void leakDetected(int slot, long heldNanos, Throwable checkOutTrace) {
+                synchronized (leaks) {
+                    leaks.add(slot);
+                }
+            }
+        });
+        List<Fat> batch = pool.checkOut(3);
+        assertNotNull(pool.tryCheckOut());
+        assertEquals(4, metrics.inUse());
+        assertNull(pool.tryCheckOut(1, TimeUnit.MILLISECONDS));
+        pool.checkInAll(batch);
+        assertEquals(1, metrics.inUse());
+        assertEquals(4, metrics.peakInUse());
+        assertEquals(1, metrics.timeouts());
+        assertEquals(4, metrics.waitTimes().count());
+        assertEquals(3, metrics.holdTimes().count());
+
+        TimeUnit.MILLISECONDS.sleep(100);
+        metrics.disableLeakDetection();
+        synchronized (leaks) {
+            assertFalse(leaks.isEmpty());
+            assertEquals(leaks.size(), new HashSet<>(leaks).size());
+        }
+    }
+
+    @Test
+    public void concurrentCheckOut() throws Exception {
+        final LockFreePool<Item> pool = new LockFreePool<>(Item.class, 4);
+        final AtomicBoolean shared = new AtomicBoolean();
+        ExecutorService es = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(es.submit(() -> {
+                for (int j = 0; j < 10000; j++) {
+                    Item item = pool.checkOut();
+                    if (!item.inUse.compareAndSet(false, true)) {
+                        shared.set(true);
+                    }
+                    item.inUse.set(false);
+                    pool.checkIn(item);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        es.shutdown();
+        assertFalse("同一个对象同时被多个线程签出", shared.get());
+    }
+
+    @Test
+    public void manyShortLivedThreads() throws InterruptedException {
+        final LockFreePool<Fat> pool = new LockFreePool<>(Fat.class, 4);
+        //每个线程签入的对象留在它映射到的缓存中，线程结束后仍然可以被其他线程签出
+        for (int i = 0; i < 200; i++) {
+            Thread t = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        pool.checkIn(pool.checkOut());
+                    } catch (InterruptedException e) {
+                        //结束
+                    }
+                }
+            });
+            t.start();
+            t.join();
+        }
+        List<Fat> all = new ArrayList<>();
+        for (int i = 0; i < pool.size(); i++) {
+            Fat fat = pool.tryCheckOut();
+            assertNotNull(fat);
+            assertFalse(all.contains(fat));
+            all.add(fat);
+        }
+        assertNull(pool.tryCheckOut());
+    }
+
+    public static class Item {
+        final AtomicBoolean inUse = new AtomicBoolean();
+    }
+
+}
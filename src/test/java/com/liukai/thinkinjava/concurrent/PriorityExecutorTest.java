@@ -0,0 +1,135 @@
+package com.liukai.thinkinjava.concurrent;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.*;
+
+/**
+ * 多消费者优先级执行器测试类
+ */
+public class PriorityExecutorTest {
+
+    @Test
+    public void higherPrioritiesRunFirst() throws InterruptedException {
+        PriorityExecutor executor = new PriorityExecutor(1, 0, TimeUnit.MILLISECONDS);
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        //第一个任务占住工作线程，其余的任务全部排队后再开始执行
+        final CountDownLatch release = new CountDownLatch(1);
+        executor.execute(PriorityExecutor.MAX_PRIORITY, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    //结束
+                }
+            }
+        });
+        for (int i = 0; i <= PriorityExecutor.MAX_PRIORITY; i++) {
+            final int priority = i;
+            executor.execute(priority, new Runnable() {
+                @Override
+                public void run() {
+                    order.add(priority);
+                }
+            });
+        }
+        release.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(PriorityExecutor.MAX_PRIORITY + 1, order.size());
+        for (int i = 0; i <= PriorityExecutor.MAX_PRIORITY; i++) {
+            assertEquals(PriorityExecutor.MAX_PRIORITY - i, order.get(i).intValue());
+        }
+        assertEquals(0, executor.aged());
+        try {
+            executor.execute(new PrioritizedTask(1));
+            fail();
+        } catch (RejectedExecutionException e) {
+            //关闭后拒绝新任务
+        }
+    }
+
+    @Test
+    public void agedTasksAreNotStarved() throws InterruptedException {
+        final PriorityExecutor executor = new PriorityExecutor(4, 1, TimeUnit.MILLISECONDS);
+        final AtomicInteger lowDone = new AtomicInteger();
+        final CountDownLatch stop = new CountDownLatch(1);
+        //持续提交最高优先级的任务，队列中一直有高优先级的任务
+        Thread flood = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Runnable busy = new Runnable() {
+                    @Override
+                    public void run() {
+                        //短暂地占用工作线程
+                        LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+                    }
+                };
+                while (stop.getCount() > 0) {
+                    while (executor.queued() < 200) {
+                        executor.execute(PriorityExecutor.MAX_PRIORITY, busy);
+                    }
+                    Thread.yield();
+                }
+            }
+        });
+        flood.start();
+        while (executor.queued() < 100) {
+            Thread.yield();
+        }
+        for (int i = 0; i < 10; i++) {
+            executor.execute(0, new Runnable() {
+                @Override
+                public void run() {
+                    lowDone.incrementAndGet();
+                }
+            });
+        }
+        for (int i = 0; i < 1000 && lowDone.get() < 10; i++) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        stop.countDown();
+        flood.join();
+        executor.shutdownNow();
+        assertEquals(10, lowDone.get());
+        assertTrue(executor.aged() > 0);
+        assertEquals(10, executor.executed(0));
+    }
+
+    @Test
+    public void submitKeepsPriorityAndErrorsDoNotKillWorkers() throws Exception {
+        PriorityExecutor executor = new PriorityExecutor(1, 0, TimeUnit.MILLISECONDS);
+        //submit()包装成FutureTask后仍然按PrioritizedTask的优先级执行
+        executor.submit(new PrioritizedTask(2)).get(10, TimeUnit.SECONDS);
+        assertEquals(1, executor.executed(2));
+        assertEquals(0, executor.executed(PriorityExecutor.NORM_PRIORITY));
+        //抛出Error的任务不会让唯一的工作线程退出
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                throw new AssertionError("任务失败");
+            }
+        });
+        final CountDownLatch ran = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ran.countDown();
+            }
+        });
+        assertTrue(ran.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+}
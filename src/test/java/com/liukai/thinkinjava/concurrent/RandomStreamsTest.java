@@ -0,0 +1,33 @@
+package com.liukai.thinkinjava.concurrent;
+
+import org.junit.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.Assert.*;
+
+/**
+ * 可复现的独立随机数流测试类
+ */
+public class RandomStreamsTest {
+
+    @Test
+    public void sameStreamSameSequence() {
+        SplittableRandom first = RandomStreams.stream(Horse.class, 3);
+        SplittableRandom second = RandomStreams.stream(Horse.class, 3);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(first.nextLong(), second.nextLong());
+        }
+    }
+
+    @Test
+    public void differentStreamsDiffer() {
+        //相邻的流编号和不同的类得到不同的序列
+        assertFalse(RandomStreams.stream(Horse.class, 0).nextLong() == RandomStreams.stream(Horse.class, 1).nextLong());
+        assertFalse(RandomStreams.stream(Horse.class, 0).nextLong()
+                == RandomStreams.stream(TaskPortion.class, 0).nextLong());
+        //BankTellerSweep的复制种子与流种子一致，原有的扫描结果不变
+        assertEquals(RandomStreams.seed(47, 2), BankTellerSweep.replicationSeed(47, 2));
+    }
+
+}
@@ -0,0 +1,77 @@
+package com.liukai.thinkinjava.concurrent;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+
+/**
+ * 环形缓冲区测试类
+ */
+public class RingBufferTest {
+
+    @Test
+    public void everyReaderSeesEveryItemInOrder() throws Exception {
+        //BUSY_SPIN在线程多于CPU时太慢，这里只测试会让出CPU的策略
+        for (RingBuffer.WaitStrategy waitStrategy : new RingBuffer.WaitStrategy[]{
+                RingBuffer.WaitStrategy.YIELD, RingBuffer.WaitStrategy.PARK}) {
+            //容量远小于元素数量，生产者必须等待最慢的消费者
+            final RingBuffer<Integer> ring = new RingBuffer<>(8, waitStrategy);
+            ExecutorService es = Executors.newCachedThreadPool();
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                final RingBuffer.Reader<Integer> reader = ring.newReader();
+                results.add(es.submit(() -> {
+                    final int[] expected = {0};
+                    final boolean[] ordered = {true};
+                    Consumer<Integer> sink = new Consumer<Integer>() {
+                        @Override
+                        public void accept(Integer n) {
+                            ordered[0] &= n == expected[0]++;
+                        }
+                    };
+                    while (expected[0] < 10000) {
+                        reader.drainTo(sink);
+                    }
+                    return ordered[0];
+                }));
+            }
+            for (int n = 0; n < 10000; n++) {
+                ring.put(n);
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(waitStrategy.name(), result.get(10, TimeUnit.SECONDS));
+            }
+            es.shutdown();
+        }
+    }
+
+    @Test
+    public void closedReaderNoLongerBlocksProducer() throws InterruptedException {
+        RingBuffer<Integer> ring = new RingBuffer<>(4, RingBuffer.WaitStrategy.YIELD);
+        RingBuffer.Reader<Integer> reader = ring.newReader();
+        for (int n = 0; n < 4; n++) {
+            ring.put(n);
+        }
+        assertEquals(0, reader.take().intValue());
+        assertEquals(0, reader.sequence());
+        reader.close();
+        //没有消费者时生产者可以一直写入
+        for (int n = 4; n < 100; n++) {
+            ring.put(n);
+        }
+        assertEquals(99, ring.cursor());
+        //预先创建的对象在槽位中循环使用
+        RingBuffer<StringBuilder> events = new RingBuffer<>(2, StringBuilder::new, RingBuffer.WaitStrategy.PARK);
+        StringBuilder first = events.get(0);
+        assertSame(first, events.get(2));
+    }
+
+}
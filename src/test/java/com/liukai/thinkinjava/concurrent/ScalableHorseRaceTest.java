@@ -0,0 +1,52 @@
+package com.liukai.thinkinjava.concurrent;
+
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * 可扩展赛马测试类
+ */
+public class ScalableHorseRaceTest {
+
+    @Test
+    public void sameSeedSameWinner() throws Exception {
+        ExecutorService es = Executors.newCachedThreadPool();
+        //300个任务需要两层Phaser
+        ScalableHorseRace.Result first = new ScalableHorseRace(1000, 300, 200, 47).run(es, Long.MAX_VALUE);
+        ScalableHorseRace.Result second = new ScalableHorseRace(1000, 300, 200, 47).run(es, Long.MAX_VALUE);
+        es.shutdown();
+        assertTrue(first.winner >= 0);
+        assertTrue(first.strides[first.winner] >= 200);
+        assertEquals(first.winner, second.winner);
+        assertEquals(first.rounds, second.rounds);
+        assertArrayEquals(first.strides, second.strides);
+        //获胜的马是最后一个回合中到达终点的编号最小的马
+        for (int i = 0; i < first.winner; i++) {
+            assertTrue(first.strides[i] < 200);
+        }
+    }
+
+    @Test
+    public void stopAfterMaxRounds() throws Exception {
+        ExecutorService es = Executors.newCachedThreadPool();
+        ScalableHorseRace race = new ScalableHorseRace(10000, 4, Integer.MAX_VALUE, 47);
+        ScalableHorseRace.Result result = race.run(es, 500);
+        assertEquals(-1, result.winner);
+        assertEquals(500, result.rounds);
+        long total = 0;
+        for (int s : result.strides) {
+            assertTrue(s <= 2 * 500);
+            total += s;
+        }
+        //每回合平均前进1步
+        assertEquals(10000 * 500, total, 10000 * 500 / 100);
+        //可以重复运行
+        assertEquals(500, race.run(es, 500).rounds);
+        es.shutdown();
+    }
+
+}
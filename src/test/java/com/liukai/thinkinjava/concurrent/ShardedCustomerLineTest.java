@@ -0,0 +1,81 @@
+package com.liukai.thinkinjava.concurrent;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 分片顾客队列测试类
+ */
+public class ShardedCustomerLineTest {
+
+    @Test
+    public void stealFromNeighbourLines() throws InterruptedException {
+        ShardedCustomerLine line = new ShardedCustomerLine(8, 10, ShardedCustomerLine.Placement.ROUND_ROBIN, 1);
+        for (int i = 0; i < 8; i++) {
+            assertEquals(i, line.put(new Customer(i)));
+        }
+        assertEquals(8, line.size());
+        //主队列和两个相邻队列
+        assertEquals(3, line.tryTake(3).getServiceTime());
+        assertEquals(2, line.tryTake(3).getServiceTime());
+        assertEquals(4, line.tryTake(3).getServiceTime());
+        //距离为2的队列不能窃取
+        assertNull(line.tryTake(3));
+        assertNull(line.poll(3, 1, TimeUnit.MILLISECONDS));
+
+        ShardedCustomerLine.Stats stats = line.stats();
+        assertEquals(8, stats.puts);
+        assertEquals(3, stats.takes);
+        assertEquals(2, stats.steals);
+        assertEquals(5, stats.size);
+    }
+
+    @Test
+    public void placementBalancesLines() throws InterruptedException {
+        ShardedCustomerLine shortest = new ShardedCustomerLine(4, 100, ShardedCustomerLine.Placement.JOIN_SHORTEST_QUEUE, 0);
+        ShardedCustomerLine twoChoices = new ShardedCustomerLine(4, 100, ShardedCustomerLine.Placement.POWER_OF_TWO_CHOICES, 0);
+        for (int i = 0; i < 200; i++) {
+            shortest.put(new Customer(i));
+            twoChoices.put(new Customer(i));
+        }
+        for (int i = 0; i < 4; i++) {
+            assertEquals(50, shortest.size(i));
+            //两个随机选择时最长和最短的队列相差很小
+            assertTrue("line " + i + ": " + twoChoices.size(i), Math.abs(twoChoices.size(i) - 50) <= 5);
+        }
+        assertEquals(1.0, shortest.stats().imbalance(), 0);
+    }
+
+    @Test
+    public void arrivalWakesTellersThatCanReachTheLine() throws Exception {
+        final ShardedCustomerLine line = new ShardedCustomerLine(4, 10, ShardedCustomerLine.Placement.ROUND_ROBIN, 1);
+        final Customer[] taken = new Customer[1];
+        Thread teller = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    taken[0] = line.take(2);
+                } catch (InterruptedException e) {
+                    //结束
+                }
+            }
+        });
+        teller.start();
+        TimeUnit.MILLISECONDS.sleep(50);
+        //队列0距离主队列2，出纳员不能从这里取，继续等待
+        assertEquals(0, line.put(new Customer(0)));
+        teller.join(50);
+        assertTrue(teller.isAlive());
+        //队列1与主队列相邻，入队唤醒出纳员
+        Customer neighbour = new Customer(1);
+        assertEquals(1, line.put(neighbour));
+        teller.join(10000);
+        assertFalse(teller.isAlive());
+        assertSame(neighbour, taken[0]);
+        assertEquals(1, line.size());
+    }
+
+}
@@ -0,0 +1,186 @@
+package com.liukai.thinkinjava.concurrent;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+
+/**
+ * 多阶段流水线测试类
+ */
+public class StagedPipelineTest {
+
+    /**
+     * 检查元素按顺序经过各个阶段的阶段
+     */
+    private static class Visit implements StagedPipeline.Stage<int[]> {
+
+        private final int stage;
+
+        Visit(int stage) {
+            this.stage = stage;
+        }
+
+        @Override
+        public void process(int[] item) {
+            if (item[0] != stage) {
+                throw new IllegalStateException("stage " + stage + " got item at " + item[0]);
+            }
+            item[0]++;
+        }
+    }
+
+    @Test
+    public void everyItemPassesEveryStageInOrder() throws InterruptedException {
+        List<Visit> stages = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            stages.add(new Visit(i));
+        }
+        final Queue<int[]> done = new ConcurrentLinkedQueue<>();
+        //队列很小，生产者经常需要等待下游
+        StagedPipeline<int[]> pipeline = new StagedPipeline<>(stages, 2, 4, RingBuffer.WaitStrategy.YIELD,
+                new Consumer<int[]>() {
+                    @Override
+                    public void accept(int[] item) {
+                        done.add(item);
+                    }
+                });
+        List<int[]> items = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            items.add(new int[1]);
+        }
+        StagedPipeline.run(pipeline, items);
+        assertTrue(pipeline.isTerminated());
+        assertEquals(10000, done.size());
+        for (int[] item : done) {
+            assertEquals(3, item[0]);
+        }
+        for (int i = 0; i < pipeline.stages(); i++) {
+            assertEquals(10000, pipeline.stats(i).processed());
+            assertEquals(0, pipeline.stats(i).queueDepth());
+        }
+        try {
+            pipeline.submit(new int[1]);
+            fail();
+        } catch (IllegalStateException e) {
+            //关闭后不能再提交
+        }
+    }
+
+    @Test
+    public void slowStageBlocksUpstream() throws InterruptedException {
+        List<StagedPipeline.Stage<Integer>> stages = new ArrayList<>();
+        stages.add(new StagedPipeline.Stage<Integer>() {
+            @Override
+            public void process(Integer item) {
+                //很快
+            }
+        });
+        stages.add(new StagedPipeline.Stage<Integer>() {
+            @Override
+            public void process(Integer item) {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(200));
+            }
+        });
+        final StagedPipeline<Integer> pipeline = new StagedPipeline<>(stages, 1, 2, RingBuffer.WaitStrategy.PARK,
+                null);
+        Thread submitter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; ; i++) {
+                        pipeline.submit(i);
+                    }
+                } catch (InterruptedException e) {
+                    //结束
+                }
+            }
+        });
+        submitter.start();
+        while (pipeline.stats(1).processed() < 100) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        //慢的阶段一直有事做，它前面的队列几乎总是满的，上游阻塞
+        //单次快照可能正好落在慢的阶段取走元素、上游还没补上的瞬间，所以多次采样
+        boolean queued = false;
+        for (int i = 0; i < 100 && !queued; i++) {
+            queued = pipeline.stats(1).queueDepth() > 0;
+            if (!queued) {
+                TimeUnit.MILLISECONDS.sleep(1);
+            }
+        }
+        assertTrue(queued);
+        assertTrue(pipeline.stats(0).blockedNanos() > 0);
+        assertTrue(pipeline.stats(0).processed() <= pipeline.stats(1).processed() + 4);
+        submitter.interrupt();
+        submitter.join();
+        pipeline.shutdownNow();
+        assertTrue(pipeline.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void workerDeathStopsPipeline() throws InterruptedException {
+        List<StagedPipeline.Stage<Integer>> stages = new ArrayList<>();
+        stages.add(new StagedPipeline.Stage<Integer>() {
+            @Override
+            public void process(Integer item) {
+                //阶段抛出的Error只丢弃这个元素
+                if (item == 0) {
+                    throw new AssertionError("处理失败");
+                }
+            }
+        });
+        stages.add(new StagedPipeline.Stage<Integer>() {
+            @Override
+            public void process(Integer item) {
+            }
+        });
+        StagedPipeline<Integer> pipeline = new StagedPipeline<>(stages, 1, 2, RingBuffer.WaitStrategy.YIELD,
+                new Consumer<Integer>() {
+                    @Override
+                    public void accept(Integer item) {
+                        //sink抛出的异常使最后一个阶段的工作线程退出
+                        if (item == 5) {
+                            throw new AssertionError("接收失败");
+                        }
+                    }
+                });
+        try {
+            for (int i = 0; i < 1000; i++) {
+                pipeline.submit(i);
+            }
+            fail();
+        } catch (IllegalStateException e) {
+            //流水线已经停止
+        }
+        //上游不会一直等待已经退出的下游
+        assertTrue(pipeline.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(5, pipeline.stats(1).processed());
+    }
+
+    @Test
+    public void spscQueueIsBoundedFifo() {
+        SpscQueue<Integer> queue = new SpscQueue<>(4);
+        //多轮放入取出，序号越过数组的边界
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 4; i++) {
+                assertTrue(queue.offer(round * 4 + i));
+            }
+            assertFalse(queue.offer(-1));
+            assertEquals(4, queue.size());
+            for (int i = 0; i < 4; i++) {
+                assertEquals(round * 4 + i, queue.poll().intValue());
+            }
+            assertNull(queue.poll());
+            assertTrue(queue.isEmpty());
+        }
+    }
+
+}
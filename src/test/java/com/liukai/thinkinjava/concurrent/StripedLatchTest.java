@@ -0,0 +1,99 @@
+package com.liukai.thinkinjava.concurrent;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * 分段计数的倒计时门闩测试类
+ */
+public class StripedLatchTest {
+
+    @Test
+    public void opensExactlyOnceUnderConcurrentCountDowns() throws InterruptedException {
+        final StripedLatch latch = new StripedLatch(100000, 8);
+        assertEquals(8, latch.stripes());
+        assertEquals(100000, latch.getCount());
+        final AtomicInteger callbacks = new AtomicInteger();
+        latch.onComplete(new Runnable() {
+            @Override
+            public void run() {
+                callbacks.incrementAndGet();
+            }
+        });
+        ExecutorService es = Executors.newFixedThreadPool(4);
+        List<Thread> waiters = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread waiter = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        latch.await();
+                    } catch (InterruptedException e) {
+                        //结束
+                    }
+                }
+            });
+            waiter.start();
+            waiters.add(waiter);
+        }
+        //总共多递减1000次，多出的递减不起作用
+        for (int t = 0; t < 4; t++) {
+            es.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 25250; i++) {
+                        latch.countDown();
+                    }
+                }
+            });
+        }
+        es.shutdown();
+        assertTrue(es.awaitTermination(10, TimeUnit.SECONDS));
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        for (Thread waiter : waiters) {
+            waiter.join(10000);
+            assertFalse(waiter.isAlive());
+        }
+        assertEquals(0, latch.getCount());
+        assertEquals(1, callbacks.get());
+        assertTrue(latch.completion().isDone());
+    }
+
+    @Test
+    public void behavesLikeCountDownLatch() throws InterruptedException {
+        StripedLatch latch = new StripedLatch(3);
+        assertFalse(latch.await(10, TimeUnit.MILLISECONDS));
+        latch.countDown();
+        latch.countDown();
+        assertEquals(1, latch.getCount());
+        assertFalse(latch.completion().isDone());
+        latch.countDown();
+        assertTrue(latch.await(0, TimeUnit.MILLISECONDS));
+        //已经打开后登记的回调立即执行
+        final AtomicInteger callbacks = new AtomicInteger();
+        latch.onComplete(new Runnable() {
+            @Override
+            public void run() {
+                callbacks.incrementAndGet();
+            }
+        });
+        assertEquals(1, callbacks.get());
+        //计数为0的门闩一开始就是打开的
+        new StripedLatch(0).await();
+        try {
+            new StripedLatch(-1);
+            fail();
+        } catch (IllegalArgumentException e) {
+            //与CountDownLatch一样不接受负数
+        }
+    }
+
+}
@@ -0,0 +1,106 @@
+package com.liukai.thinkinjava.concurrent;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+/**
+ * 分片对象池测试类
+ */
+public class StripedPoolTest {
+
+    private static final Supplier<Fat> FAT_FACTORY = new Supplier<Fat>() {
+        @Override
+        public Fat get() {
+            return new Fat();
+        }
+    };
+
+    @Test
+    public void concurrentBatchesDoNotDeadlock() throws Exception {
+        final StripedPool<Fat> pool = new StripedPool<>(FAT_FACTORY, 4, 2);
+        ExecutorService es = Executors.newFixedThreadPool(2);
+        List<Future<?>> futures = new ArrayList<>();
+        //两个批量签出各要3个对象，总共只有4个，只有一次性获取许可才不会互相等待
+        for (int t = 0; t < 2; t++) {
+            futures.add(es.submit(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    List<Fat> batch = pool.checkOut(3);
+                    assertEquals(3, new HashSet<>(batch).size());
+                    pool.checkInAll(batch);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        es.shutdown();
+        assertEquals(4, pool.checkOut(4).size());
+        assertNull(pool.tryCheckOut());
+    }
+
+    @Test
+    public void blockedCheckOutWokenByCheckIn() throws Exception {
+        final StripedPool<Fat> pool = new StripedPool<>(FAT_FACTORY, 2, 2);
+        List<Fat> all = pool.checkOut(2);
+        try {
+            pool.checkOut(3);
+            fail();
+        } catch (IllegalArgumentException e) {
+            //超过池大小的批量签出永远无法满足
+        }
+        //不属于池的对象不会增加许可
+        pool.checkIn(new Fat());
+        assertNull(pool.tryCheckOut(10, TimeUnit.MILLISECONDS));
+
+        ExecutorService es = Executors.newSingleThreadExecutor();
+        Future<Fat> blocked = es.submit((Callable<Fat>) pool::checkOut);
+        TimeUnit.MILLISECONDS.sleep(50);
+        assertFalse(blocked.isDone());
+        pool.checkIn(all.get(1));
+        assertSame(all.get(1), blocked.get(10, TimeUnit.SECONDS));
+        //重复签入的对象只归还一个许可
+        pool.checkIn(all.get(0));
+        pool.checkIn(all.get(0));
+        assertSame(all.get(0), pool.tryCheckOut());
+        assertNull(pool.tryCheckOut());
+        es.shutdown();
+        pool.close();
+    }
+
+    @Test
+    public void waitersOnEveryShardAreWoken() throws Exception {
+        final StripedPool<Fat> pool = new StripedPool<>(FAT_FACTORY, 4, 4);
+        List<Fat> all = pool.checkOut(4);
+        //每个等待的线程有不同的主分片，签入的对象不一定属于它的主分片
+        ExecutorService es = Executors.newFixedThreadPool(4);
+        List<Future<Fat>> blocked = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            blocked.add(es.submit((Callable<Fat>) pool::checkOut));
+        }
+        TimeUnit.MILLISECONDS.sleep(50);
+        for (Fat fat : all) {
+            pool.checkIn(fat);
+        }
+        HashSet<Fat> received = new HashSet<>();
+        for (Future<Fat> future : blocked) {
+            received.add(future.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(new HashSet<>(all), received);
+        assertNull(pool.tryCheckOut(10, TimeUnit.MILLISECONDS));
+        es.shutdown();
+        pool.close();
+    }
+
+}
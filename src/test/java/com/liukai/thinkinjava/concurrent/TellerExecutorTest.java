@@ -0,0 +1,70 @@
+package com.liukai.thinkinjava.concurrent;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 工作窃取的出纳员执行器测试类
+ */
+public class TellerExecutorTest {
+
+    @Test
+    public void manyTellersServeAllCustomers() throws InterruptedException {
+        BankTellerTelemetry telemetry = new BankTellerTelemetry();
+        TellerExecutor executor = new TellerExecutor(2, 1000, 0, telemetry);
+        executor.setWorkingTellers(10000);
+        assertEquals(10000, executor.workingTellers());
+        for (int i = 0; i < 100000; i++) {
+            executor.submit(new Customer(i % 1000));
+        }
+        awaitServed(telemetry, 100000);
+        assertEquals(0, executor.lineSize());
+        executor.shutdown();
+    }
+
+    @Test
+    public void reassignedTellersHandOffCustomers() throws InterruptedException {
+        BankTellerTelemetry telemetry = new BankTellerTelemetry();
+        //服务时间每毫秒对应0.1毫秒
+        TellerExecutor executor = new TellerExecutor(2, 200, TimeUnit.MICROSECONDS.toNanos(100), telemetry);
+        executor.setWorkingTellers(8);
+        for (int i = 0; i < 200; i++) {
+            executor.submit(new Customer(10));
+            if (i == 100) {
+                executor.setWorkingTellers(1);
+            }
+            if (i == 150) {
+                executor.setWorkingTellers(4);
+            }
+        }
+        assertEquals(4, executor.workingTellers());
+        awaitServed(telemetry, 200);
+        assertEquals(0, executor.lineSize());
+        executor.shutdown();
+    }
+
+    @Test
+    public void enqueueTimeIsTakenAfterWaitingForSpace() throws InterruptedException {
+        BankTellerTelemetry telemetry = new BankTellerTelemetry();
+        TellerExecutor executor = new TellerExecutor(1, 1, 0, telemetry);
+        Customer customer = new Customer(0);
+        TimeUnit.MILLISECONDS.sleep(20);
+        long beforeSubmit = System.nanoTime();
+        executor.submit(customer);
+        //入队时间是拿到队列位置的时间，而不是创建顾客的时间
+        assertTrue(customer.getEnqueueTime() - beforeSubmit >= 0);
+        awaitServed(telemetry, 1);
+        executor.shutdown();
+    }
+
+    private static void awaitServed(BankTellerTelemetry telemetry, long customers) throws InterruptedException {
+        for (int i = 0; i < 1000 && telemetry.customersServed() < customers; i++) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertEquals(customers, telemetry.customersServed());
+    }
+
+}
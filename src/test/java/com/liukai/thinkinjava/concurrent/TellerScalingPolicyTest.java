@@ -0,0 +1,59 @@
+package com.liukai.thinkinjava.concurrent;
+
+import org.junit.Test;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+/**
+ * 出纳员调整策略测试类
+ */
+public class TellerScalingPolicyTest {
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    @Test
+    public void defaultPolicyKeepsOriginalRule() {
+        TellerScalingPolicy policy = TellerScalingPolicy.DEFAULT;
+        assertEquals(3, policy.targetTellers(new TellerScalingPolicy.Observation(1000, 7, 2, 6, 4, 2000)));
+        assertEquals(2, policy.targetTellers(new TellerScalingPolicy.Observation(1000, 5, 2, 6, 4, 2000)));
+        assertEquals(1, policy.targetTellers(new TellerScalingPolicy.Observation(1000, 3, 2, 6, 4, 2000)));
+        assertEquals(1, policy.targetTellers(new TellerScalingPolicy.Observation(1000, 0, 5, 6, 4, 2000)));
+    }
+
+    @Test
+    public void erlangC() {
+        //两个出纳员，负载为1时到达的顾客有1/3的概率需要排队
+        assertEquals(1.0 / 3, QueueingTheoryPolicy.erlangC(2, 1), 1e-9);
+        //一个出纳员时退化为M/M/1，排队概率等于利用率
+        assertEquals(0.7, QueueingTheoryPolicy.erlangC(1, 0.7), 1e-9);
+    }
+
+    @Test
+    public void predictivePoliciesCostLess() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        BankTellerEventSimulation.Config config = BankTellerEventSimulation.Config.DEFAULT;
+        BankTellerSweep.SweepResult baseline = BankTellerSweep.sweep(pool, config, 8, HOUR, 47);
+        BankTellerSweep.SweepResult queueing = BankTellerSweep.sweep(pool,
+                config.withScalingPolicy(new Supplier<TellerScalingPolicy>() {
+                    @Override
+                    public TellerScalingPolicy get() {
+                        return new QueueingTheoryPolicy();
+                    }
+                }), 8, HOUR, 47);
+        BankTellerSweep.SweepResult trend = BankTellerSweep.sweep(pool,
+                config.withScalingPolicy(new Supplier<TellerScalingPolicy>() {
+                    @Override
+                    public TellerScalingPolicy get() {
+                        return new EwmaTrendPolicy();
+                    }
+                }), 8, HOUR, 47);
+        pool.shutdown();
+        assertTrue(queueing.cost() < baseline.cost());
+        assertTrue(trend.cost() < baseline.cost());
+        assertTrue(trend.waitTimes.percentile(99) < baseline.waitTimes.percentile(99));
+    }
+
+}